@@ -0,0 +1,77 @@
+package net.gotev.dbframework.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal JMH-style harness. Runs an operation for some warmup iterations, then measures
+ * each of the configured iterations. Setup is executed before every iteration and is not
+ * measured.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+final class Benchmark {
+
+    static abstract class Operation {
+        /**
+         * Prepares the state for the next iteration. Not measured.
+         */
+        void setUp() throws Throwable { }
+
+        abstract void run() throws Throwable;
+    }
+
+    private final String name;
+    private final Map<String, Object> params = new LinkedHashMap<>();
+    private int warmupIterations = 3;
+    private int iterations = 10;
+    private long operationsPerIteration = 1;
+
+    Benchmark(String name) {
+        this.name = name;
+    }
+
+    Benchmark param(String name, Object value) {
+        params.put(name, value);
+        return this;
+    }
+
+    Benchmark warmupIterations(int iterations) {
+        this.warmupIterations = iterations;
+        return this;
+    }
+
+    Benchmark iterations(int iterations) {
+        this.iterations = iterations;
+        return this;
+    }
+
+    /**
+     * Sets the number of operations, like saved rows, performed by each iteration,
+     * used to compute the throughput.
+     */
+    Benchmark operationsPerIteration(long operations) {
+        this.operationsPerIteration = operations;
+        return this;
+    }
+
+    BenchmarkResult run(Operation operation) throws Throwable {
+        for (int i = 0; i < warmupIterations; i++) {
+            operation.setUp();
+            operation.run();
+        }
+
+        long[] samples = new long[iterations];
+
+        for (int i = 0; i < iterations; i++) {
+            operation.setUp();
+            long start = System.nanoTime();
+            operation.run();
+            samples[i] = System.nanoTime() - start;
+        }
+
+        BenchmarkResult result = new BenchmarkResult(name, params, operationsPerIteration, samples);
+        System.out.println(result);
+        return result;
+    }
+}
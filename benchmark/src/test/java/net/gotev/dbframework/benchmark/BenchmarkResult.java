@@ -0,0 +1,108 @@
+package net.gotev.dbframework.benchmark;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measured iterations of a benchmark.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+final class BenchmarkResult {
+
+    private final String name;
+    private final Map<String, Object> params;
+    private final long operationsPerIteration;
+    private final long[] samples;
+
+    BenchmarkResult(String name, Map<String, Object> params, long operationsPerIteration,
+                    long[] samples) {
+        this.name = name;
+        this.params = new LinkedHashMap<>(params);
+        this.operationsPerIteration = operationsPerIteration;
+        this.samples = samples.clone();
+        Arrays.sort(this.samples);
+    }
+
+    long getMeanNanos() {
+        long total = 0;
+        for (long sample : samples) {
+            total += sample;
+        }
+        return samples.length == 0 ? 0 : total / samples.length;
+    }
+
+    long getPercentileNanos(int percentile) {
+        if (samples.length == 0)
+            return 0;
+
+        int index = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+        return samples[Math.max(0, Math.min(index, samples.length - 1))];
+    }
+
+    double getOperationsPerSecond() {
+        long mean = getMeanNanos();
+        return mean == 0 ? 0 : operationsPerIteration * 1e9 / mean;
+    }
+
+    void writeJson(StringBuilder json) {
+        json.append("{\"name\":");
+        appendString(json, name);
+        json.append(",\"params\":{");
+
+        boolean first = true;
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+            if (!first)
+                json.append(',');
+            first = false;
+
+            appendString(json, param.getKey());
+            json.append(':');
+
+            if (param.getValue() instanceof Number) {
+                json.append(param.getValue());
+            } else {
+                appendString(json, String.valueOf(param.getValue()));
+            }
+        }
+
+        json.append("},\"unit\":\"ns\"")
+                .append(",\"iterations\":").append(samples.length)
+                .append(",\"operationsPerIteration\":").append(operationsPerIteration)
+                .append(",\"mean\":").append(getMeanNanos())
+                .append(",\"min\":").append(getPercentileNanos(0))
+                .append(",\"p50\":").append(getPercentileNanos(50))
+                .append(",\"p90\":").append(getPercentileNanos(90))
+                .append(",\"max\":").append(getPercentileNanos(100))
+                .append(",\"opsPerSecond\":")
+                .append(String.format(Locale.US, "%.1f", getOperationsPerSecond()))
+                .append('}');
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+
+            if (ch == '"' || ch == '\\') {
+                json.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                json.append(String.format(Locale.US, "\\u%04x", (int) ch));
+            } else {
+                json.append(ch);
+            }
+        }
+
+        json.append('"');
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s %s: mean %.3f ms, p90 %.3f ms, %.1f ops/s",
+                name, params, getMeanNanos() / 1e6, getPercentileNanos(90) / 1e6,
+                getOperationsPerSecond());
+    }
+}
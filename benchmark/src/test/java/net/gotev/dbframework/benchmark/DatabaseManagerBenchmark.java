@@ -0,0 +1,384 @@
+package net.gotev.dbframework.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import com.squareup.sqlbrite.BriteDatabase;
+import com.squareup.sqldelight.RowMapper;
+import com.squareup.sqldelight.SqlDelightStatement;
+
+import net.gotev.dbframework.DatabaseConfig;
+import net.gotev.dbframework.DatabaseManager;
+import net.gotev.dbframework.DatabaseMigration;
+import net.gotev.dbframework.SyncResult;
+import net.gotev.dbframework.TransactionBuilder;
+import net.gotev.dbframework.TransactionStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import rx.Subscription;
+import rx.functions.Action1;
+
+/**
+ * Benchmarks of the {@link DatabaseManager} hot paths, executed with different table sizes
+ * and change ratios. Table sizes can be overridden with the benchmark.sizes system property
+ * and change ratios with benchmark.changeRatios, both comma separated.
+ *
+ * Run with: ./gradlew :benchmark:testReleaseUnitTest -Pbenchmark
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class DatabaseManagerBenchmark {
+
+    private static final String TABLE = "bench";
+    private static final String ID = "_id";
+    private static final String NAME = "name";
+    private static final String VALUE = "value";
+
+    private static final SqlDelightStatement SELECT_ALL = new SqlDelightStatement(
+            "SELECT * FROM " + TABLE, new String[0], Collections.singleton(TABLE));
+
+    private static final SqlDelightStatement SELECT_IDS = new SqlDelightStatement(
+            "SELECT " + ID + " FROM " + TABLE, new String[0], Collections.singleton(TABLE));
+
+    private static final int[] DEFAULT_SIZES = {100, 1000, 10000};
+    private static final double[] DEFAULT_CHANGE_RATIOS = {0, 0.01, 0.1, 0.5};
+
+    private final ResultsWriter results = new ResultsWriter();
+
+    private static final class Row {
+        final long id;
+        final String name;
+        final long value;
+
+        Row(long id, String name, long value) {
+            this.id = id;
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    private static final RowMapper<Row> ROW_MAPPER = new RowMapper<Row>() {
+        @Override
+        public Row map(@NonNull Cursor cursor) {
+            return new Row(cursor.getLong(0), cursor.getString(1), cursor.getLong(2));
+        }
+    };
+
+    private static final class CreateBenchTable implements DatabaseMigration {
+        @Override
+        public void up(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " (" + ID + " INTEGER NOT NULL PRIMARY KEY, "
+                    + NAME + " TEXT, " + VALUE + " INTEGER NOT NULL)");
+        }
+
+        @Override
+        public void down(SQLiteDatabase db) {
+            db.execSQL(DatabaseManager.getDropTableSql(TABLE));
+        }
+    }
+
+    @Before
+    public void setUp() {
+        DatabaseManager.init(RuntimeEnvironment.application,
+                new DatabaseConfig("benchmark.db", new CreateBenchTable())
+                        .setWriteAheadLoggingEnabled(true));
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    /**
+     * All the benchmarks run in a single test, so they share the same database
+     * and the results end up in the same file.
+     */
+    @Test
+    public void runBenchmarks() throws Throwable {
+        int[] sizes = getSizes();
+        double[] changeRatios = getChangeRatios();
+
+        for (int size : sizes) {
+            bulkSave(size);
+            bulkSaveAll(size);
+        }
+
+        for (int size : sizes) {
+            for (double changeRatio : changeRatios) {
+                fullSync(size, changeRatio);
+                changesSync(size, changeRatio);
+            }
+        }
+
+        for (int size : sizes) {
+            listQuery(size);
+        }
+
+        for (int size : sizes) {
+            observableRequery(size);
+        }
+
+        results.write();
+    }
+
+    private void bulkSave(final int size) throws Throwable {
+        final List<ContentValues> records = createRecords(size, 0);
+
+        results.add(new Benchmark("bulkSave")
+                .param("rows", size)
+                .operationsPerIteration(size)
+                .run(new Benchmark.Operation() {
+                    @Override
+                    void setUp() throws Throwable {
+                        fillTable(Collections.<ContentValues>emptyList());
+                    }
+
+                    @Override
+                    void run() throws Throwable {
+                        TransactionBuilder transaction = new TransactionBuilder("bulkSave");
+
+                        for (ContentValues record : records) {
+                            transaction.add(DatabaseManager.save(TABLE, ID, record, false));
+                        }
+
+                        transaction.execute();
+                    }
+                }));
+    }
+
+    private void bulkSaveAll(final int size) throws Throwable {
+        final List<ContentValues> records = createRecords(size, 0);
+
+        results.add(new Benchmark("bulkSaveAll")
+                .param("rows", size)
+                .operationsPerIteration(size)
+                .run(new Benchmark.Operation() {
+                    @Override
+                    void setUp() throws Throwable {
+                        fillTable(Collections.<ContentValues>emptyList());
+                    }
+
+                    @Override
+                    void run() throws Throwable {
+                        new TransactionBuilder("bulkSaveAll")
+                                .add(DatabaseManager.saveAll(TABLE, ID, records))
+                                .execute();
+                    }
+                }));
+    }
+
+    private void fullSync(final int size, final double changeRatio) throws Throwable {
+        final List<ContentValues> existing = createRecords(size, 0);
+        final List<ContentValues> changed = changeRecords(existing, changeRatio);
+
+        results.add(new Benchmark("fullSync")
+                .param("rows", size)
+                .param("changeRatio", changeRatio)
+                .operationsPerIteration(size)
+                .run(new Benchmark.Operation() {
+                    @Override
+                    void setUp() throws Throwable {
+                        fillTable(existing);
+                    }
+
+                    @Override
+                    void run() throws Throwable {
+                        new TransactionBuilder("fullSync")
+                                .add(DatabaseManager.getInstance().syncTableWithList(
+                                        TABLE, ID, changed, SELECT_IDS, false))
+                                .execute();
+                    }
+                }));
+    }
+
+    private void changesSync(final int size, final double changeRatio) throws Throwable {
+        final List<ContentValues> existing = createRecords(size, 0);
+        final List<ContentValues> changed = changeRecords(existing, changeRatio);
+
+        results.add(new Benchmark("changesSync")
+                .param("rows", size)
+                .param("changeRatio", changeRatio)
+                .operationsPerIteration(size)
+                .run(new Benchmark.Operation() {
+                    @Override
+                    void setUp() throws Throwable {
+                        fillTable(existing);
+                    }
+
+                    @Override
+                    void run() throws Throwable {
+                        new TransactionBuilder("changesSync")
+                                .add(DatabaseManager.getInstance().syncTableWithList(
+                                        TABLE, ID, changed, (SyncResult) null))
+                                .execute();
+                    }
+                }));
+    }
+
+    private void listQuery(final int size) throws Throwable {
+        fillTable(createRecords(size, 0));
+
+        results.add(new Benchmark("listQuery")
+                .param("rows", size)
+                .operationsPerIteration(size)
+                .run(new Benchmark.Operation() {
+                    @Override
+                    void run() throws Throwable {
+                        List<Row> rows = DatabaseManager.getInstance()
+                                .executeListQuery(SELECT_ALL, ROW_MAPPER);
+
+                        if (rows.size() != size)
+                            throw new IllegalStateException("expected " + size + " rows, got " + rows.size());
+                    }
+                }));
+    }
+
+    /**
+     * Measures the time from the commit of a change to the emission of the re-queried list.
+     */
+    private void observableRequery(final int size) throws Throwable {
+        fillTable(createRecords(size, 0));
+
+        final Semaphore emissions = new Semaphore(0);
+
+        Subscription subscription = DatabaseManager.getObservableList(SELECT_ALL, ROW_MAPPER)
+                .subscribe(new Action1<List<Row>>() {
+                    @Override
+                    public void call(List<Row> rows) {
+                        emissions.release();
+                    }
+                });
+
+        try {
+            awaitEmission(emissions);
+
+            results.add(new Benchmark("observableRequery")
+                    .param("rows", size)
+                    .run(new Benchmark.Operation() {
+                        private long value;
+
+                        @Override
+                        void run() throws Throwable {
+                            ContentValues record = createRecord(1, ++value);
+                            new TransactionBuilder("observableRequery")
+                                    .add(DatabaseManager.save(TABLE, ID, record, false))
+                                    .execute();
+
+                            awaitEmission(emissions);
+                        }
+                    }));
+
+        } finally {
+            subscription.unsubscribe();
+        }
+    }
+
+    private static void awaitEmission(Semaphore emissions) throws InterruptedException {
+        if (!emissions.tryAcquire(30, TimeUnit.SECONDS))
+            throw new IllegalStateException("observable query did not emit");
+    }
+
+    private static void fillTable(final List<ContentValues> records) throws Throwable {
+        new TransactionBuilder("fillTable")
+                .add(new TransactionStatement() {
+                    @Override
+                    public void onStatement(BriteDatabase db) throws Throwable {
+                        db.delete(TABLE, null);
+
+                        for (ContentValues record : records) {
+                            db.insert(TABLE, record);
+                        }
+                    }
+                })
+                .execute();
+    }
+
+    private static ContentValues createRecord(long id, long value) {
+        ContentValues record = new ContentValues();
+        record.put(ID, id);
+        record.put(NAME, "row " + id);
+        record.put(VALUE, value);
+        return record;
+    }
+
+    private static List<ContentValues> createRecords(int size, long value) {
+        List<ContentValues> records = new ArrayList<>(size);
+
+        for (int i = 1; i <= size; i++) {
+            records.add(createRecord(i, value));
+        }
+
+        return records;
+    }
+
+    /**
+     * Creates a new version of the records where the given ratio of rows changed:
+     * half of them are modified, a quarter deleted and a quarter replaced by new rows.
+     */
+    private static List<ContentValues> changeRecords(List<ContentValues> records, double changeRatio) {
+        int changes = (int) Math.round(records.size() * changeRatio);
+        int deleted = changes / 4;
+        int modified = changes - deleted * 2;
+
+        List<ContentValues> changed = new ArrayList<>(records.size());
+
+        for (int i = deleted; i < records.size(); i++) {
+            ContentValues record = records.get(i);
+
+            if (i < deleted + modified) {
+                changed.add(createRecord(record.getAsLong(ID), record.getAsLong(VALUE) + 1));
+            } else {
+                changed.add(record);
+            }
+        }
+
+        for (int i = 1; i <= deleted; i++) {
+            changed.add(createRecord(records.size() + i, 0));
+        }
+
+        return changed;
+    }
+
+    private static int[] getSizes() {
+        String property = System.getProperty("benchmark.sizes");
+        if (property == null || property.isEmpty())
+            return DEFAULT_SIZES;
+
+        String[] values = property.split(",");
+        int[] sizes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sizes[i] = Integer.parseInt(values[i].trim());
+        }
+        return sizes;
+    }
+
+    private static double[] getChangeRatios() {
+        String property = System.getProperty("benchmark.changeRatios");
+        if (property == null || property.isEmpty())
+            return DEFAULT_CHANGE_RATIOS;
+
+        String[] values = property.split(",");
+        double[] ratios = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ratios[i] = Double.parseDouble(values[i].trim());
+        }
+        return ratios;
+    }
+}
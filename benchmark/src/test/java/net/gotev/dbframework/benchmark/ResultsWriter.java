@@ -0,0 +1,67 @@
+package net.gotev.dbframework.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects benchmark results and writes them in JSON, to be able to compare
+ * different runs and track regressions over time.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+final class ResultsWriter {
+
+    private static final String OUTPUT_PROPERTY = "benchmark.output";
+
+    private final List<BenchmarkResult> results = new ArrayList<>();
+
+    synchronized void add(BenchmarkResult result) {
+        results.add(result);
+    }
+
+    /**
+     * Writes the collected results in the file set in the benchmark.output system property,
+     * or in build/benchmark/results.json if not set.
+     */
+    synchronized void write() throws IOException {
+        String path = System.getProperty(OUTPUT_PROPERTY, "build/benchmark/results.json");
+        File file = new File(path);
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs())
+            throw new IOException("Can't create " + parent);
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"timestamp\":").append(System.currentTimeMillis())
+                .append(",\"jvm\":");
+        BenchmarkResult.appendString(json, System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.version"));
+        json.append(",\"os\":");
+        BenchmarkResult.appendString(json, System.getProperty("os.name") + " "
+                + System.getProperty("os.arch"));
+        json.append(",\"results\":[");
+
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0)
+                json.append(',');
+            json.append('\n');
+            results.get(i).writeJson(json);
+        }
+
+        json.append("\n]}\n");
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json.toString());
+        } finally {
+            writer.close();
+        }
+
+        System.out.println("Benchmark results written to " + file.getAbsolutePath());
+    }
+}
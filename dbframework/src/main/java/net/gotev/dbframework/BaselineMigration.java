@@ -0,0 +1,23 @@
+package net.gotev.dbframework;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Migration which also provides a consolidated baseline schema, equivalent to the result
+ * of applying all the migrations up to and including this one.
+ *
+ * On fresh installs, the database is created from the baseline of the last
+ * {@link BaselineMigration} and only the following migrations are applied, instead of
+ * replaying the whole migration history. Existing databases keep being upgraded with
+ * {@link #up(SQLiteDatabase)}, so the baseline must produce exactly the same schema and data.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public interface BaselineMigration extends DatabaseMigration {
+    /**
+     * SQL to execute to create the whole schema at the version of this migration
+     * on an empty database.
+     * @param db database instance
+     */
+    void createBaseline(SQLiteDatabase db);
+}
@@ -0,0 +1,374 @@
+package net.gotev.dbframework;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.squareup.sqlbrite.BriteDatabase;
+
+import net.gotev.dbframework.DatabaseManager.LogLevel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Stores large values in files next to the database, so they don't have to pass through
+ * the CursorWindow, which fails with rows bigger than about 2MB and copies every value
+ * read with a query into the Java heap.
+ *
+ * Files are named after the SHA-256 of their content: the rows keep only that name, which
+ * is both the reference and the checksum of the value, in a TEXT column. Equal values are
+ * stored once. Values are read with memory mapped buffers, which are not copied into the
+ * Java heap.
+ *
+ * Files are never deleted when rows are changed. Register the reference columns with
+ * {@link #addReferenceColumn(String, String)} and call {@link #deleteOrphans()} from time to
+ * time (e.g. in {@link DatabaseManager#scheduleMaintenance}) to delete the files which are
+ * no longer referenced.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class BlobStore {
+
+    /**
+     * Default time after which unreferenced files can be deleted.
+     */
+    public static final long DEFAULT_GRACE_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}");
+    private static final String TEMP_PREFIX = ".tmp-";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final DatabaseManager manager;
+    private final List<String[]> referenceColumns = new ArrayList<>();
+    private long gracePeriodMillis = DEFAULT_GRACE_PERIOD_MILLIS;
+
+    /**
+     * Creates a blob store for the default database instance.
+     * @param context application context
+     */
+    public BlobStore(Context context) {
+        this(context, DatabaseManager.getInstance());
+    }
+
+    /**
+     * Creates a blob store for the given database instance. Its files are stored in the
+     * directory named as the database file followed by "-blobs".
+     *
+     * @param context application context
+     * @param manager database instance
+     */
+    public BlobStore(Context context, DatabaseManager manager) {
+        if (manager == null)
+            throw new IllegalArgumentException("database manager must not be null");
+
+        if (manager.getDatabaseName() == null)
+            throw new IllegalArgumentException("A blob store can't be used with an in-memory database");
+
+        File databaseFile = context.getDatabasePath(manager.getDatabaseName());
+        this.directory = new File(databaseFile.getParentFile(), databaseFile.getName() + "-blobs");
+        this.manager = manager;
+    }
+
+    /**
+     * Registers a TEXT column which contains blob keys. Files whose keys are not in any
+     * of the registered columns are deleted by {@link #deleteOrphans()}.
+     *
+     * @param table table name
+     * @param column column name
+     * @return {@link BlobStore}
+     */
+    public synchronized BlobStore addReferenceColumn(String table, String column) {
+        if (table == null || table.isEmpty() || column == null || column.isEmpty())
+            throw new IllegalArgumentException("table and column must not be null or empty");
+
+        referenceColumns.add(new String[]{table, column});
+        return this;
+    }
+
+    /**
+     * Sets the minimum age of the unreferenced files deleted by {@link #deleteOrphans()}.
+     * Files are written before the rows which reference them are committed, so it must be
+     * longer than the time between a {@link #put(InputStream)} and the commit of its row.
+     *
+     * @param period grace period. Default is {@link #DEFAULT_GRACE_PERIOD_MILLIS} milliseconds
+     * @param unit grace period time unit
+     * @return {@link BlobStore}
+     */
+    public synchronized BlobStore setGracePeriod(long period, TimeUnit unit) {
+        if (period < 0)
+            throw new IllegalArgumentException("grace period must not be negative");
+
+        this.gracePeriodMillis = unit.toMillis(period);
+        return this;
+    }
+
+    /**
+     * @return directory which contains the blob files
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stores a value.
+     * @param data value
+     * @return key to save in the row
+     * @throws IOException if the file can't be written
+     */
+    public String put(byte[] data) throws IOException {
+        MessageDigest digest = newDigest();
+        File tempFile = createTempFile();
+
+        try {
+            FileOutputStream output = new FileOutputStream(tempFile);
+
+            try {
+                output.write(data);
+                digest.update(data);
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+
+            return commit(tempFile, digest);
+
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Stores a value read from a stream. The stream is read until its end, but not closed.
+     * @param input value stream
+     * @return key to save in the row
+     * @throws IOException if the stream can't be read or the file can't be written
+     */
+    public String put(InputStream input) throws IOException {
+        MessageDigest digest = newDigest();
+        File tempFile = createTempFile();
+
+        try {
+            FileOutputStream output = new FileOutputStream(tempFile);
+
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+
+                while ((read = input.read(buffer)) >= 0) {
+                    output.write(buffer, 0, read);
+                    digest.update(buffer, 0, read);
+                }
+
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+
+            return commit(tempFile, digest);
+
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private File createTempFile() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+            throw new IOException("Can't create blob store directory " + directory);
+
+        return File.createTempFile(TEMP_PREFIX, null, directory);
+    }
+
+    private String commit(File tempFile, MessageDigest digest) throws IOException {
+        String key = toHex(digest.digest());
+        File file = getFile(key);
+
+        // synchronized with deleteOrphans, so a file can't be deleted while it's being stored again
+        synchronized (this) {
+            if (file.exists()) {
+                // it's referenced again, so its grace period starts again. Some filesystems
+                // don't support setting the time, so the new copy replaces the old one instead
+                if (!file.setLastModified(System.currentTimeMillis()) && !tempFile.renameTo(file))
+                    throw new IOException("Can't refresh the modification time of " + file);
+                return key;
+            }
+
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+                throw new IOException("Can't create blob store directory " + parent);
+
+            if (!tempFile.renameTo(file))
+                throw new IOException("Can't move " + tempFile + " to " + file);
+        }
+
+        return key;
+    }
+
+    /**
+     * Gets the file of a value. Files must not be modified.
+     * @param key value key
+     * @return value file
+     */
+    public File getFile(String key) {
+        if (key == null || !KEY.matcher(key).matches())
+            throw new IllegalArgumentException("invalid blob key: " + key);
+
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    /**
+     * @param key value key
+     * @return true if the value is stored
+     */
+    public boolean exists(String key) {
+        return getFile(key).isFile();
+    }
+
+    /**
+     * Maps a value in memory. The content is read from the file by the operating system
+     * when it's accessed, without being copied into the Java heap.
+     *
+     * @param key value key
+     * @return read-only buffer with the value
+     * @throws IOException if the value doesn't exist or it can't be mapped
+     */
+    public MappedByteBuffer map(String key) throws IOException {
+        FileInputStream input = new FileInputStream(getFile(key));
+
+        try {
+            // the mapping stays valid after the channel is closed
+            FileChannel channel = input.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Checks that a stored value has not been corrupted, by comparing its checksum with its key.
+     * @param key value key
+     * @return true if the value is intact
+     * @throws IOException if the value doesn't exist or it can't be read
+     */
+    public boolean verify(String key) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = map(key);
+        digest.update(buffer);
+        return key.equals(toHex(digest.digest()));
+    }
+
+    /**
+     * Deletes the files which are not referenced by any of the registered columns and which
+     * are older than the grace period. The references are read in a transaction, so they
+     * are consistent across tables, and files are deleted only after it's ended, so a rolled
+     * back change never loses a referenced file.
+     *
+     * @return number of deleted files
+     * @throws Throwable if the references can't be read
+     */
+    public int deleteOrphans() throws Throwable {
+        final List<String[]> columns;
+        final long cutoff;
+
+        synchronized (this) {
+            if (referenceColumns.isEmpty())
+                throw new IllegalStateException("You must add at least one reference column!");
+
+            columns = new ArrayList<>(referenceColumns);
+            cutoff = System.currentTimeMillis() - gracePeriodMillis;
+        }
+
+        final Set<String> referenced = new HashSet<>();
+
+        new TransactionBuilder(manager, "read blob references")
+                .add(new TransactionStatement() {
+                    @Override
+                    public void onStatement(BriteDatabase db) throws Throwable {
+                        for (String[] column : columns) {
+                            readReferences(db, column[0], column[1], referenced);
+                        }
+                    }
+                })
+                .execute();
+
+        int deleted = 0;
+        File[] directories = directory.listFiles();
+
+        if (directories == null)
+            return 0;
+
+        for (File subdirectory : directories) {
+            if (subdirectory.isFile()) {
+                // temp files left by interrupted writes
+                if (subdirectory.getName().startsWith(TEMP_PREFIX) && deleteIfOlder(subdirectory, cutoff))
+                    deleted++;
+                continue;
+            }
+
+            File[] files = subdirectory.listFiles();
+
+            if (files == null)
+                continue;
+
+            for (File file : files) {
+                if (!referenced.contains(file.getName()) && deleteIfOlder(file, cutoff))
+                    deleted++;
+            }
+        }
+
+        manager.logMessage(LogLevel.INFO, "Deleted %d orphan blobs", deleted);
+        return deleted;
+    }
+
+    private static void readReferences(BriteDatabase db, String table, String column,
+                                       Set<String> referenced) {
+        Cursor cursor = db.query("SELECT DISTINCT `" + column + "` FROM `" + table
+                + "` WHERE `" + column + "` IS NOT NULL");
+
+        try {
+            while (cursor.moveToNext()) {
+                referenced.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private synchronized boolean deleteIfOlder(File file, long cutoff) {
+        return file.lastModified() < cutoff && file.delete();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException("SHA-256 is not available", exc);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+
+        return new String(hex);
+    }
+}
@@ -0,0 +1,339 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteStatement;
+
+import com.squareup.sqlbrite.BriteDatabase;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.gotev.dbframework.DatabaseManager.LogLevel;
+
+/**
+ * Imports records into a table while reading them from a {@link RecordSource}, binding each
+ * one straight into a single compiled INSERT statement. Only the record being imported is kept
+ * in memory, so it can import payloads of any size.
+ *
+ * Example:
+ * <pre>
+ * long imported = new BulkImport("test", "_id", "name", "age")
+ *         .setUpsertKey("_id")
+ *         .execute(RecordSources.fromJsonArray(inputStream));
+ * </pre>
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class BulkImport {
+
+    /**
+     * Receives the progress of a chunked import.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after each committed chunk.
+         * @param importedRecords number of committed records
+         */
+        void onProgress(long importedRecords);
+    }
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private final String tableName;
+    private final String[] columns;
+    private String conflictClause;
+    private String upsertKey;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private ProgressListener listener;
+    private DatabaseManager manager;
+
+    /**
+     * Creates a new bulk import.
+     * @param tableName table in which to import the records
+     * @param columns columns to import. Columns missing in a record are set to null, while
+     *                values of other columns are ignored
+     */
+    public BulkImport(String tableName, String... columns) {
+        if (tableName == null || tableName.isEmpty())
+            throw new IllegalArgumentException("table name not defined in BulkImport");
+
+        if (columns == null || columns.length == 0)
+            throw new IllegalArgumentException("You must import at least one column!");
+
+        this.tableName = tableName;
+        this.columns = columns.clone();
+    }
+
+    /**
+     * Sets the SQLite conflict clause used when a record violates a constraint, like IGNORE.
+     * By default the import fails. To update the rows which already exist, use
+     * {@link #setUpsertKey(String)} instead of REPLACE, which deletes them and inserts them
+     * again, firing ON DELETE cascades and triggers.
+     * @param conflictClause conflict clause, or null
+     * @return {@link BulkImport}
+     */
+    public BulkImport setConflictClause(String conflictClause) {
+        this.conflictClause = conflictClause;
+        return this;
+    }
+
+    /**
+     * Updates the rows which already exist instead of inserting them, matching them on the
+     * given column, which must be the primary key or have a UNIQUE constraint. On SQLite 3.24.0
+     * or later (Android 11+) records are upserted with INSERT ... ON CONFLICT DO UPDATE,
+     * on older versions they are updated and, if missing, inserted. Rows are never deleted.
+     * When set, the conflict clause is not used.
+     * @param column key column. It must be one of the imported columns. Null to insert records
+     * @return {@link BulkImport}
+     */
+    public BulkImport setUpsertKey(String column) {
+        if (column != null && !Arrays.asList(columns).contains(column))
+            throw new IllegalArgumentException("upsert key " + column + " is not an imported column");
+
+        this.upsertKey = column;
+        return this;
+    }
+
+    /**
+     * Sets the number of records committed together by {@link #execute(RecordSource)}.
+     * @param records records per chunk. Default is {@link #DEFAULT_CHUNK_SIZE}
+     * @return {@link BulkImport}
+     */
+    public BulkImport setChunkSize(int records) {
+        if (records < 1)
+            throw new IllegalArgumentException("chunk size must be at least 1");
+
+        this.chunkSize = records;
+        return this;
+    }
+
+    /**
+     * Sets the listener which receives the progress after each committed chunk.
+     * @param listener progress listener
+     * @return {@link BulkImport}
+     */
+    public BulkImport setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the database instance on which {@link #execute(RecordSource)} imports the records.
+     * @param manager database instance. Default is {@link DatabaseManager#getInstance()}
+     * @return {@link BulkImport}
+     */
+    public BulkImport setDatabaseManager(DatabaseManager manager) {
+        this.manager = manager;
+        return this;
+    }
+
+    /**
+     * Gets a statement which imports all the records of the source in the transaction
+     * to which it's added, so they're committed all together with the transaction.
+     * The source is closed when the statement has been executed.
+     *
+     * @param source record source
+     * @return transaction statement
+     */
+    public TransactionStatement toStatement(final RecordSource source) {
+        return new TransactionStatement() {
+            @Override
+            public void onStatement(BriteDatabase db) throws Throwable {
+                try {
+                    importRecords(DatabaseManager.getInstance(db), db, source, Long.MAX_VALUE,
+                            new ContentValues());
+                } finally {
+                    source.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Imports all the records of the source, committing them in chunks, so the database is not
+     * locked for the whole import, memory used by the journal stays low and other threads can
+     * access the database between chunks.
+     * The source is closed when the import finishes or fails.
+     *
+     * If a record can't be read or imported, its chunk is rolled back and a
+     * {@link ChunkedTransactionException} is thrown, whose
+     * {@link ChunkedTransactionException#getCommittedRecords()} tells how many records
+     * have been committed.
+     *
+     * @param source record source
+     * @return number of imported records
+     * @throws ChunkedTransactionException if the import fails
+     */
+    public long execute(RecordSource source) throws ChunkedTransactionException {
+        String name = "bulk import into " + tableName;
+        DatabaseManager manager = this.manager == null ? DatabaseManager.getInstance() : this.manager;
+        manager.logMessage(LogLevel.DEBUG, "Executing %s", name);
+
+        DatabaseMetrics metrics = manager.getMetrics();
+        long startTime = metrics == null ? 0 : System.nanoTime();
+        boolean successful = false;
+        long imported = 0;
+
+        DatabaseLease lease = manager.acquireDatabase();
+
+        try {
+            BriteDatabase db = lease.getDatabase();
+            ContentValues record = new ContentValues();
+            boolean hasMore = true;
+
+            while (hasMore) {
+                long chunk;
+                BriteDatabase.Transaction transaction = db.newTransaction();
+
+                try {
+                    chunk = importRecords(manager, db, source, chunkSize, record);
+                    hasMore = chunk == chunkSize;
+                    transaction.markSuccessful();
+
+                } catch (Throwable exc) {
+                    try {
+                        transaction.end();
+                    } catch (Throwable ignored) { }
+
+                    throw new ChunkedTransactionException(name, imported, exc);
+                }
+
+                try {
+                    transaction.end();
+                } catch (RuntimeException exc) {
+                    // commit failed
+                    throw new ChunkedTransactionException(name, imported, exc);
+                }
+
+                manager.onCommit();
+                imported += chunk;
+                manager.logMessage(LogLevel.DEBUG, "Committed %d records of %s", imported, name);
+
+                if (listener != null)
+                    listener.onProgress(imported);
+
+                // let threads waiting for the lock go before starting the next chunk
+                Thread.yield();
+            }
+
+            successful = true;
+            manager.logMessage(LogLevel.DEBUG, "Successful %s", name);
+
+        } finally {
+            try {
+                source.close();
+            } catch (IOException ignored) { }
+
+            lease.close();
+
+            if (metrics != null)
+                metrics.onTransaction(name, System.nanoTime() - startTime,
+                        (int) Math.min(imported, Integer.MAX_VALUE), successful);
+        }
+
+        return imported;
+    }
+
+    /**
+     * Imports up to the given number of records from the source.
+     * @return number of imported records. Less than maxRecords if the source has no more records
+     */
+    private long importRecords(DatabaseManager manager, BriteDatabase db, RecordSource source,
+                               long maxRecords, ContentValues record) throws IOException {
+        if (upsertKey != null && !manager.isSqliteVersionAtLeast(3, 24))
+            return updateOrInsertRecords(manager, db, source, maxRecords, record);
+
+        StatementCache statementCache = manager.getStatementCache();
+        String sql = upsertKey == null
+                ? StatementCache.getInsertSql(conflictClause, tableName, columns)
+                : StatementCache.getInsertRowsSql(tableName, columns, 1, upsertKey);
+        SQLiteStatement statement = statementCache.acquire(db, sql);
+        long imported = 0;
+
+        try {
+            while (imported < maxRecords) {
+                record.clear();
+
+                if (!source.next(record))
+                    break;
+
+                for (int i = 0; i < columns.length; i++) {
+                    StatementCache.bind(statement, i + 1, record.get(columns[i]));
+                }
+
+                db.executeInsert(tableName, statement);
+                imported++;
+            }
+        } finally {
+            statementCache.release(sql, statement);
+        }
+
+        return imported;
+    }
+
+    /**
+     * Imports up to the given number of records from the source, updating the existing rows
+     * and inserting the missing ones, for SQLite versions without upsert.
+     * @return number of imported records. Less than maxRecords if the source has no more records
+     */
+    private long updateOrInsertRecords(DatabaseManager manager, BriteDatabase db, RecordSource source,
+                                       long maxRecords, ContentValues record) throws IOException {
+        String[] updateColumns = new String[columns.length - 1];
+        int index = 0;
+
+        for (String column : columns) {
+            if (!column.equals(upsertKey))
+                updateColumns[index++] = column;
+        }
+
+        StatementCache statementCache = manager.getStatementCache();
+        // with only the key there's nothing to update, so existing rows are left as they are
+        String insertSql = StatementCache.getInsertSql(updateColumns.length == 0 ? "IGNORE" : null,
+                tableName, columns);
+        String updateSql = updateColumns.length == 0
+                ? null : StatementCache.getUpdateSql(tableName, updateColumns, upsertKey);
+
+        SQLiteStatement insert = statementCache.acquire(db, insertSql);
+        long imported = 0;
+
+        try {
+            SQLiteStatement update = updateSql == null ? null : statementCache.acquire(db, updateSql);
+
+            try {
+                while (imported < maxRecords) {
+                    record.clear();
+
+                    if (!source.next(record))
+                        break;
+
+                    Object key = record.get(upsertKey);
+                    boolean updated = false;
+
+                    if (update != null && key != null) {
+                        for (int i = 0; i < updateColumns.length; i++) {
+                            StatementCache.bind(update, i + 1, record.get(updateColumns[i]));
+                        }
+                        StatementCache.bind(update, updateColumns.length + 1, key);
+                        updated = db.executeUpdateDelete(tableName, update) > 0;
+                    }
+
+                    if (!updated) {
+                        for (int i = 0; i < columns.length; i++) {
+                            StatementCache.bind(insert, i + 1, record.get(columns[i]));
+                        }
+                        db.executeInsert(tableName, insert);
+                    }
+
+                    imported++;
+                }
+            } finally {
+                if (update != null)
+                    statementCache.release(updateSql, update);
+            }
+        } finally {
+            statementCache.release(insertSql, insert);
+        }
+
+        return imported;
+    }
+}
@@ -0,0 +1,39 @@
+package net.gotev.dbframework;
+
+/**
+ * Thrown when a chunk of a transaction executed with
+ * {@link TransactionBuilder#executeChunked(int, long, int, TransactionBuilder.ProgressListener)}
+ * fails. The failed chunk is rolled back, while the previous chunks remain committed.
+ * To resume the execution, pass {@link #getCommittedStatements()} as the statement
+ * from which to start. Also thrown by {@link BulkImport#execute(RecordSource)}, whose
+ * committed records are given by {@link #getCommittedRecords()}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class ChunkedTransactionException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long committedStatements;
+
+    ChunkedTransactionException(String transactionName, long committedStatements, Throwable cause) {
+        super("Transaction " + transactionName + " failed after " + committedStatements
+                + " committed statements", cause);
+        this.committedStatements = committedStatements;
+    }
+
+    /**
+     * @return number of statements from the beginning of the transaction which have been
+     * committed, which is also the index of the first statement of the failed chunk
+     */
+    public int getCommittedStatements() {
+        return (int) Math.min(committedStatements, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return number of records committed by a {@link BulkImport} before the failed chunk
+     */
+    public long getCommittedRecords() {
+        return committedStatements;
+    }
+}
@@ -0,0 +1,358 @@
+package net.gotev.dbframework;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Database configuration to pass to {@link DatabaseManager#init(android.content.Context, DatabaseConfig)}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class DatabaseConfig {
+
+    private final String databaseName;
+    private final DatabaseMigration[] migrations;
+    private DatabaseManager.Logger logger;
+    private DatabaseManager.LogLevel logLevel = DatabaseManager.LogLevel.VERBOSE;
+    private boolean writeAheadLogging;
+    private int walAutoCheckpoint = -1;
+    private boolean incrementalAutoVacuum;
+    private PrebuiltDatabase prebuiltDatabase;
+    private Scheduler queryScheduler;
+    private int statementCacheSize = StatementCache.DEFAULT_SIZE;
+    private int queryCacheSize;
+    private long notificationWindowMillis;
+    private int groupCommitSize = 1;
+    private boolean metricsEnabled;
+    private MetricsListener metricsListener;
+    private long slowStatementThresholdNanos;
+    private boolean queryPlanAnalysis;
+
+    /**
+     * Creates a new database configuration.
+     * @param databaseName name of the database file, or null for an in-memory database
+     * @param migrations database migrations. You must have at least one migration
+     */
+    public DatabaseConfig(String databaseName, DatabaseMigration... migrations) {
+        if (migrations == null || migrations.length == 0)
+            throw new IllegalArgumentException("You must have at least one migration!");
+
+        this.databaseName = databaseName;
+        this.migrations = migrations;
+    }
+
+    /**
+     * Sets the logger. If null, logging is disabled.
+     * @param logger logger
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setLogger(DatabaseManager.Logger logger) {
+        this.logger = logger;
+        return this;
+    }
+
+    /**
+     * Sets the minimum level of the messages passed to the logger. Messages below the level
+     * are not even built, so hot paths like {@link DatabaseManager#syncTableWithList} don't
+     * pay for logging. Queries are logged at {@link DatabaseManager.LogLevel#DEBUG} level.
+     *
+     * @param level minimum log level. Default is {@link DatabaseManager.LogLevel#VERBOSE}
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setLogLevel(DatabaseManager.LogLevel level) {
+        if (level == null)
+            throw new IllegalArgumentException("log level must not be null");
+
+        this.logLevel = level;
+        return this;
+    }
+
+    /**
+     * Sets a pre-built database, which is copied in place of the app database when it's opened
+     * for the first time and the database file doesn't exist yet. Its user_version must be
+     * between 1 and the number of migrations: the migrations following its version are applied
+     * after the copy, and then normal upgrades take over.
+     *
+     * @param database pre-built database
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setPrebuiltDatabase(PrebuiltDatabase database) {
+        if (database != null && databaseName == null)
+            throw new IllegalArgumentException("A pre-built database can't be used for an in-memory database");
+
+        this.prebuiltDatabase = database;
+        return this;
+    }
+
+    /**
+     * Enables SQLite write-ahead logging. With WAL, reads are performed on a pool of
+     * connections and can proceed while a transaction is being committed by the writer,
+     * instead of waiting for it to finish. The reader pool size is determined by the
+     * Android platform.
+     *
+     * https://sqlite.org/wal.html
+     *
+     * @param enabled true to enable write-ahead logging, false to use rollback journal
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setWriteAheadLoggingEnabled(boolean enabled) {
+        this.writeAheadLogging = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the number of WAL pages after which SQLite performs an automatic checkpoint
+     * on commit. Set 0 to disable automatic checkpoints and perform them manually with
+     * {@link DatabaseManager#checkpoint(WalCheckpoint.Mode)}.
+     * If not set, the platform default is used. Applies only when write-ahead logging is enabled.
+     *
+     * @param pages number of pages
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setWalAutoCheckpoint(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("WAL auto checkpoint pages must not be negative");
+
+        this.walAutoCheckpoint = pages;
+        return this;
+    }
+
+    /**
+     * Enables SQLite incremental auto vacuum, so the space freed by deleted rows can be returned
+     * to the file system a few pages at a time with {@link DatabaseManager#runMaintenance(int)},
+     * instead of rewriting the whole file with {@link DatabaseManager#vacuum()}.
+     * It takes effect immediately on new databases, while existing databases have to be
+     * vacuumed once to activate it.
+     *
+     * https://sqlite.org/pragma.html#pragma_auto_vacuum
+     *
+     * @param enabled true to enable incremental auto vacuum
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setIncrementalAutoVacuum(boolean enabled) {
+        this.incrementalAutoVacuum = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of compiled statements cached by the {@link StatementCache} and
+     * by each SQLite connection.
+     *
+     * @param size cache size. Default is {@link StatementCache#DEFAULT_SIZE}
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setStatementCacheSize(int size) {
+        if (size < 1 || size > 100)
+            throw new IllegalArgumentException("statement cache size must be between 1 and 100");
+
+        this.statementCacheSize = size;
+        return this;
+    }
+
+    /**
+     * Enables the {@link QueryResultCache}, which caches the results of
+     * {@link DatabaseManager#executeQuery(com.squareup.sqldelight.SqlDelightStatement, com.squareup.sqldelight.RowMapper, Object)}
+     * and {@link DatabaseManager#executeListQuery(com.squareup.sqldelight.SqlDelightStatement, com.squareup.sqldelight.RowMapper)}
+     * until one of the tables involved in the query changes.
+     * Cached rows are shared between callers, so they should be immutable, like the ones
+     * generated with AutoValue. Results are cached per mapper instance, so reuse the same
+     * mapper (e.g. a static final one) to get cache hits.
+     *
+     * The cache is invalidated synchronously when transactions executed by the framework are
+     * committed. Writes made directly on the {@link com.squareup.sqlbrite.BriteDatabase}
+     * (e.g. obtained with {@link DatabaseManager#openDatabase()} or from a
+     * {@link DatabaseLease}) invalidate it only when SQLBrite delivers their table change
+     * notification on the query scheduler, so a query executed right after such a write may
+     * still get the previous result. Call {@link QueryResultCache#invalidate(String)} after
+     * those writes when the following queries must see them.
+     *
+     * @param size maximum number of cached results. 0 disables the cache, which is the default
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setQueryCacheSize(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("query cache size must not be negative");
+
+        this.queryCacheSize = size;
+        return this;
+    }
+
+    /**
+     * Sets the scheduler on which observable queries are re-executed after table changes.
+     * Giving each database instance its own scheduler prevents the queries of a busy
+     * database from delaying the ones of the others.
+     *
+     * @param scheduler scheduler. Default is {@link Schedulers#io()}
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setQueryScheduler(Scheduler scheduler) {
+        this.queryScheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * Sets the time window in which table change notifications are coalesced for observable
+     * queries. When set, after its first emission an observable query is re-executed at most
+     * once per window: a change starts the window and all the changes notified before it ends
+     * cause a single re-query. Results are never older than the window, also while changes
+     * keep coming, like during a chunked import.
+     * Changes made in a single transaction already produce a single notification, so this is
+     * useful when many transactions are committed in a short time, like during a sync.
+     *
+     * @param window window duration. 0 disables coalescing, which is the default
+     * @param unit window time unit
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setNotificationWindow(long window, TimeUnit unit) {
+        if (window < 0)
+            throw new IllegalArgumentException("notification window must not be negative");
+
+        this.notificationWindowMillis = unit.toMillis(window);
+        return this;
+    }
+
+    /**
+     * Enables group commit for transactions executed with {@link TransactionBuilder#executeAsync()}.
+     * Up to the given number of pending transactions are executed together and committed
+     * at once, so they pay a single commit. Each of them is executed in its own savepoint,
+     * so if one fails only its changes are rolled back and each caller gets its own result.
+     *
+     * @param maxTransactions maximum number of transactions to commit together.
+     *                        1 disables group commit, which is the default
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setGroupCommit(int maxTransactions) {
+        if (maxTransactions < 1)
+            throw new IllegalArgumentException("group commit size must be at least 1");
+
+        this.groupCommitSize = maxTransactions;
+        return this;
+    }
+
+    /**
+     * Enables the collection of query and transaction metrics, which can be read from
+     * {@link DatabaseManager#getMetrics()}. Disabled by default.
+     *
+     * @param enabled true to collect metrics
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setMetricsEnabled(boolean enabled) {
+        this.metricsEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Sets a listener which receives the metrics of each query and transaction.
+     * Setting a listener enables metrics collection.
+     *
+     * @param listener metrics listener
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setMetricsListener(MetricsListener listener) {
+        this.metricsListener = listener;
+        if (listener != null)
+            this.metricsEnabled = true;
+        return this;
+    }
+
+    /**
+     * Sets the duration above which queries and transactions get logged as slow.
+     * Setting a threshold enables metrics collection.
+     *
+     * @param threshold threshold. 0 disables slow statements logging, which is the default
+     * @param unit threshold time unit
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setSlowStatementThreshold(long threshold, TimeUnit unit) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("slow statement threshold must not be negative");
+
+        this.slowStatementThresholdNanos = unit.toNanos(threshold);
+        if (threshold > 0)
+            this.metricsEnabled = true;
+        return this;
+    }
+
+    /**
+     * Enables the {@link QueryPlanAnalyzer}, which captures the plan of each distinct query,
+     * flags full table scans and suggests the missing indexes. Each new query is executed
+     * twice the first time, so enable it only in debug builds, e.g. with BuildConfig.DEBUG.
+     *
+     * @param enabled true to analyze query plans. Disabled by default
+     * @return {@link DatabaseConfig}
+     */
+    public DatabaseConfig setQueryPlanAnalysisEnabled(boolean enabled) {
+        this.queryPlanAnalysis = enabled;
+        return this;
+    }
+
+    String getDatabaseName() {
+        return databaseName;
+    }
+
+    DatabaseMigration[] getMigrations() {
+        return migrations;
+    }
+
+    DatabaseManager.Logger getLogger() {
+        return logger;
+    }
+
+    DatabaseManager.LogLevel getLogLevel() {
+        return logLevel;
+    }
+
+    PrebuiltDatabase getPrebuiltDatabase() {
+        return prebuiltDatabase;
+    }
+
+    boolean isWriteAheadLoggingEnabled() {
+        return writeAheadLogging;
+    }
+
+    int getWalAutoCheckpoint() {
+        return walAutoCheckpoint;
+    }
+
+    boolean isIncrementalAutoVacuumEnabled() {
+        return incrementalAutoVacuum;
+    }
+
+    int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    int getQueryCacheSize() {
+        return queryCacheSize;
+    }
+
+    Scheduler getQueryScheduler() {
+        return queryScheduler == null ? Schedulers.io() : queryScheduler;
+    }
+
+    long getNotificationWindowMillis() {
+        return notificationWindowMillis;
+    }
+
+    int getGroupCommitSize() {
+        return groupCommitSize;
+    }
+
+    boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    long getSlowStatementThresholdNanos() {
+        return slowStatementThresholdNanos;
+    }
+
+    boolean isQueryPlanAnalysisEnabled() {
+        return queryPlanAnalysis;
+    }
+}
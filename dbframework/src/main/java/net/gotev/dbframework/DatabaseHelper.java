@@ -2,13 +2,22 @@ package net.gotev.dbframework;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteCursor;
 import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQuery;
 
-import static net.gotev.dbframework.DatabaseManager.logMessage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.gotev.dbframework.DatabaseManager.LogLevel;
 
 
 /**
@@ -18,66 +27,257 @@ import static net.gotev.dbframework.DatabaseManager.logMessage;
  */
 public class DatabaseHelper extends SQLiteOpenHelper {
 
-    private static DatabaseHelper instance;
-    private static DatabaseMigration[] dbMigrations;
-
-    static DatabaseHelper init(final Context context, final String dbName,
-                               DatabaseManager.Logger logger, DatabaseMigration... migrations) {
-        if (migrations == null || migrations.length == 0)
-            throw new IllegalArgumentException("You must have at least one migration!");
+    private final DatabaseManager manager;
+    private final DatabaseMigration[] dbMigrations;
+    private final DatabaseConfig config;
+    private final Context context;
+    private volatile boolean prebuiltDatabaseChecked;
 
-        if (null == instance) {
-            instance = new DatabaseHelper(context, dbName, logger, migrations);
-        }
-        return instance;
+    DatabaseHelper(DatabaseManager manager, Context context, final DatabaseConfig config) {
+        super(context, config.getDatabaseName(), getCursorFactory(config, manager.getQueryPlanAnalyzer()),
+              config.getMigrations().length);
+        this.manager = manager;
+        dbMigrations = config.getMigrations();
+        this.config = config;
+        this.context = context.getApplicationContext();
+        this.prebuiltDatabaseChecked = config.getPrebuiltDatabase() == null;
+        setWriteAheadLoggingEnabled(config.isWriteAheadLoggingEnabled());
     }
 
-    private DatabaseHelper(Context context, final String dbName,
-                           final DatabaseManager.Logger logger, DatabaseMigration... migrations) {
-        super(context, dbName, logger == null ? null : new SQLiteDatabase.CursorFactory() {
+    private static SQLiteDatabase.CursorFactory getCursorFactory(DatabaseConfig config,
+                                                                 final QueryPlanAnalyzer analyzer) {
+        final DatabaseManager.Logger logger =
+                config.getLogLevel().compareTo(LogLevel.DEBUG) > 0 ? null : config.getLogger();
+
+        if (logger == null && analyzer == null)
+            return null;
+
+        return new SQLiteDatabase.CursorFactory() {
+            private final QueryNormalizer normalizer = new QueryNormalizer();
+
             @Override
             public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query) {
-                logger.onQuery(query.toString().replace("SQLiteQuery: ", "").replaceAll("\\n", " "));
+                String sql = normalizer.normalize(query.toString());
+
+                if (logger != null)
+                    logger.onQuery(sql);
+
+                if (analyzer != null)
+                    analyzer.onQuery(db, sql);
+
                 return new SQLiteCursor(masterQuery, editTable, query);
             }
-        }, migrations.length);
-        dbMigrations = migrations;
+        };
+    }
+
+    /**
+     * Strips the SQLiteQuery prefix and new lines from queries, caching the results,
+     * so the same query is normalized only once.
+     */
+    private static final class QueryNormalizer {
+        private static final String PREFIX = "SQLiteQuery: ";
+        private static final int MAX_SIZE = 64;
+
+        private final LinkedHashMap<String, String> cache =
+                new LinkedHashMap<String, String>(MAX_SIZE, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                        return size() > MAX_SIZE;
+                    }
+                };
+
+        synchronized String normalize(String query) {
+            String normalized = cache.get(query);
+
+            if (normalized == null) {
+                int start = query.startsWith(PREFIX) ? PREFIX.length() : 0;
+                char[] chars = new char[query.length() - start];
+
+                for (int i = start; i < query.length(); i++) {
+                    char ch = query.charAt(i);
+                    chars[i - start] = ch == '\n' ? ' ' : ch;
+                }
+
+                normalized = new String(chars);
+                cache.put(query, normalized);
+            }
+
+            return normalized;
+        }
+    }
+
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        copyPrebuiltDatabaseIfNeeded();
+        return super.getWritableDatabase();
+    }
+
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        copyPrebuiltDatabaseIfNeeded();
+        return super.getReadableDatabase();
+    }
+
+    /**
+     * Copies the pre-built database, if set, when the database is opened for the first time
+     * and the database file doesn't exist yet.
+     */
+    private void copyPrebuiltDatabaseIfNeeded() {
+        if (prebuiltDatabaseChecked)
+            return;
+
+        synchronized (this) {
+            if (prebuiltDatabaseChecked)
+                return;
+
+            File databaseFile = context.getDatabasePath(config.getDatabaseName());
+
+            if (!databaseFile.exists())
+                copyPrebuiltDatabase(databaseFile);
+
+            prebuiltDatabaseChecked = true;
+        }
+    }
+
+    private void copyPrebuiltDatabase(File databaseFile) {
+        manager.logMessage(LogLevel.INFO, "Copying pre-built database");
+
+        long startTime = System.nanoTime();
+        File directory = databaseFile.getParentFile();
+        File tempFile = new File(directory, databaseFile.getName() + ".prebuilt");
+
+        try {
+            if (!directory.exists() && !directory.mkdirs())
+                throw new IOException("Can't create " + directory);
+
+            long bytes;
+            FileOutputStream stream = new FileOutputStream(tempFile);
+
+            try {
+                FileChannel channel = stream.getChannel();
+                bytes = config.getPrebuiltDatabase().copyTo(context, channel);
+                channel.force(true);
+            } finally {
+                stream.close();
+            }
+
+            int version = getPrebuiltDatabaseVersion(tempFile);
+
+            if (version < 1 || version > dbMigrations.length) {
+                throw new IllegalStateException("Pre-built database has version " + version
+                        + ", but it must be between 1 and the number of migrations ("
+                        + dbMigrations.length + ")");
+            }
+
+            // the database file appears only when it's complete and valid
+            if (!tempFile.renameTo(databaseFile))
+                throw new IOException("Can't move the pre-built database to " + databaseFile);
+
+            manager.logMessage(LogLevel.INFO, "Pre-built database at version %d copied in %dms (%d bytes)",
+                    version, elapsedMillis(startTime), bytes);
+
+        } catch (IOException exc) {
+            tempFile.delete();
+            throw new IllegalStateException("Can't copy the pre-built database", exc);
+
+        } catch (RuntimeException exc) {
+            tempFile.delete();
+            throw exc;
+        }
+    }
+
+    private static int getPrebuiltDatabaseVersion(File file) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+
+        try {
+            return db.getVersion();
+        } finally {
+            db.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        logMessage("Creating database");
+        int baselineVersion = getBaselineVersion();
+
+        if (baselineVersion == 0) {
+            manager.logMessage(LogLevel.INFO, "Creating database");
+        } else {
+            manager.logMessage(LogLevel.INFO, "Creating database from baseline at version %d", baselineVersion);
+
+            long startTime = System.nanoTime();
+            ((BaselineMigration) dbMigrations[baselineVersion - 1]).createBaseline(db);
+            manager.logMessage(LogLevel.INFO, "Baseline %s created in %dms",
+                    dbMigrations[baselineVersion - 1].getClass().getSimpleName(), elapsedMillis(startTime));
+        }
+
+        for (int i = baselineVersion; i < dbMigrations.length; i++) {
+            long startTime = System.nanoTime();
+            dbMigrations[i].up(db);
+            manager.logMessage(LogLevel.INFO, "Migration %s to version %d applied in %dms",
+                    dbMigrations[i].getClass().getSimpleName(), i + 1, elapsedMillis(startTime));
+        }
+    }
 
-        for (DatabaseMigration migration : dbMigrations) {
-            migration.up(db);
+    /**
+     * @return version of the last migration providing a baseline schema, or 0 if there's none
+     */
+    private int getBaselineVersion() {
+        for (int i = dbMigrations.length - 1; i >= 0; i--) {
+            if (dbMigrations[i] instanceof BaselineMigration)
+                return i + 1;
         }
+
+        return 0;
+    }
+
+    private static long elapsedMillis(long startTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        logMessage("Upgrading database schema from version " + oldVersion + " to " + newVersion);
+        manager.logMessage(LogLevel.INFO, "Upgrading database schema from version %d to %d", oldVersion, newVersion);
 
         for (int i = oldVersion; i < newVersion; i++) {
-            logMessage("Upgrading database from version " + i + " to " + (i + 1));
+            manager.logMessage(LogLevel.INFO, "Upgrading database from version %d to %d", i, i + 1);
 
+            long startTime = System.nanoTime();
             dbMigrations[i].up(db);
+            manager.logMessage(LogLevel.INFO, "Migration %s to version %d applied in %dms",
+                    dbMigrations[i].getClass().getSimpleName(), i + 1, elapsedMillis(startTime));
         }
     }
 
     @Override
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        logMessage("Downgrading database schema from version " + oldVersion + " to " + newVersion);
+        manager.logMessage(LogLevel.INFO, "Downgrading database schema from version %d to %d", oldVersion, newVersion);
 
-        for (int i = oldVersion; i > newVersion; i++) {
-            logMessage("Downgrading database schema from version " + i + " to " + (i - 1));
+        for (int i = oldVersion; i > newVersion; i--) {
+            manager.logMessage(LogLevel.INFO, "Downgrading database schema from version %d to %d", i, i - 1);
 
+            long startTime = System.nanoTime();
             dbMigrations[i - 1].down(db);
+            manager.logMessage(LogLevel.INFO, "Migration %s to version %d reverted in %dms",
+                    dbMigrations[i - 1].getClass().getSimpleName(), i - 1, elapsedMillis(startTime));
         }
     }
 
     @Override
     public void onConfigure(SQLiteDatabase db) {
         db.setForeignKeyConstraintsEnabled(true);
+        db.setMaxSqlCacheSize(config.getStatementCacheSize());
+
+        if (config.isIncrementalAutoVacuumEnabled()) {
+            // applied only to new databases, existing ones require a VACUUM
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        }
+
+        if (config.isWriteAheadLoggingEnabled() && config.getWalAutoCheckpoint() >= 0) {
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = "
+                    + config.getWalAutoCheckpoint(), null);
+        }
     }
 
 }
@@ -0,0 +1,46 @@
+package net.gotev.dbframework;
+
+import com.squareup.sqlbrite.BriteDatabase;
+
+import java.io.Closeable;
+
+/**
+ * Lease on the open database, obtained with {@link DatabaseManager#acquireDatabase()}.
+ * The database is guaranteed to stay open until the lease is closed.
+ * A lease is meant to be used by a single thread and closing it more than once has no effect.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public final class DatabaseLease implements Closeable {
+
+    private final DatabaseManager manager;
+    private final BriteDatabase database;
+    private boolean released;
+
+    DatabaseLease(DatabaseManager manager, BriteDatabase database) {
+        this.manager = manager;
+        this.database = database;
+    }
+
+    /**
+     * @return leased database
+     */
+    public BriteDatabase getDatabase() {
+        if (released)
+            throw new IllegalStateException("database lease already released");
+
+        return database;
+    }
+
+    /**
+     * Releases the lease.
+     */
+    @Override
+    public void close() {
+        if (released)
+            return;
+
+        released = true;
+        manager.closeDatabase();
+    }
+}
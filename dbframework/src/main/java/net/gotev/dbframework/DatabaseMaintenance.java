@@ -0,0 +1,108 @@
+package net.gotev.dbframework;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.concurrent.TimeUnit;
+
+import net.gotev.dbframework.DatabaseManager.LogLevel;
+
+/**
+ * Performs short maintenance steps instead of a full VACUUM, which rewrites the whole database
+ * file and blocks the writer for the whole time:
+ * - returns up to a given number of free pages to the file system with an incremental vacuum
+ * - updates the query planner statistics with PRAGMA optimize. It's skipped on SQLite versions
+ *   older than 3.18.0 (Android 8.0), where only a full ANALYZE is available, which can hold
+ *   the write lock for seconds on big databases
+ * - performs a passive WAL checkpoint, which never waits for readers or writers
+ *
+ * Incremental vacuum requires {@link DatabaseConfig#setIncrementalAutoVacuum(boolean)}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+final class DatabaseMaintenance {
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private DatabaseMaintenance() { }
+
+    static MaintenanceResult run(DatabaseManager manager, int maxVacuumPages) {
+        long startTime = System.nanoTime();
+        long pageSize;
+        long reclaimedPages = 0;
+        long freePages;
+        boolean walEnabled;
+
+        DatabaseLease lease = manager.acquireDatabase();
+
+        try {
+            SQLiteDatabase db = lease.getDatabase().getWritableDatabase();
+
+            if (db.inTransaction())
+                throw new IllegalStateException("database maintenance can't be performed inside a transaction");
+
+            pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+            freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+
+            if (maxVacuumPages > 0 && freePages > 0) {
+                if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+                    incrementalVacuum(db, maxVacuumPages);
+                    long remaining = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+                    reclaimedPages = freePages - remaining;
+                    freePages = remaining;
+                } else {
+                    manager.logMessage(LogLevel.INFO, "%d free pages can't be reclaimed because incremental "
+                            + "auto vacuum is not active. Call vacuum() once to activate it", freePages);
+                }
+            }
+
+            optimize(manager, db);
+
+            walEnabled = "wal".equalsIgnoreCase(
+                    DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+
+        } finally {
+            lease.close();
+        }
+
+        WalCheckpoint checkpoint = walEnabled ? manager.checkpoint(WalCheckpoint.Mode.PASSIVE) : null;
+
+        MaintenanceResult result = new MaintenanceResult(pageSize, reclaimedPages, freePages, checkpoint,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+        manager.logMessage(LogLevel.INFO, "Database maintenance completed: %s", result);
+
+        return result;
+    }
+
+    private static void incrementalVacuum(SQLiteDatabase db, int maxPages) {
+        // execSQL steps the pragma only once, freeing a single page, so it has to be iterated
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+
+        try {
+            while (cursor.moveToNext()) {
+                // consume all the steps
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void optimize(DatabaseManager manager, SQLiteDatabase db) {
+        if (manager.isSqliteVersionAtLeast(3, 18)) {
+            Cursor cursor = db.rawQuery("PRAGMA optimize", null);
+
+            try {
+                while (cursor.moveToNext()) {
+                    // consume all the steps
+                }
+            } finally {
+                cursor.close();
+            }
+
+        } else {
+            manager.logMessage(LogLevel.DEBUG, "Skipping statistics update, PRAGMA optimize requires SQLite 3.18.0");
+        }
+    }
+}
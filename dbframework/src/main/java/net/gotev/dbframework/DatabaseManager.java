@@ -3,6 +3,9 @@ package net.gotev.dbframework;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseArray;
 import android.support.annotation.NonNull;
 import android.support.annotation.UiThread;
 
@@ -13,16 +16,28 @@ import com.squareup.sqldelight.RowMapper;
 import com.squareup.sqldelight.SqlDelightStatement;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import rx.Observable;
+import rx.Observer;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Action2;
+import rx.functions.Func0;
 import rx.functions.Func1;
+import rx.observables.SyncOnSubscribe;
 import rx.schedulers.Schedulers;
 
-import static android.database.sqlite.SQLiteDatabase.CONFLICT_REPLACE;
-
 /**
  * This is to have thread safe database access, a convenient initialization and common methods.
  *
@@ -40,37 +55,167 @@ public class DatabaseManager {
         void onMessage(String message);
     }
 
-    private static AtomicInteger openCount = new AtomicInteger();
-    private static DatabaseManager instance;
-    private static DatabaseHelper openHelper;
-    private static BriteDatabase database;
-    private static SqlBrite sqlBrite;
-    private static Logger log;
+    /**
+     * Logging levels, from the most to the least detailed.
+     */
+    public enum LogLevel {
+        /**
+         * Per row messages and SQLBrite internal messages.
+         */
+        VERBOSE,
+
+        /**
+         * Executed queries and transactions.
+         */
+        DEBUG,
+
+        /**
+         * Schema changes, maintenance and slow statements.
+         */
+        INFO
+    }
+
+    /**
+     * Maximum number of bound variables in a single SQLite statement
+     * (SQLITE_MAX_VARIABLE_NUMBER default value).
+     */
+    static final int MAX_SQL_VARIABLES = 999;
+
+    /**
+     * Maximum number of rows in a single multi-row INSERT (SQLITE_MAX_COMPOUND_SELECT default
+     * value, which limits VALUES lists on SQLite versions older than 3.8.8).
+     */
+    static final int MAX_INSERT_ROWS = 500;
 
-    private DatabaseManager() {
+    /**
+     * Open count value when the database is closed.
+     */
+    private static final int CLOSED = -1;
+
+    /**
+     * Open count value while the database is being opened or closed.
+     */
+    private static final int BUSY = -2;
+
+    /**
+     * Name of the instance initialized with {@link #init(Context, DatabaseConfig)}.
+     */
+    public static final String DEFAULT_INSTANCE = "default";
+
+    private static final Map<String, DatabaseManager> instances = new HashMap<>();
+    private static volatile DatabaseManager[] instancesSnapshot = new DatabaseManager[0];
+    private static volatile DatabaseManager defaultInstance;
+
+    private final String name;
+    private final String databaseName;
+    private final AtomicInteger openCount = new AtomicInteger(CLOSED);
+    private DatabaseHelper openHelper;
+    private volatile BriteDatabase database;
+    private volatile boolean closed;
+    private SqlBrite sqlBrite;
+    private final Scheduler queryScheduler;
+    private final Logger log;
+    private final LogLevel logLevel;
+
+    private final StatementCache statementCache;
+    private final QueryResultCache queryCache;
+    private final long notificationWindowMillis;
+    private final AtomicLong suppressedRequeries = new AtomicLong();
+    private volatile long lastActivityNanos = System.nanoTime();
+    private final int groupCommitSize;
+    private TransactionWriter transactionWriter;
+    private final DatabaseMetrics metrics;
+    private final QueryPlanAnalyzer queryPlanAnalyzer;
+    private volatile String sqliteVersion;
+
+    private DatabaseManager(String name, Context context, DatabaseConfig config) {
+        this.name = name;
+        databaseName = config.getDatabaseName();
+        log = config.getLogger();
+        logLevel = config.getLogLevel();
+        queryScheduler = config.getQueryScheduler();
+        statementCache = new StatementCache(config.getStatementCacheSize());
+        queryCache = config.getQueryCacheSize() > 0
+                ? new QueryResultCache(config.getQueryCacheSize()) : null;
+        notificationWindowMillis = config.getNotificationWindowMillis();
+        groupCommitSize = config.getGroupCommitSize();
+        metrics = config.isMetricsEnabled()
+                ? new DatabaseMetrics(this, config.getMetricsListener(), config.getSlowStatementThresholdNanos())
+                : null;
+        queryPlanAnalyzer = config.isQueryPlanAnalysisEnabled() ? new QueryPlanAnalyzer(this) : null;
         sqlBrite = new SqlBrite.Builder()
                 .logger(new SqlBrite.Logger() {
                     @Override
                     public void log(String message) {
-                        logMessage("SQLBrite - " + message);
+                        logMessage(LogLevel.VERBOSE, "SQLBrite - %s", message);
                     }
                 }).build();
+        openHelper = new DatabaseHelper(this, context, config);
     }
 
-    public static synchronized void deinit() {
-        if (instance == null)
-            return;
+    /**
+     * Closes the default database instance and releases all its resources.
+     */
+    public static void deinit() {
+        deinit(DEFAULT_INSTANCE);
+    }
 
-        try {
-            instance.closeDatabase();
-        } catch (Throwable ignored) { }
+    /**
+     * Closes a named database instance and releases all its resources.
+     * @param name instance name
+     */
+    public static void deinit(String name) {
+        DatabaseManager manager;
 
-        sqlBrite = null;
+        synchronized (DatabaseManager.class) {
+            manager = instances.remove(name);
+
+            if (manager == null)
+                return;
+
+            instancesSnapshot = instances.values().toArray(new DatabaseManager[instances.size()]);
+
+            if (DEFAULT_INSTANCE.equals(name))
+                defaultInstance = null;
+        }
 
-        if (database != null) {
-            database = null;
+        manager.close();
+    }
+
+    private void close() {
+        TransactionWriter writer;
+
+        synchronized (this) {
+            // from now on, releasing leases acquired before has no effect
+            closed = true;
+            writer = transactionWriter;
+            transactionWriter = null;
         }
 
+        // waits for the transactions being executed before closing the database. It's done
+        // without holding the lock, which the statements being executed may need
+        if (writer != null)
+            writer.shutdown();
+
+        synchronized (this) {
+            closeResources();
+        }
+    }
+
+    private void closeResources() {
+        if (openCount.get() > 0) {
+            // releases the reference held by the manager since the database has been opened
+            try {
+                closeDatabase();
+            } catch (Throwable ignored) { }
+        }
+
+        statementCache.clear();
+        if (queryCache != null)
+            queryCache.clear();
+        sqlBrite = null;
+        database = null;
+
         if (openHelper != null) {
             try {
                 openHelper.close();
@@ -78,97 +223,866 @@ public class DatabaseManager {
             openHelper = null;
         }
 
-        instance = null;
-
-        log = null;
-        openCount = new AtomicInteger();
+        openCount.set(CLOSED);
     }
 
-    public static synchronized DatabaseManager getInstance() {
-        if (null == instance) {
+    /**
+     * Gets the default database instance.
+     * @return database manager
+     */
+    public static DatabaseManager getInstance() {
+        DatabaseManager manager = defaultInstance;
+
+        if (null == manager) {
             throw new IllegalStateException(DatabaseManager.class.getSimpleName()
                     + " is not initialized, call init method first.");
         }
-        return instance;
+        return manager;
     }
 
-    public static synchronized void init(final Context context, final String dbName,
-                                         Logger logger, DatabaseMigration... migrations) {
-        if (null == instance) {
-            instance = new DatabaseManager();
-            log = logger;
+    /**
+     * Gets a named database instance.
+     * @param name instance name
+     * @return database manager
+     */
+    public static DatabaseManager getInstance(String name) {
+        synchronized (DatabaseManager.class) {
+            DatabaseManager manager = instances.get(name);
+
+            if (null == manager) {
+                throw new IllegalStateException(DatabaseManager.class.getSimpleName() + " "
+                        + name + " is not initialized, call init method first.");
+            }
+            return manager;
+        }
+    }
+
+    /**
+     * Gets the instance which owns the given database, to be used by transaction statements.
+     */
+    static DatabaseManager getInstance(BriteDatabase db) {
+        for (DatabaseManager manager : instancesSnapshot) {
+            if (manager.database == db)
+                return manager;
+        }
+
+        throw new IllegalStateException("The database is not managed by any "
+                + DatabaseManager.class.getSimpleName());
+    }
+
+    public static void init(final Context context, final String dbName,
+                            Logger logger, DatabaseMigration... migrations) {
+        init(context, new DatabaseConfig(dbName, migrations).setLogger(logger));
+    }
+
+    /**
+     * Initializes the default database instance. If it's already initialized, does nothing.
+     * @param context application context
+     * @param config database configuration
+     */
+    public static void init(final Context context, final DatabaseConfig config) {
+        init(DEFAULT_INSTANCE, context, config);
+    }
+
+    /**
+     * Initializes a named database instance, with its own database file, migrations, caches
+     * and writer, so that its transactions don't compete for the write lock with the ones of the
+     * other instances. If an instance with the same name is already initialized, does nothing.
+     *
+     * @param name instance name
+     * @param context application context
+     * @param config database configuration
+     * @return database manager
+     */
+    public static DatabaseManager init(final String name, final Context context,
+                                       final DatabaseConfig config) {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("instance name must not be null or empty");
+
+        synchronized (DatabaseManager.class) {
+            DatabaseManager manager = instances.get(name);
+
+            if (manager != null)
+                return manager;
+
+            if (config.getDatabaseName() != null) {
+                for (DatabaseManager other : instances.values()) {
+                    if (config.getDatabaseName().equals(other.databaseName)) {
+                        throw new IllegalArgumentException("Database " + config.getDatabaseName()
+                                + " is already used by instance " + other.name);
+                    }
+                }
+            }
+
+            manager = new DatabaseManager(name, context, config);
+            instances.put(name, manager);
+            instancesSnapshot = instances.values().toArray(new DatabaseManager[instances.size()]);
+
+            if (DEFAULT_INSTANCE.equals(name))
+                defaultInstance = manager;
+
+            return manager;
         }
-        openHelper = DatabaseHelper.init(context, dbName, logger, migrations);
     }
 
-    static void logMessage(String message) {
-        if (log != null)
+    /**
+     * @return instance name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return database file name, or null for an in-memory database
+     */
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    /**
+     * Gets the version of the SQLite library used by the database.
+     * @return SQLite version, like 3.22.0
+     */
+    public String getSqliteVersion() {
+        String version = sqliteVersion;
+
+        if (version == null) {
+            DatabaseLease lease = acquireDatabase();
+
+            try {
+                version = DatabaseUtils.stringForQuery(lease.getDatabase().getReadableDatabase(),
+                        "SELECT sqlite_version()", null);
+            } finally {
+                lease.close();
+            }
+
+            sqliteVersion = version;
+        }
+
+        return version;
+    }
+
+    /**
+     * Checks if the SQLite library used by the database is at least at the given version.
+     * @param major major version
+     * @param minor minor version
+     * @return true if the SQLite version is equal or greater
+     */
+    public boolean isSqliteVersionAtLeast(int major, int minor) {
+        return isSqliteVersionAtLeast(major, minor, 0);
+    }
+
+    /**
+     * Checks if the SQLite library used by the database is at least at the given version.
+     * @param major major version
+     * @param minor minor version
+     * @param patch patch version
+     * @return true if the SQLite version is equal or greater
+     */
+    public boolean isSqliteVersionAtLeast(int major, int minor, int patch) {
+        String[] parts = getSqliteVersion().split("\\.");
+
+        try {
+            int versionMajor = Integer.parseInt(parts[0]);
+            int versionMinor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            int versionPatch = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+
+            if (versionMajor != major)
+                return versionMajor > major;
+
+            return versionMinor > minor || (versionMinor == minor && versionPatch >= patch);
+
+        } catch (NumberFormatException exc) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks if messages of the given level are going to be logged. Use it to avoid building
+     * log arguments on hot paths when logging is disabled.
+     * @param level log level
+     * @return true if a logger is set and the level is enabled
+     */
+    boolean isLoggable(LogLevel level) {
+        return log != null && level.compareTo(logLevel) >= 0;
+    }
+
+    void logMessage(LogLevel level, String message) {
+        if (log != null && level.compareTo(logLevel) >= 0)
             log.onMessage(message);
     }
 
-    public synchronized BriteDatabase openDatabase() {
-        if (openCount.incrementAndGet() == 1) {
-            database = sqlBrite.wrapDatabaseHelper(openHelper, Schedulers.io());
-            database.setLoggingEnabled(log != null);
+    /**
+     * Logs a message, which is formatted only if the level is enabled.
+     * @param level log level
+     * @param format message format, as in {@link String#format(String, Object...)}
+     * @param args format arguments
+     */
+    void logMessage(LogLevel level, String format, Object... args) {
+        if (log != null && level.compareTo(logLevel) >= 0)
+            log.onMessage(String.format(Locale.US, format, args));
+    }
+
+    /**
+     * Acquires a lease on the database, which stays open until all the leases have been
+     * released. This method does not block, unless the database has to be opened.
+     * Always release the lease when you're done, preferably in a finally block:
+     *
+     * <pre>
+     * DatabaseLease lease = DatabaseManager.getInstance().acquireDatabase();
+     * try {
+     *     // use lease.getDatabase()
+     * } finally {
+     *     lease.close();
+     * }
+     * </pre>
+     *
+     * @return database lease
+     */
+    public DatabaseLease acquireDatabase() {
+        lastActivityNanos = System.nanoTime();
+        return new DatabaseLease(this, openDatabase());
+    }
+
+    /**
+     * Increments the database open count and returns the database, opening it if needed.
+     * Every call must be balanced by a call to {@link #closeDatabase()}.
+     * Prefer {@link #acquireDatabase()}.
+     *
+     * Once opened, the database is kept open until {@link #deinit()}, as keeping a single
+     * connection for the whole app lifetime is recommended for SQLite on Android.
+     *
+     * @return database
+     */
+    public BriteDatabase openDatabase() {
+        while (true) {
+            int count = openCount.get();
+
+            if (count >= 0) {
+                if (openCount.compareAndSet(count, count + 1))
+                    return database;
+
+            } else {
+                // slow path: the database is closed or is being opened or closed by another thread
+                synchronized (this) {
+                    if (closed)
+                        throw new IllegalStateException("Database instance " + name + " has been deinitialized");
+
+                    if (openCount.compareAndSet(CLOSED, BUSY)) {
+                        BriteDatabase db;
+
+                        try {
+                            db = sqlBrite.wrapDatabaseHelper(openHelper, queryScheduler);
+                            db.setLoggingEnabled(isLoggable(LogLevel.VERBOSE));
+                        } catch (RuntimeException exc) {
+                            openCount.set(CLOSED);
+                            throw exc;
+                        }
+
+                        database = db;
+
+                        // one reference for the caller and one held by the manager until deinit
+                        openCount.set(2);
+                        return db;
+                    }
+                }
+            }
         }
-        return database;
     }
 
-    public synchronized void closeDatabase() {
-        if (openCount.decrementAndGet() == 0) {
-            database.close();
+    /**
+     * Decrements the database open count, closing the database when it reaches zero.
+     * After {@link #deinit()} it has no effect, so observable queries can be safely
+     * unsubscribed after the instance has been closed.
+     */
+    public void closeDatabase() {
+        while (true) {
+            int count = openCount.get();
+
+            if (count <= 0) {
+                // leases acquired before deinit are released after the database has been closed
+                if (closed)
+                    return;
+
+                throw new IllegalStateException("closeDatabase called more times than openDatabase");
+            }
+
+            if (count > 1) {
+                if (openCount.compareAndSet(count, count - 1))
+                    return;
+
+            } else {
+                synchronized (this) {
+                    if (openCount.compareAndSet(1, BUSY)) {
+                        statementCache.clear();
+                        if (queryCache != null)
+                            queryCache.clear();
+                        database.close();
+                        openCount.set(CLOSED);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the cache of compiled statements bound to the open database.
+     * Use it in your custom {@link TransactionStatement}s to execute the same SQL many times
+     * without recompiling it every time.
+     *
+     * @return statement cache
+     */
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Gets the writer which executes the transactions submitted with
+     * {@link TransactionBuilder#executeAsync()}, starting it if needed.
+     */
+    synchronized TransactionWriter getTransactionWriter() {
+        if (closed)
+            throw new IllegalStateException("Database instance " + name + " has been deinitialized");
+
+        if (transactionWriter == null) {
+            transactionWriter = new TransactionWriter(this, groupCommitSize);
+        }
+        return transactionWriter;
+    }
+
+    /**
+     * Gets the query and transaction metrics, enabled with
+     * {@link DatabaseConfig#setMetricsEnabled(boolean)}.
+     *
+     * @return metrics, or null if they are not enabled
+     */
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Called right after each commit of a framework write, before the write call returns,
+     * so that no query executed after it can be served a cached result older than the commit.
+     */
+    void onCommit() {
+        lastActivityNanos = System.nanoTime();
+
+        if (queryCache != null)
+            queryCache.invalidateAll();
+    }
+
+    /**
+     * Gets the query plan analyzer, enabled with
+     * {@link DatabaseConfig#setQueryPlanAnalysisEnabled(boolean)}.
+     *
+     * @return query plan analyzer, or null if it's not enabled
+     */
+    public QueryPlanAnalyzer getQueryPlanAnalyzer() {
+        return queryPlanAnalyzer;
+    }
+
+    /**
+     * Gets the current number of database references, including the one held by the manager
+     * while the database is open.
+     *
+     * @return open count
+     */
+    public int getOpenCount() {
+        return Math.max(0, openCount.get());
+    }
+
+    /**
+     * Gets the query result cache, enabled with {@link DatabaseConfig#setQueryCacheSize(int)}.
+     *
+     * @return query result cache, or null if it's not enabled
+     */
+    public QueryResultCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Performs a write-ahead log checkpoint, transferring the content of the WAL into the
+     * database file. Useful when automatic checkpoints have been disabled with
+     * {@link DatabaseConfig#setWalAutoCheckpoint(int)}, or to reclaim WAL disk space while
+     * the app is idle. It must not be called inside a transaction.
+     *
+     * https://sqlite.org/pragma.html#pragma_wal_checkpoint
+     *
+     * @param mode checkpoint mode
+     * @return checkpoint result
+     */
+    public WalCheckpoint checkpoint(WalCheckpoint.Mode mode) {
+        DatabaseLease lease = acquireDatabase();
+
+        try {
+            Cursor cursor = lease.getDatabase().getWritableDatabase()
+                    .rawQuery("PRAGMA wal_checkpoint(" + mode.name() + ")", null);
+
+            try {
+                if (cursor.moveToNext()) {
+                    return new WalCheckpoint(cursor.getInt(0) != 0, cursor.getInt(1), cursor.getInt(2));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            return new WalCheckpoint(false, -1, -1);
+
+        } finally {
+            lease.close();
         }
     }
 
+    /**
+     * Creates an observable query. The database is leased when subscribing and
+     * released when unsubscribing.
+     *
+     * @param stmt statement
+     * @return observable query
+     */
     public QueryObservable getObservableQuery(SqlDelightStatement stmt) {
-        return openDatabase().createQuery(stmt.tables, stmt.statement, stmt.args);
+        return createQuery(stmt.tables, stmt.statement, stmt.args);
+    }
+
+    /**
+     * Creates an observable query, which gets re-executed every time one of the given
+     * tables changes. The database is leased when subscribing and released when unsubscribing.
+     *
+     * @param tables tables involved in the query
+     * @param sql SQL query
+     * @param args query arguments
+     * @return observable query
+     */
+    public QueryObservable createQuery(final Iterable<String> tables, final String sql,
+                                       final String... args) {
+        final Observable<SqlBrite.Query> leasedQuery = Observable.using(
+                new Func0<DatabaseLease>() {
+                    @Override
+                    public DatabaseLease call() {
+                        return acquireDatabase();
+                    }
+                },
+                new Func1<DatabaseLease, Observable<SqlBrite.Query>>() {
+                    @Override
+                    public Observable<SqlBrite.Query> call(DatabaseLease lease) {
+                        return lease.getDatabase().createQuery(tables, sql, args);
+                    }
+                },
+                new Action1<DatabaseLease>() {
+                    @Override
+                    public void call(DatabaseLease lease) {
+                        lease.close();
+                    }
+                });
+
+        Observable<SqlBrite.Query> coalescedQuery = notificationWindowMillis > 0
+                ? coalesceNotifications(leasedQuery) : leasedQuery;
+
+        final Observable<SqlBrite.Query> query = metrics == null
+                ? coalescedQuery : coalescedQuery.map(new Func1<SqlBrite.Query, SqlBrite.Query>() {
+                    @Override
+                    public SqlBrite.Query call(final SqlBrite.Query query) {
+                        return new SqlBrite.Query() {
+                            @Override
+                            public Cursor run() {
+                                long startTime = System.nanoTime();
+                                Cursor cursor = query.run();
+                                return cursor == null ? null : new MetricsCursor(metrics, sql, cursor, startTime);
+                            }
+                        };
+                    }
+                });
+
+        return new QueryObservable(new Observable.OnSubscribe<SqlBrite.Query>() {
+            @Override
+            public void call(Subscriber<? super SqlBrite.Query> subscriber) {
+                query.unsafeSubscribe(subscriber);
+            }
+        });
+    }
+
+    /**
+     * Emits the first query immediately, then, when a table change is notified, waits for the
+     * notification window and emits a single query for all the changes notified meanwhile.
+     * There is at most one re-query per window, also while changes keep coming, so results
+     * are never older than the window. No timer runs while there are no changes.
+     */
+    private Observable<SqlBrite.Query> coalesceNotifications(Observable<SqlBrite.Query> query) {
+        return query.publish(new Func1<Observable<SqlBrite.Query>, Observable<SqlBrite.Query>>() {
+            @Override
+            public Observable<SqlBrite.Query> call(Observable<SqlBrite.Query> shared) {
+                final Observable<SqlBrite.Query> changes = shared.skip(1).share();
+
+                Observable<SqlBrite.Query> coalesced = changes
+                        .buffer(new Func0<Observable<SqlBrite.Query>>() {
+                            @Override
+                            public Observable<SqlBrite.Query> call() {
+                                // each buffer closes one window after its first change
+                                return changes.take(1).delay(notificationWindowMillis,
+                                        TimeUnit.MILLISECONDS, Schedulers.io());
+                            }
+                        })
+                        .filter(new Func1<List<SqlBrite.Query>, Boolean>() {
+                            @Override
+                            public Boolean call(List<SqlBrite.Query> queries) {
+                                return !queries.isEmpty();
+                            }
+                        })
+                        .map(new Func1<List<SqlBrite.Query>, SqlBrite.Query>() {
+                            @Override
+                            public SqlBrite.Query call(List<SqlBrite.Query> queries) {
+                                suppressedRequeries.addAndGet(queries.size() - 1);
+                                return queries.get(queries.size() - 1);
+                            }
+                        });
+
+                return Observable.merge(shared.take(1), coalesced);
+            }
+        });
+    }
+
+    /**
+     * Gets the number of table change notifications which did not cause a re-query of an
+     * observable query, because they have been coalesced with other notifications received in
+     * the same window (see {@link DatabaseConfig#setNotificationWindow(long, TimeUnit)}).
+     *
+     * @return number of suppressed re-queries since initialization
+     */
+    public long getSuppressedRequeryCount() {
+        return suppressedRequeries.get();
     }
 
     public <T> T executeQuery(SqlDelightStatement stmt, RowMapper<T> mapper, T defaultValue) {
-        return executeQuery(stmt.statement, stmt.args, mapper, defaultValue);
+        if (!isCacheable(stmt))
+            return executeQuery(stmt.statement, stmt.args, mapper, defaultValue);
+
+        QueryResultCache.Key key = new QueryResultCache.Key(QueryResultCache.SINGLE,
+                mapper, stmt.statement, stmt.args);
+
+        DatabaseLease lease = acquireDatabase();
+
+        try {
+            BriteDatabase db = lease.getDatabase();
+
+            // results read inside a transaction may be rolled back, so they can't be cached
+            if (db.getReadableDatabase().inTransaction())
+                return executeQuery(stmt.statement, stmt.args, mapper, defaultValue);
+
+            Object cached = queryCache.get(key);
+
+            if (cached != null) {
+                @SuppressWarnings("unchecked")
+                T value = cached == QueryResultCache.NO_VALUE ? null : (T) cached;
+                return value == null ? defaultValue : value;
+            }
+
+            long generation = queryCache.watch(db, stmt.tables);
+            T value = executeQuery(stmt.statement, stmt.args, mapper, null);
+            queryCache.put(key, stmt.tables, generation, value == null ? QueryResultCache.NO_VALUE : value);
+
+            return value == null ? defaultValue : value;
+
+        } finally {
+            lease.close();
+        }
     }
 
     public <T> T executeQuery(String statement, String[]args, RowMapper<T> mapper, T defaultValue) {
 
-        Cursor cursor = openDatabase().query(statement, args);
+        DatabaseLease lease = acquireDatabase();
 
-        if (cursor != null) {
-            T value = null;
+        try {
+            Cursor cursor = query(lease.getDatabase(), statement, args);
+
+            if (cursor != null) {
+                T value = null;
+
+                try {
+                    if (cursor.moveToNext()) {
+                        value = mapper.map(cursor);
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                return value == null ? defaultValue : value;
+            }
+
+            return defaultValue;
+
+        } finally {
+            lease.close();
+        }
+    }
+
+    public <T> List<T> executeListQuery(SqlDelightStatement stmt, RowMapper<T> mapper) {
+        if (!isCacheable(stmt))
+            return queryList(stmt, mapper);
+
+        QueryResultCache.Key key = new QueryResultCache.Key(QueryResultCache.LIST,
+                mapper, stmt.statement, stmt.args);
+
+        DatabaseLease lease = acquireDatabase();
+
+        try {
+            BriteDatabase db = lease.getDatabase();
+
+            // results read inside a transaction may be rolled back, so they can't be cached
+            if (db.getReadableDatabase().inTransaction())
+                return queryList(stmt, mapper);
+
+            Object cached = queryCache.get(key);
+
+            if (cached != null) {
+                @SuppressWarnings("unchecked")
+                List<T> list = (List<T>) cached;
+                // the caller gets its own copy, so it can't alter the cached result
+                return new ArrayList<>(list);
+            }
+
+            long generation = queryCache.watch(db, stmt.tables);
+            List<T> list = queryList(stmt, mapper);
+            queryCache.put(key, stmt.tables, generation, new ArrayList<>(list));
+
+            return list;
+
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Executes a query and reads the first column of all the rows as longs, without boxing.
+     * Null values are read as 0.
+     *
+     * @param stmt statement
+     * @return values of the first column
+     */
+    public LongArray executeLongArrayQuery(SqlDelightStatement stmt) {
+        DatabaseLease lease = acquireDatabase();
+
+        try {
+            Cursor cursor = query(lease.getDatabase(), stmt.statement, stmt.args);
+
+            if (cursor == null)
+                return new LongArray(0);
 
             try {
-                if (cursor.moveToNext()) {
-                    value = mapper.map(cursor);
+                LongArray values = new LongArray(cursor.getCount());
+
+                while (cursor.moveToNext()) {
+                    values.add(cursor.getLong(0));
                 }
+
+                return values;
+            } finally {
+                cursor.close();
+            }
+
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Executes a query and reads the first column of the first row as a long, like a COUNT
+     * or a MAX, without boxing.
+     *
+     * @param stmt statement
+     * @param defaultValue value to return if there are no rows or the value is null
+     * @return value of the first column of the first row
+     */
+    public long executeLongQuery(SqlDelightStatement stmt, long defaultValue) {
+        DatabaseLease lease = acquireDatabase();
+
+        try {
+            Cursor cursor = query(lease.getDatabase(), stmt.statement, stmt.args);
+
+            if (cursor == null)
+                return defaultValue;
+
+            try {
+                if (cursor.moveToNext() && !cursor.isNull(0))
+                    return cursor.getLong(0);
+
+                return defaultValue;
             } finally {
                 cursor.close();
             }
 
-            return value == null ? defaultValue : value;
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Executes a query and reads the first column of the first row as a double, like a SUM
+     * or an AVG, without boxing.
+     *
+     * @param stmt statement
+     * @param defaultValue value to return if there are no rows or the value is null
+     * @return value of the first column of the first row
+     */
+    public double executeDoubleQuery(SqlDelightStatement stmt, double defaultValue) {
+        DatabaseLease lease = acquireDatabase();
+
+        try {
+            Cursor cursor = query(lease.getDatabase(), stmt.statement, stmt.args);
+
+            if (cursor == null)
+                return defaultValue;
+
+            try {
+                if (cursor.moveToNext() && !cursor.isNull(0))
+                    return cursor.getDouble(0);
+
+                return defaultValue;
+            } finally {
+                cursor.close();
+            }
+
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Executes a query and maps its rows by an integer column, without boxing the keys.
+     * If more rows have the same key, the last one is kept.
+     *
+     * @param stmt statement
+     * @param keyColumn name of the integer column to use as key
+     * @param mapper row mapper
+     * @return rows mapped by key
+     */
+    public <T> SparseArray<T> executeSparseArrayQuery(SqlDelightStatement stmt, String keyColumn,
+                                                      RowMapper<T> mapper) {
+        DatabaseLease lease = acquireDatabase();
+
+        try {
+            Cursor cursor = query(lease.getDatabase(), stmt.statement, stmt.args);
+
+            if (cursor == null)
+                return new SparseArray<>(0);
+
+            try {
+                SparseArray<T> values = new SparseArray<>(cursor.getCount());
+                int keyIndex = cursor.getColumnIndexOrThrow(keyColumn);
+
+                while (cursor.moveToNext()) {
+                    values.put(cursor.getInt(keyIndex), mapper.map(cursor));
+                }
+
+                return values;
+            } finally {
+                cursor.close();
+            }
+
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Checks if a query returns at least one row, without reading the rows.
+     *
+     * @param stmt statement
+     * @return true if the query returns at least one row
+     */
+    public boolean exists(SqlDelightStatement stmt) {
+        return executeLongQuery(new SqlDelightStatement(
+                "SELECT EXISTS " + asSubquery(stmt.statement), stmt.args, stmt.tables), 0) != 0;
+    }
+
+    /**
+     * Executes a query, measuring it if metrics are enabled.
+     */
+    private Cursor query(BriteDatabase db, String statement, String[] args) {
+        if (metrics == null)
+            return db.query(statement, args);
+
+        long startTime = System.nanoTime();
+        Cursor cursor = db.query(statement, args);
+        return cursor == null ? null : new MetricsCursor(metrics, statement, cursor, startTime);
+    }
+
+    private boolean isCacheable(SqlDelightStatement stmt) {
+        return queryCache != null && stmt.tables != null && !stmt.tables.isEmpty();
+    }
+
+    private <T> List<T> queryList(SqlDelightStatement stmt, RowMapper<T> mapper) {
+
+        DatabaseLease lease = acquireDatabase();
+
+        try {
+            Cursor cursor = query(lease.getDatabase(), stmt.statement, stmt.args);
+
+            if (cursor != null) {
+                try {
+                    if (cursor.getCount() > 0) {
+                        List<T> list = new ArrayList<>(cursor.getCount());
+
+                        while (cursor.moveToNext()) {
+                            list.add(mapper.map(cursor));
+                        }
+
+                        return list;
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            return new ArrayList<>(1);
+
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Executes a query and returns a lazy iterator over its rows, which are read through
+     * a single cursor, one window at a time.
+     * Remember to close the iterator if you don't consume all the rows.
+     *
+     * @param stmt statement
+     * @param mapper row mapper
+     * @return row iterator
+     */
+    public <T> RowIterator<T> iterate(SqlDelightStatement stmt, RowMapper<T> mapper) {
+        DatabaseLease lease = acquireDatabase();
+        Cursor cursor;
+
+        try {
+            cursor = query(lease.getDatabase(), stmt.statement, stmt.args);
+        } catch (RuntimeException exc) {
+            lease.close();
+            throw exc;
         }
 
-        return defaultValue;
-
+        return new RowIterator<>(lease, cursor, mapper);
     }
 
-    public <T> List<T> executeListQuery(SqlDelightStatement stmt, RowMapper<T> mapper) {
-
-        Cursor cursor = openDatabase().query(stmt.statement, stmt.args);
-
-        if (cursor != null && cursor.getCount() > 0) {
-            List<T> list = new ArrayList<>(cursor.getCount());
+    /**
+     * Executes a query and passes its rows to the callback one at a time, without keeping
+     * the whole result set in memory.
+     *
+     * @param stmt statement
+     * @param mapper row mapper
+     * @param callback callback which receives the rows
+     */
+    public <T> void forEachRow(SqlDelightStatement stmt, RowMapper<T> mapper, RowCallback<T> callback) {
+        RowIterator<T> iterator = iterate(stmt, mapper);
 
-            try {
-                while (cursor.moveToNext()) {
-                    list.add(mapper.map(cursor));
-                }
-            } finally {
-                cursor.close();
+        try {
+            while (iterator.hasNext()) {
+                if (!callback.onRow(iterator.next()))
+                    break;
             }
-
-            return list;
+        } finally {
+            iterator.close();
         }
-
-        return new ArrayList<>(1);
     }
 
     public long countRows(BriteDatabase db, String tableName) {
@@ -205,38 +1119,171 @@ public class DatabaseManager {
                 if (recordToSave == null || recordToSave.size() == 0)
                     throw new IllegalArgumentException("recordToSave must not be null or empty!");
 
-                // make a copy of the object to save, to not change the original one
-                ContentValues record = new ContentValues(recordToSave);
+                DatabaseManager manager = getInstance(db);
+                StatementCache statementCache = manager.getStatementCache();
 
-                if (!record.containsKey(primaryKeyName)) {
+                if (!recordToSave.containsKey(primaryKeyName)) {
                     if (primaryKeyAutoGenerated) {
-                        db.insert(tableName, record, CONFLICT_REPLACE);
-                        logMessage("Successfully added record in " + tableName);
+                        statementCache.insert(db, "REPLACE", tableName, recordToSave, null);
+
+                        if (manager.isLoggable(LogLevel.VERBOSE))
+                            manager.logMessage(LogLevel.VERBOSE, "Successfully added record in %s", tableName);
                     } else {
                         throw new IllegalArgumentException("This table does not have an autoGenerated primary, but no primary key provided in ContentValues record!");
                     }
 
                 } else {
-                    long id = record.getAsLong(primaryKeyName);
+                    long id = recordToSave.getAsLong(primaryKeyName);
 
-                    record.remove(primaryKeyName);
-                    int modifiedRows = db.update(tableName, record, primaryKeyName + " = ? ", Long.toString(id));
+                    int modifiedRows = statementCache.update(db, tableName, recordToSave, primaryKeyName, id);
 
                     if (modifiedRows > 0) {
-                        logMessage(String.format(Locale.getDefault(),
-                                "Successfully updated record with ID %d in %s", id, tableName));
+                        if (manager.isLoggable(LogLevel.VERBOSE)) {
+                            manager.logMessage(LogLevel.VERBOSE, "Successfully updated record with ID %d in %s",
+                                    id, tableName);
+                        }
+
+                    } else {
+                        statementCache.insert(db, null, tableName, recordToSave,
+                                primaryKeyAutoGenerated ? primaryKeyName : null);
+
+                        if (manager.isLoggable(LogLevel.VERBOSE))
+                            manager.logMessage(LogLevel.VERBOSE, "Successfully added record in %s", tableName);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Saves many records at once, inserting the new ones and updating the existing ones.
+     * Records with the same columns are written together with multi-row INSERT statements,
+     * within the bound variables limit. On SQLite 3.24.0 or later (Android 11+) records
+     * having the primary key are upserted with INSERT ... ON CONFLICT DO UPDATE, which,
+     * unlike INSERT OR REPLACE, never deletes rows, so it doesn't trigger ON DELETE cascades.
+     * On older versions they are updated and, if missing, inserted one at a time.
+     * Records without the primary key are inserted, letting SQLite generate it.
+     *
+     * @param tableName table name
+     * @param primaryKeyName primary key column name
+     * @param records records to save
+     * @return transaction statement
+     */
+    public static TransactionStatement saveAll(final String tableName, final String primaryKeyName,
+                                               final List<ContentValues> records) {
+
+        return new TransactionStatement() {
+            @Override
+            public void onStatement(BriteDatabase db) throws Throwable {
+                if (tableName == null || tableName.isEmpty())
+                    throw new IllegalArgumentException("table name not defined in saveAll");
+
+                if (primaryKeyName == null || primaryKeyName.isEmpty())
+                    throw new IllegalArgumentException("primary key name not defined in saveAll");
+
+                if (records == null)
+                    throw new IllegalArgumentException("records must not be null");
+
+                DatabaseManager manager = getInstance(db);
+                boolean upsert = manager.isSqliteVersionAtLeast(3, 24);
+
+                // records with the same columns can be written with the same statements
+                Map<String, List<ContentValues>> groups = new LinkedHashMap<>();
+                Map<String, String[]> groupColumns = new HashMap<>();
+
+                for (ContentValues record : records) {
+                    if (record == null || record.size() == 0)
+                        throw new IllegalArgumentException("records must not contain null or empty records!");
+
+                    String[] columns = StatementCache.getColumns(record, null);
+                    String key = Arrays.toString(columns);
+                    List<ContentValues> group = groups.get(key);
+
+                    if (group == null) {
+                        group = new ArrayList<>();
+                        groups.put(key, group);
+                        groupColumns.put(key, columns);
+                    }
 
+                    group.add(record);
+                }
+
+                for (Map.Entry<String, List<ContentValues>> group : groups.entrySet()) {
+                    String[] columns = groupColumns.get(group.getKey());
+                    boolean hasPrimaryKey = Arrays.binarySearch(columns, primaryKeyName) >= 0;
+
+                    if (hasPrimaryKey && !upsert) {
+                        manager.updateOrInsert(db, tableName, primaryKeyName, columns, group.getValue());
                     } else {
-                        if (!primaryKeyAutoGenerated)
-                            record.put(primaryKeyName, id);
-                        db.insert(tableName, record);
-                        logMessage("Successfully added record in " + tableName);
+                        manager.insertRows(db, tableName, columns, group.getValue(),
+                                hasPrimaryKey ? primaryKeyName : null);
                     }
                 }
+
+                manager.logMessage(LogLevel.VERBOSE, "Successfully saved %d records in %s",
+                        records.size(), tableName);
             }
         };
     }
 
+    /**
+     * Inserts rows having the given columns with as few statements as possible, without
+     * exceeding SQLite's bound variables limit. Multi-row VALUES needs SQLite 3.7.11, which
+     * every supported Android version has, but not the SQLite used by Robolectric, so on older
+     * versions each row is inserted with its own statement.
+     */
+    private void insertRows(BriteDatabase db, String tableName, String[] columns,
+                            List<ContentValues> rows, String upsertKey) {
+        int rowsPerStatement = !isSqliteVersionAtLeast(3, 7, 11) ? 1
+                : Math.max(1, Math.min(MAX_INSERT_ROWS, MAX_SQL_VARIABLES / columns.length));
+        int total = rows.size();
+        int offset = 0;
+
+        while (offset < total) {
+            int count = Math.min(rowsPerStatement, total - offset);
+            String sql = StatementCache.getInsertRowsSql(tableName, columns, count, upsertKey);
+            SQLiteStatement statement = statementCache.acquire(db, sql);
+
+            try {
+                int index = 1;
+
+                for (int row = offset; row < offset + count; row++) {
+                    ContentValues record = rows.get(row);
+
+                    for (String column : columns) {
+                        StatementCache.bind(statement, index++, record.get(column));
+                    }
+                }
+
+                db.executeInsert(tableName, statement);
+            } finally {
+                statementCache.release(sql, statement);
+            }
+
+            offset += count;
+        }
+    }
+
+    /**
+     * Updates the existing rows and inserts the missing ones, for SQLite versions without upsert.
+     */
+    private void updateOrInsert(BriteDatabase db, String tableName, String primaryKeyName,
+                                String[] columns, List<ContentValues> rows) {
+        for (ContentValues record : rows) {
+            if (columns.length == 1) {
+                // only the primary key, there's nothing to update
+                statementCache.insert(db, "IGNORE", tableName, record, null);
+                continue;
+            }
+
+            long id = record.getAsLong(primaryKeyName);
+
+            if (statementCache.update(db, tableName, record, primaryKeyName, id) == 0) {
+                statementCache.insert(db, null, tableName, record, null);
+            }
+        }
+    }
+
     public TransactionStatement syncTableWithList(final String tableName,
                                                   final String primaryKeyName,
                                                   final List<ContentValues> newRecords,
@@ -259,29 +1306,36 @@ public class DatabaseManager {
                     throw new IllegalArgumentException("getAllTheExistingRecordPrimaryKeysQuery must not be null");
 
                 long existingRecords = countRows(db, tableName);
+                StatementCache statementCache = getStatementCache();
 
                 if (existingRecords == 0) {
-                    logMessage(tableName + " is empty");
+                    logMessage(LogLevel.DEBUG, "%s is empty", tableName);
+                    boolean verbose = isLoggable(LogLevel.VERBOSE);
 
                     for (ContentValues newRecord : newRecords) {
-                        logMessage(String.format(Locale.getDefault(),
-                                "Inserting record with ID %d in %s",
-                                newRecord.getAsLong(primaryKeyName), tableName));
+                        if (verbose) {
+                            logMessage(LogLevel.VERBOSE, "Inserting record with ID %d in %s",
+                                    newRecord.getAsLong(primaryKeyName), tableName);
+                        }
 
-                        if (primaryKeyAutoGenerated)
-                            newRecord.remove(primaryKeyName);
-                        db.insert(tableName, newRecord);
+                        statementCache.insert(db, null, tableName, newRecord,
+                                primaryKeyAutoGenerated ? primaryKeyName : null);
                     }
 
                 } else {
-                    List<Long> existingIDs = getExistingRecordIDs(getAllTheExistingRecordPrimaryKeysQuery);
+                    LongArray existingIDs = executeLongArrayQuery(getAllTheExistingRecordPrimaryKeysQuery);
+
+                    LongArray idsToDelete = getIDsToDelete(primaryKeyName, existingIDs, newRecords);
 
-                    for (Long idToDelete : getIDsToDelete(primaryKeyName, existingIDs, newRecords)) {
-                        logMessage(String.format(Locale.getDefault(),
-                                "Deleting record with ID %d from %s", idToDelete, tableName));
-                        db.delete(tableName, primaryKeyName + " = ?", Long.toString(idToDelete));
+                    if (isLoggable(LogLevel.VERBOSE)) {
+                        for (int i = 0; i < idsToDelete.size(); i++) {
+                            logMessage(LogLevel.VERBOSE, "Deleting record with ID %d from %s",
+                                    idsToDelete.get(i), tableName);
+                        }
                     }
 
+                    deleteRecords(db, tableName, primaryKeyName, idsToDelete);
+
                     // insert or update
                     for (ContentValues newRecord : newRecords) {
                         save(tableName, primaryKeyName, newRecord, primaryKeyAutoGenerated).onStatement(db);
@@ -292,57 +1346,332 @@ public class DatabaseManager {
         };
     }
 
+    /**
+     * Synchronizes a table with a list of records, writing only what really changed.
+     * The stored rows are streamed and compared column by column with the new records having
+     * the same primary key, so unchanged rows are not rewritten and a sync without changes
+     * doesn't write anything nor trigger table change notifications.
+     * Rows missing in the list are deleted, new records are inserted and changed records are
+     * updated. Only the columns present in the new records are compared and updated.
+     *
+     * @param tableName table name
+     * @param primaryKeyName name of the integer primary key column
+     * @param newRecords new table content. Records without the primary key are always inserted
+     * @param result receives the counts of the written rows when the statement is executed.
+     *               Can be null
+     * @return transaction statement
+     */
+    public TransactionStatement syncTableWithList(final String tableName,
+                                                  final String primaryKeyName,
+                                                  final List<ContentValues> newRecords,
+                                                  final SyncResult result) {
+
+        return new TransactionStatement() {
+            @Override
+            public void onStatement(BriteDatabase db) throws Throwable {
+                if (tableName == null || tableName.isEmpty())
+                    throw new IllegalArgumentException("table name not defined in syncTableWithList");
+
+                if (primaryKeyName == null || primaryKeyName.isEmpty())
+                    throw new IllegalArgumentException("primary key name not defined in syncTableWithList");
+
+                if (newRecords == null)
+                    throw new IllegalArgumentException("new records list must not be null");
+
+                if (result != null)
+                    result.reset();
+
+                LongHashMap<ContentValues> recordsByID = new LongHashMap<>(newRecords.size());
+                List<ContentValues> toInsert = new ArrayList<>();
+
+                for (ContentValues record : newRecords) {
+                    Long id = record.getAsLong(primaryKeyName);
+
+                    if (id == null) {
+                        toInsert.add(record);
+                    } else {
+                        recordsByID.put(id, record);
+                    }
+                }
+
+                LongHashSet existingIDs = new LongHashSet(newRecords.size());
+                LongArray toDelete = new LongArray();
+                List<ContentValues> toUpdate = new ArrayList<>();
+
+                Cursor cursor = query(db, "SELECT * FROM " + tableName, new String[0]);
+
+                if (cursor != null) {
+                    try {
+                        Map<String, Integer> columnIndexes = new HashMap<>();
+                        String[] columnNames = cursor.getColumnNames();
+                        for (int i = 0; i < columnNames.length; i++) {
+                            columnIndexes.put(columnNames[i], i);
+                        }
+
+                        Integer primaryKeyIndex = columnIndexes.get(primaryKeyName);
+                        if (primaryKeyIndex == null)
+                            throw new IllegalArgumentException("Column " + primaryKeyName + " not found in " + tableName);
+
+                        while (cursor.moveToNext()) {
+                            long id = cursor.getLong(primaryKeyIndex);
+                            ContentValues record = recordsByID.get(id);
+
+                            if (record == null) {
+                                toDelete.add(id);
+                            } else {
+                                existingIDs.add(id);
+                                if (!isStored(record, cursor, columnIndexes, tableName))
+                                    toUpdate.add(record);
+                            }
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+
+                for (ContentValues record : newRecords) {
+                    Long id = record.getAsLong(primaryKeyName);
+                    if (id != null && !existingIDs.contains(id))
+                        toInsert.add(record);
+                }
+
+                deleteRecords(db, tableName, primaryKeyName, toDelete);
+
+                for (ContentValues record : toUpdate) {
+                    statementCache.update(db, tableName, record, primaryKeyName,
+                            record.getAsLong(primaryKeyName));
+                }
+
+                if (!toInsert.isEmpty())
+                    saveAll(tableName, primaryKeyName, toInsert).onStatement(db);
+
+                int unchanged = existingIDs.size() - toUpdate.size();
+
+                logMessage(LogLevel.DEBUG, "Synced %s: %d inserted, %d updated, %d unchanged, %d deleted",
+                        tableName, toInsert.size(), toUpdate.size(), unchanged, toDelete.size());
+
+                if (result != null)
+                    result.set(toInsert.size(), toUpdate.size(), unchanged, toDelete.size());
+            }
+        };
+    }
+
+    /**
+     * Checks if the values of a record are equal to the ones of the current cursor row.
+     */
+    private static boolean isStored(ContentValues record, Cursor cursor,
+                                    Map<String, Integer> columnIndexes, String tableName) {
+        for (Map.Entry<String, Object> value : record.valueSet()) {
+            Integer index = columnIndexes.get(value.getKey());
+
+            if (index == null)
+                throw new IllegalArgumentException("Column " + value.getKey() + " not found in " + tableName);
+
+            if (!isStored(value.getValue(), cursor, index))
+                return false;
+        }
+
+        return true;
+    }
+
+    private static boolean isStored(Object value, Cursor cursor, int index) {
+        switch (cursor.getType(index)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return value == null;
+
+            case Cursor.FIELD_TYPE_INTEGER:
+                if (value instanceof Boolean)
+                    return cursor.getLong(index) == ((Boolean) value ? 1 : 0);
+                if (value instanceof Double || value instanceof Float)
+                    return cursor.getLong(index) == ((Number) value).doubleValue();
+                if (value instanceof Number)
+                    return cursor.getLong(index) == ((Number) value).longValue();
+                break;
+
+            case Cursor.FIELD_TYPE_FLOAT:
+                if (value instanceof Number)
+                    return cursor.getDouble(index) == ((Number) value).doubleValue();
+                break;
+
+            case Cursor.FIELD_TYPE_BLOB:
+                return value instanceof byte[] && Arrays.equals(cursor.getBlob(index), (byte[]) value);
+
+            default:
+                break;
+        }
+
+        // values stored with a different type, compared as SQLite would convert them to text
+        if (value == null || value instanceof byte[])
+            return false;
+
+        String text = value instanceof Boolean ? ((Boolean) value ? "1" : "0") : value.toString();
+        return text.equals(cursor.getString(index));
+    }
+
     /**
      * The VACUUM command rebuilds the database file, repacking it into a minimal amount of
      * disk space. A VACUUM will fail if there is an open transaction, or if there are one or more
      * active SQL statements when it is run.
      *
+     * It rewrites the whole database and blocks all the other writers while running, so
+     * for periodic compaction prefer {@link #runMaintenance(int)} with incremental auto vacuum.
+     *
      * https://sqlite.org/lang_vacuum.html
      */
     public void vacuum() {
-        logMessage("Compacting database");
-        openDatabase().getWritableDatabase().execSQL("VACUUM");
-    }
+        logMessage(LogLevel.INFO, "Compacting database");
+
+        DatabaseLease lease = acquireDatabase();
 
-    private List<Long> getExistingRecordIDs(SqlDelightStatement getAllTheExistingRecordPrimaryKeysQuery) {
         try {
-            return executeListQuery(
-                    getAllTheExistingRecordPrimaryKeysQuery, new RowMapper<Long>() {
-                        @NonNull
-                        @Override
-                        public Long map(@NonNull Cursor cursor) {
-                            return cursor.getLong(0);
-                        }
-                    });
-        } catch (AssertionError error) {
-            return new ArrayList<>(1);
+            lease.getDatabase().getWritableDatabase().execSQL("VACUUM");
+        } finally {
+            lease.close();
         }
     }
 
-    private static boolean isIdContained(String primaryKeyName, long recordId, List<ContentValues> values) {
-        for (ContentValues value : values) {
-            if (value.containsKey(primaryKeyName) && value.getAsLong(primaryKeyName) == recordId)
-                return true;
-        }
+    /**
+     * Performs a short database maintenance: returns up to the given number of free pages to the
+     * file system (requires {@link DatabaseConfig#setIncrementalAutoVacuum(boolean)}),
+     * updates the query planner statistics and performs a passive WAL checkpoint.
+     * Each step holds the database only for a short time, so it's safe to run it periodically.
+     * It must not be called inside a transaction.
+     *
+     * @param maxVacuumPages maximum number of pages to reclaim. 0 to not reclaim pages
+     * @return maintenance result
+     */
+    public MaintenanceResult runMaintenance(int maxVacuumPages) {
+        if (maxVacuumPages < 0)
+            throw new IllegalArgumentException("maxVacuumPages must not be negative");
+
+        return DatabaseMaintenance.run(this, maxVacuumPages);
+    }
+
+    /**
+     * Schedules {@link #runMaintenance(int)} on the IO scheduler every time the database has been
+     * idle for the given time, with no queries executed and no transactions committed.
+     * Observable query subscriptions don't count as activity, so maintenance runs also while
+     * the UI is observing the database. Activity is sampled periodically, so checking for
+     * idleness costs nothing to database operations.
+     *
+     * @param idleTime time without database activity after which the maintenance runs
+     * @param unit idle time unit
+     * @param maxVacuumPages maximum number of pages to reclaim in each run
+     * @return subscription, to unsubscribe to stop the scheduled maintenance
+     */
+    public Subscription scheduleMaintenance(long idleTime, TimeUnit unit, final int maxVacuumPages) {
+        if (idleTime <= 0)
+            throw new IllegalArgumentException("idle time must be greater than 0");
+
+        if (maxVacuumPages < 0)
+            throw new IllegalArgumentException("maxVacuumPages must not be negative");
+
+        final long idleNanos = unit.toNanos(idleTime);
+        long samplingMillis = Math.max(1, unit.toMillis(idleTime) / 4);
+
+        return Observable.interval(samplingMillis, TimeUnit.MILLISECONDS, Schedulers.io())
+                .subscribe(new Action1<Long>() {
+                    private long maintainedActivity = lastActivityNanos;
+
+                    @Override
+                    public void call(Long tick) {
+                        long activity = lastActivityNanos;
+
+                        // run once per idle period and don't open a closed database
+                        if (activity == maintainedActivity || System.nanoTime() - activity < idleNanos
+                                || openCount.get() < 1)
+                            return;
+
+                        try {
+                            runMaintenance(maxVacuumPages);
+                        } catch (Throwable exc) {
+                            logMessage(LogLevel.INFO, "Database maintenance failed: %s", exc);
+                        }
 
-        return false;
+                        // the maintenance itself is not activity
+                        maintainedActivity = lastActivityNanos;
+                    }
+                });
     }
 
-    private static List<Long> getIDsToDelete(String primaryKeyName, List<Long> existing, List<ContentValues> newRecords) {
-        List<Long> toDelete = new ArrayList<>(existing.size());
+    private static LongArray getIDsToDelete(String primaryKeyName, LongArray existing, List<ContentValues> newRecords) {
+        LongHashSet newIDs = new LongHashSet(newRecords.size());
+
+        for (ContentValues value : newRecords) {
+            Long id = value.getAsLong(primaryKeyName);
+            if (id != null)
+                newIDs.add(id);
+        }
+
+        LongArray toDelete = new LongArray(Math.max(existing.size() - newIDs.size(), 1));
 
-        for (Long record : existing) {
-            if (!isIdContained(primaryKeyName, record, newRecords))
+        for (int i = 0; i < existing.size(); i++) {
+            long record = existing.get(i);
+            if (!newIDs.contains(record))
                 toDelete.add(record);
         }
 
         return toDelete;
     }
 
+    /**
+     * Deletes the records having the given primary keys, using as few DELETE statements as
+     * possible without exceeding SQLite's bound variables limit.
+     */
+    private void deleteRecords(BriteDatabase db, String tableName, String primaryKeyName,
+                               LongArray idsToDelete) {
+        int total = idsToDelete.size();
+        int offset = 0;
+
+        while (offset < total) {
+            int chunkSize = Math.min(MAX_SQL_VARIABLES, total - offset);
+            String sql = getDeleteInSql(tableName, primaryKeyName, chunkSize);
+            SQLiteStatement statement = statementCache.acquire(db, sql);
+
+            try {
+                for (int i = 0; i < chunkSize; i++) {
+                    statement.bindLong(i + 1, idsToDelete.get(offset + i));
+                }
+                db.executeUpdateDelete(tableName, statement);
+            } finally {
+                statementCache.release(sql, statement);
+            }
+
+            offset += chunkSize;
+        }
+    }
+
+    private static String getDeleteInSql(String tableName, String primaryKeyName, int count) {
+        StringBuilder sql = new StringBuilder(48 + count * 2);
+        sql.append("DELETE FROM ").append(tableName)
+           .append(" WHERE ").append(primaryKeyName).append(" IN (");
+
+        for (int i = 0; i < count; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+
+        return sql.append(')').toString();
+    }
+
     @UiThread
     public static <T> Observable<List<T>> getObservableList(SqlDelightStatement statement,
                                                             final RowMapper<T> mapper) {
-        return getInstance().openDatabase().createQuery(statement.tables, statement.statement, statement.args)
+        return getObservableList(getInstance(), statement, mapper);
+    }
+
+    /**
+     * Like {@link #getObservableList(SqlDelightStatement, RowMapper)}, on the given instance.
+     *
+     * @param manager database instance
+     * @param statement statement
+     * @param mapper row mapper
+     * @return observable
+     */
+    @UiThread
+    public static <T> Observable<List<T>> getObservableList(DatabaseManager manager,
+                                                            SqlDelightStatement statement,
+                                                            final RowMapper<T> mapper) {
+        return manager.getObservableQuery(statement)
                 .mapToList(new Func1<Cursor, T>() {
                     @Override
                     public T call(Cursor cursor) {
@@ -351,10 +1680,70 @@ public class DatabaseManager {
                 });
     }
 
+    /**
+     * Like {@link #getObservableList(SqlDelightStatement, RowMapper)}, but instead of the whole
+     * list, emits the rows inserted, changed and removed since the previous result, matching
+     * them by primary key. The changes are computed on the IO scheduler and results with no
+     * changes are not emitted, so small changes in big lists produce small updates.
+     * The first emission contains all the rows as inserted.
+     *
+     * T must implement {@link Object#equals(Object)} by content, as classes generated with
+     * AutoValue do: a row is reported as changed when it's not equal to its previous version,
+     * so with identity equality every row would be reported as changed on every emission.
+     *
+     * @param statement statement
+     * @param mapper row mapper
+     * @param keySelector gets the primary key of a row
+     * @return observable
+     */
+    @UiThread
+    public static <T> Observable<ListChanges<T>> getObservableListChanges(final SqlDelightStatement statement,
+                                                                          final RowMapper<T> mapper,
+                                                                          final KeySelector<T> keySelector) {
+        return getObservableListChanges(getInstance(), statement, mapper, keySelector);
+    }
+
+    /**
+     * Like {@link #getObservableListChanges(SqlDelightStatement, RowMapper, KeySelector)},
+     * on the given instance.
+     *
+     * @param manager database instance
+     * @param statement statement
+     * @param mapper row mapper
+     * @param keySelector gets the primary key of a row
+     * @return observable
+     */
+    @UiThread
+    public static <T> Observable<ListChanges<T>> getObservableListChanges(final DatabaseManager manager,
+                                                                          final SqlDelightStatement statement,
+                                                                          final RowMapper<T> mapper,
+                                                                          final KeySelector<T> keySelector) {
+        return Observable.defer(new Func0<Observable<ListChanges<T>>>() {
+            @Override
+            public Observable<ListChanges<T>> call() {
+                return getObservableList(manager, statement, mapper)
+                        .map(new ListDiffer<>(keySelector))
+                        .filter(new Func1<ListChanges<T>, Boolean>() {
+                            @Override
+                            public Boolean call(ListChanges<T> changes) {
+                                return changes.isInitial() || !changes.isEmpty();
+                            }
+                        });
+            }
+        });
+    }
+
     @UiThread
     public static <T> Observable<T> getObservable(SqlDelightStatement statement,
                                                   final RowMapper<T> mapper) {
-        return getInstance().openDatabase().createQuery(statement.tables, statement.statement, statement.args)
+        return getObservable(getInstance(), statement, mapper);
+    }
+
+    @UiThread
+    public static <T> Observable<T> getObservable(DatabaseManager manager,
+                                                  SqlDelightStatement statement,
+                                                  final RowMapper<T> mapper) {
+        return manager.getObservableQuery(statement)
                 .mapToOne(new Func1<Cursor, T>() {
                     @Override
                     public T call(Cursor cursor) {
@@ -366,7 +1755,14 @@ public class DatabaseManager {
     @UiThread
     public static <T> Observable<T> getObservableWithDefault(SqlDelightStatement statement,
                                                   final RowMapper<T> mapper, T defaultValue) {
-        return getInstance().openDatabase().createQuery(statement.tables, statement.statement, statement.args)
+        return getObservableWithDefault(getInstance(), statement, mapper, defaultValue);
+    }
+
+    @UiThread
+    public static <T> Observable<T> getObservableWithDefault(DatabaseManager manager,
+                                                             SqlDelightStatement statement,
+                                                             final RowMapper<T> mapper, T defaultValue) {
+        return manager.getObservableQuery(statement)
                 .mapToOneOrDefault(new Func1<Cursor, T>() {
                     @Override
                     public T call(Cursor cursor) {
@@ -375,12 +1771,146 @@ public class DatabaseManager {
                 }, defaultValue);
     }
 
+    /**
+     * Gets an observable which emits the rows of a query one at a time, respecting
+     * backpressure: rows are read from the database only when requested by the subscriber,
+     * one cursor window at a time. The query is executed once,
+     * on the IO scheduler, and the observable completes after the last row.
+     *
+     * @param statement statement
+     * @param mapper row mapper
+     * @return observable
+     */
+    public static <T> Observable<T> getRowsObservable(final SqlDelightStatement statement,
+                                                      final RowMapper<T> mapper) {
+        return getRowsObservable(getInstance(), statement, mapper);
+    }
+
+    /**
+     * Like {@link #getRowsObservable(SqlDelightStatement, RowMapper)}, on the given instance.
+     *
+     * @param manager database instance
+     * @param statement statement
+     * @param mapper row mapper
+     * @return observable
+     */
+    public static <T> Observable<T> getRowsObservable(final DatabaseManager manager,
+                                                      final SqlDelightStatement statement,
+                                                      final RowMapper<T> mapper) {
+        return Observable.create(SyncOnSubscribe.createSingleState(
+                new Func0<RowIterator<T>>() {
+                    @Override
+                    public RowIterator<T> call() {
+                        return manager.iterate(statement, mapper);
+                    }
+                },
+                new Action2<RowIterator<T>, Observer<? super T>>() {
+                    @Override
+                    public void call(RowIterator<T> iterator, Observer<? super T> observer) {
+                        if (iterator.hasNext()) {
+                            observer.onNext(iterator.next());
+                        } else {
+                            observer.onCompleted();
+                        }
+                    }
+                },
+                new Action1<RowIterator<T>>() {
+                    @Override
+                    public void call(RowIterator<T> iterator) {
+                        iterator.close();
+                    }
+                })).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Gets an observable which emits the rows of a query in lists of at most chunkSize rows,
+     * respecting backpressure: each list is read from the database only when requested by
+     * the subscriber. The query is executed once, on the IO scheduler, and the observable
+     * completes after the last chunk.
+     *
+     * @param statement statement
+     * @param mapper row mapper
+     * @param chunkSize maximum number of rows in each emitted list
+     * @return observable
+     */
+    public static <T> Observable<List<T>> getRowChunksObservable(final SqlDelightStatement statement,
+                                                                 final RowMapper<T> mapper,
+                                                                 final int chunkSize) {
+        return getRowChunksObservable(getInstance(), statement, mapper, chunkSize);
+    }
+
+    /**
+     * Like {@link #getRowChunksObservable(SqlDelightStatement, RowMapper, int)}, on the given
+     * instance.
+     *
+     * @param manager database instance
+     * @param statement statement
+     * @param mapper row mapper
+     * @param chunkSize maximum number of rows in each emitted list
+     * @return observable
+     */
+    public static <T> Observable<List<T>> getRowChunksObservable(final DatabaseManager manager,
+                                                                 final SqlDelightStatement statement,
+                                                                 final RowMapper<T> mapper,
+                                                                 final int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunk size must be at least 1");
+
+        return Observable.create(SyncOnSubscribe.createSingleState(
+                new Func0<RowIterator<T>>() {
+                    @Override
+                    public RowIterator<T> call() {
+                        return manager.iterate(statement, mapper);
+                    }
+                },
+                new Action2<RowIterator<T>, Observer<? super List<T>>>() {
+                    @Override
+                    public void call(RowIterator<T> iterator, Observer<? super List<T>> observer) {
+                        if (!iterator.hasNext()) {
+                            observer.onCompleted();
+                            return;
+                        }
+
+                        List<T> chunk = new ArrayList<>(chunkSize);
+                        while (chunk.size() < chunkSize && iterator.hasNext()) {
+                            chunk.add(iterator.next());
+                        }
+                        observer.onNext(chunk);
+                    }
+                },
+                new Action1<RowIterator<T>>() {
+                    @Override
+                    public void call(RowIterator<T> iterator) {
+                        iterator.close();
+                    }
+                })).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Wraps a SELECT statement in parentheses, to use it as a subquery.
+     */
+    static String asSubquery(String statement) {
+        String trimmed = statement.trim();
+
+        if (trimmed.endsWith(";"))
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+
+        return "(" + trimmed + ")";
+    }
+
     public static String getDropTableSql(String tableName) {
         return "DROP TABLE IF EXISTS `" + tableName + "`;";
     }
 
+    /**
+     * Gets the SQL to delete all the rows of a table. The freed space is reused by SQLite for
+     * new rows and can be returned to the file system with {@link #runMaintenance(int)}.
+     *
+     * @param tableName table name
+     * @return SQL statement
+     */
     public static String getTruncateTableSql(String tableName) {
-        return "DELETE FROM `" + tableName + "`; VACUUM;";
+        return "DELETE FROM `" + tableName + "`;";
     }
 
 }
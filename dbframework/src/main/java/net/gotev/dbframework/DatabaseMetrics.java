@@ -0,0 +1,99 @@
+package net.gotev.dbframework;
+
+import java.util.concurrent.TimeUnit;
+
+import net.gotev.dbframework.DatabaseManager.LogLevel;
+
+/**
+ * Collects query and transaction execution times in low overhead histograms, logs slow
+ * statements and forwards all the measurements to the {@link MetricsListener}, if set.
+ * Enable it with {@link DatabaseConfig#setMetricsEnabled(boolean)} and get it with
+ * {@link DatabaseManager#getMetrics()}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class DatabaseMetrics {
+
+    private final DatabaseManager manager;
+    private final MetricsListener listener;
+    private final long slowStatementNanos;
+
+    private final LatencyHistogram queryExecution = new LatencyHistogram("query execution");
+    private final LatencyHistogram queryMapping = new LatencyHistogram("query mapping");
+    private final LatencyHistogram transactions = new LatencyHistogram("transaction");
+
+    DatabaseMetrics(DatabaseManager manager, MetricsListener listener, long slowStatementNanos) {
+        this.manager = manager;
+        this.listener = listener;
+        this.slowStatementNanos = slowStatementNanos;
+    }
+
+    void onQuery(String statement, long executionNanos, int rows, long mappingNanos) {
+        queryExecution.record(executionNanos);
+        queryMapping.record(mappingNanos);
+
+        if (slowStatementNanos > 0 && executionNanos + mappingNanos >= slowStatementNanos) {
+            manager.logMessage(LogLevel.INFO, "Slow query (%dus execution, %dus mapping, %d rows): %s",
+                    TimeUnit.NANOSECONDS.toMicros(executionNanos),
+                    TimeUnit.NANOSECONDS.toMicros(mappingNanos), rows, statement);
+        }
+
+        if (listener != null)
+            listener.onQuery(statement, executionNanos, rows, mappingNanos);
+    }
+
+    void onTransaction(String name, long durationNanos, int statements, boolean successful) {
+        transactions.record(durationNanos);
+
+        if (slowStatementNanos > 0 && durationNanos >= slowStatementNanos) {
+            manager.logMessage(LogLevel.INFO, "Slow transaction %s (%dus, %d statements)",
+                    name, TimeUnit.NANOSECONDS.toMicros(durationNanos), statements);
+        }
+
+        if (listener != null)
+            listener.onTransaction(name, durationNanos, statements, successful);
+    }
+
+    /**
+     * @return histogram of the time spent executing queries until the first row was available
+     */
+    public LatencyHistogram getQueryExecutionHistogram() {
+        return queryExecution;
+    }
+
+    /**
+     * @return histogram of the time spent reading and mapping query rows
+     */
+    public LatencyHistogram getQueryMappingHistogram() {
+        return queryMapping;
+    }
+
+    /**
+     * @return histogram of transaction durations
+     */
+    public LatencyHistogram getTransactionHistogram() {
+        return transactions;
+    }
+
+    /**
+     * Resets all the histograms.
+     */
+    public void reset() {
+        queryExecution.reset();
+        queryMapping.reset();
+        transactions.reset();
+    }
+
+    /**
+     * @return human readable report of all the collected metrics
+     */
+    public String dump() {
+        return queryExecution + "\n" + queryMapping + "\n" + transactions
+                + "\nopen count: " + manager.getOpenCount();
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+}
@@ -0,0 +1,423 @@
+package net.gotev.dbframework;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.squareup.sqlbrite.SqlBrite;
+import com.squareup.sqldelight.RowMapper;
+import com.squareup.sqldelight.SqlDelightStatement;
+
+import net.gotev.dbframework.DatabaseManager.LogLevel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Full-text index of some columns of a table, stored in an external content FTS4 virtual
+ * table which is kept in sync with the content table by triggers. FTS4 is used because
+ * FTS5 is not available in the SQLite shipped with most Android versions.
+ *
+ * The content table must be a rowid table. Create the index in a migration, either with
+ * {@link #getMigration()} or by calling {@link #create(SQLiteDatabase)} and
+ * {@link #drop(SQLiteDatabase)} from your own migration.
+ *
+ * https://sqlite.org/fts3.html#_external_content_fts4_tables_
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class FullTextIndex {
+
+    private static final double BM25_K1 = 1.2;
+    private static final double BM25_B = 0.75;
+    private static final double MIN_IDF = 1e-6;
+
+    private final String indexName;
+    private final String contentTable;
+    private final String[] columns;
+    private final Set<String> tables;
+    private String tokenizer;
+    private int[] prefixIndexes;
+    private DatabaseManager manager;
+
+    /**
+     * Creates a new full-text index.
+     *
+     * @param indexName name of the FTS virtual table
+     * @param contentTable name of the table with the indexed rows
+     * @param columns text columns of the content table to index
+     */
+    public FullTextIndex(String indexName, String contentTable, String... columns) {
+        if (indexName == null || indexName.isEmpty())
+            throw new IllegalArgumentException("index name must not be null or empty");
+
+        if (contentTable == null || contentTable.isEmpty())
+            throw new IllegalArgumentException("content table must not be null or empty");
+
+        if (columns == null || columns.length == 0)
+            throw new IllegalArgumentException("You must index at least one column!");
+
+        this.indexName = indexName;
+        this.contentTable = contentTable;
+        this.columns = columns.clone();
+        this.tables = new HashSet<>(Arrays.asList(contentTable, indexName));
+    }
+
+    /**
+     * Sets the tokenizer used to split text into terms, e.g. "porter" or "unicode61".
+     * Changing it requires to drop and create the index again.
+     *
+     * @param tokenizer tokenizer name and arguments. Default is the FTS "simple" tokenizer
+     * @return {@link FullTextIndex}
+     */
+    public FullTextIndex setTokenizer(String tokenizer) {
+        this.tokenizer = tokenizer;
+        return this;
+    }
+
+    /**
+     * Adds prefix indexes for the given term lengths, which make prefix queries like
+     * "dat*" as fast as full term queries, at the cost of a bigger index.
+     * Changing them requires to drop and create the index again.
+     *
+     * https://sqlite.org/fts3.html#the_prefix_option
+     *
+     * @param lengths prefix lengths, e.g. 2 and 3 for autocompletion
+     * @return {@link FullTextIndex}
+     */
+    public FullTextIndex setPrefixIndexes(int... lengths) {
+        if (lengths != null) {
+            for (int length : lengths) {
+                if (length < 1)
+                    throw new IllegalArgumentException("prefix lengths must be at least 1");
+            }
+        }
+
+        this.prefixIndexes = lengths == null ? null : lengths.clone();
+        return this;
+    }
+
+    /**
+     * Sets the database instance used for searches and index maintenance.
+     * @param manager database instance. Default is {@link DatabaseManager#getInstance()}
+     * @return {@link FullTextIndex}
+     */
+    public FullTextIndex setDatabaseManager(DatabaseManager manager) {
+        this.manager = manager;
+        return this;
+    }
+
+    private DatabaseManager getManager() {
+        return manager == null ? DatabaseManager.getInstance() : manager;
+    }
+
+    /**
+     * @return name of the FTS virtual table
+     */
+    public String getIndexName() {
+        return indexName;
+    }
+
+    /**
+     * Gets a migration which creates the index and fills it with the existing content rows,
+     * and which drops it when reverted.
+     * @return migration
+     */
+    public DatabaseMigration getMigration() {
+        return new DatabaseMigration() {
+            @Override
+            public void up(SQLiteDatabase db) {
+                create(db);
+                db.execSQL(getCommandSql("rebuild"));
+            }
+
+            @Override
+            public void down(SQLiteDatabase db) {
+                drop(db);
+            }
+        };
+    }
+
+    /**
+     * Creates the FTS virtual table and the triggers which keep it in sync with the content
+     * table. Rows already in the content table are not indexed until {@link #rebuild()}.
+     * @param db database instance
+     */
+    public void create(SQLiteDatabase db) {
+        StringBuilder sql = new StringBuilder(128);
+        sql.append("CREATE VIRTUAL TABLE `").append(indexName).append("` USING fts4(content=`")
+           .append(contentTable).append("`");
+
+        for (String column : columns) {
+            sql.append(", `").append(column).append("`");
+        }
+
+        if (tokenizer != null) {
+            sql.append(", tokenize=").append(tokenizer);
+        }
+
+        if (prefixIndexes != null && prefixIndexes.length > 0) {
+            sql.append(", prefix=\"");
+            for (int i = 0; i < prefixIndexes.length; i++) {
+                if (i > 0) sql.append(",");
+                sql.append(prefixIndexes[i]);
+            }
+            sql.append("\"");
+        }
+
+        db.execSQL(sql.append(")").toString());
+
+        // the old values have to be removed from the index before they are changed
+        db.execSQL(getTriggerSql("bu", "BEFORE UPDATE", getDeleteSql()));
+        db.execSQL(getTriggerSql("bd", "BEFORE DELETE", getDeleteSql()));
+        db.execSQL(getTriggerSql("au", "AFTER UPDATE", getInsertSql()));
+        db.execSQL(getTriggerSql("ai", "AFTER INSERT", getInsertSql()));
+    }
+
+    /**
+     * Drops the triggers and the FTS virtual table. The content table is left untouched.
+     * @param db database instance
+     */
+    public void drop(SQLiteDatabase db) {
+        for (String suffix : new String[]{"bu", "bd", "au", "ai"}) {
+            db.execSQL("DROP TRIGGER IF EXISTS `" + indexName + "_" + suffix + "`");
+        }
+        db.execSQL("DROP TABLE IF EXISTS `" + indexName + "`");
+    }
+
+    private String getTriggerSql(String suffix, String event, String body) {
+        return "CREATE TRIGGER `" + indexName + "_" + suffix + "` " + event + " ON `"
+                + contentTable + "` BEGIN " + body + " END";
+    }
+
+    private String getDeleteSql() {
+        return "DELETE FROM `" + indexName + "` WHERE docid = old.rowid;";
+    }
+
+    private String getInsertSql() {
+        StringBuilder names = new StringBuilder("docid");
+        StringBuilder values = new StringBuilder("new.rowid");
+
+        for (String column : columns) {
+            names.append(", `").append(column).append("`");
+            values.append(", new.`").append(column).append("`");
+        }
+
+        return "INSERT INTO `" + indexName + "`(" + names + ") VALUES(" + values + ");";
+    }
+
+    private String getCommandSql(String command) {
+        return "INSERT INTO `" + indexName + "`(`" + indexName + "`) VALUES('" + command + "')";
+    }
+
+    /**
+     * Rebuilds the whole index from the content table. Needed only if the content table
+     * has been changed while the triggers were not in place.
+     */
+    public void rebuild() {
+        executeCommand("rebuild");
+    }
+
+    /**
+     * Merges all the index b-trees into one, which makes queries faster.
+     * It rewrites the whole index, so run it when the app is idle, e.g. after a big import.
+     */
+    public void optimize() {
+        executeCommand("optimize");
+    }
+
+    private void executeCommand(String command) {
+        DatabaseManager manager = getManager();
+        DatabaseLease lease = manager.acquireDatabase();
+
+        try {
+            long startTime = System.nanoTime();
+            lease.getDatabase().executeAndTrigger(indexName, getCommandSql(command));
+            manager.onCommit();
+            manager.logMessage(LogLevel.INFO, "Full-text index %s %s completed in %d ms",
+                    indexName, command, (System.nanoTime() - startTime) / 1000000);
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Searches the index and returns the matching content rows, sorted by relevance
+     * (Okapi BM25, computed from FTS matchinfo). The observable re-executes the search
+     * when the content table changes.
+     *
+     * All the matches are ranked to get a page, but only the rows of the page are read
+     * from the content table, so the cost of deep pages is the same as the first one.
+     *
+     * @param match FTS MATCH expression. Use {@link #prefixQuery(String)} for user input
+     * @param offset number of matches to skip
+     * @param limit maximum number of rows to return
+     * @param mapper content table row mapper
+     * @param <T> row type
+     * @return observable list of rows
+     */
+    public <T> Observable<List<T>> search(String match, final int offset, final int limit,
+                                          final RowMapper<T> mapper) {
+        if (match == null)
+            throw new IllegalArgumentException("match expression must not be null");
+
+        if (offset < 0)
+            throw new IllegalArgumentException("offset must not be negative");
+
+        if (limit < 1)
+            throw new IllegalArgumentException("limit must be at least 1");
+
+        if (mapper == null)
+            throw new IllegalArgumentException("mapper must not be null");
+
+        final DatabaseManager manager = getManager();
+        String sql = "SELECT docid, matchinfo(`" + indexName + "`, 'pcnalx') FROM `"
+                + indexName + "` WHERE `" + indexName + "` MATCH ?";
+
+        return manager.createQuery(tables, sql, match)
+                .map(new Func1<SqlBrite.Query, List<T>>() {
+                    @Override
+                    public List<T> call(SqlBrite.Query query) {
+                        return getRows(manager, rank(query), offset, limit, mapper);
+                    }
+                });
+    }
+
+    private static final class Match {
+        private final long docId;
+        private final double score;
+
+        Match(long docId, double score) {
+            this.docId = docId;
+            this.score = score;
+        }
+    }
+
+    private static final Comparator<Match> BY_SCORE = new Comparator<Match>() {
+        @Override
+        public int compare(Match first, Match second) {
+            int result = Double.compare(second.score, first.score);
+            return result != 0 ? result : (first.docId < second.docId ? -1 : (first.docId == second.docId ? 0 : 1));
+        }
+    };
+
+    private static List<Match> rank(SqlBrite.Query query) {
+        List<Match> matches = new ArrayList<>();
+        Cursor cursor = query.run();
+
+        if (cursor == null)
+            return matches;
+
+        try {
+            while (cursor.moveToNext()) {
+                matches.add(new Match(cursor.getLong(0), getScore(cursor.getBlob(1))));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Collections.sort(matches, BY_SCORE);
+        return matches;
+    }
+
+    /**
+     * Computes the BM25 score of a row from its matchinfo 'pcnalx' blob, which is an array
+     * of 32 bit unsigned integers in the machine byte order.
+     *
+     * https://sqlite.org/fts3.html#matchinfo
+     */
+    static double getScore(byte[] matchInfo) {
+        IntBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+
+        int phrases = info.get(0);
+        int columns = info.get(1);
+        double rows = info.get(2) & 0xffffffffL;
+        int averageLengths = 3;
+        int lengths = averageLengths + columns;
+        int hits = lengths + columns;
+
+        double score = 0;
+
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int offset = hits + 3 * (phrase * columns + column);
+                double frequency = info.get(offset) & 0xffffffffL;
+
+                if (frequency == 0)
+                    continue;
+
+                double rowsWithHits = info.get(offset + 2) & 0xffffffffL;
+                double idf = Math.max(MIN_IDF,
+                        Math.log((rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5)));
+                double averageLength = Math.max(1, info.get(averageLengths + column) & 0xffffffffL);
+                double length = info.get(lengths + column) & 0xffffffffL;
+
+                score += idf * frequency * (BM25_K1 + 1)
+                        / (frequency + BM25_K1 * (1 - BM25_B + BM25_B * length / averageLength));
+            }
+        }
+
+        return score;
+    }
+
+    private <T> List<T> getRows(DatabaseManager manager, List<Match> matches, int offset,
+                                int limit, RowMapper<T> mapper) {
+        if (offset >= matches.size())
+            return new ArrayList<>();
+
+        List<Match> page = matches.subList(offset, Math.min(matches.size(), offset + limit));
+
+        // IDs come from the database, so they can be safely inlined, with no variables limit
+        StringBuilder ids = new StringBuilder(page.size() * 8);
+        StringBuilder order = new StringBuilder(page.size() * 20);
+
+        for (int i = 0; i < page.size(); i++) {
+            long docId = page.get(i).docId;
+            if (i > 0) ids.append(",");
+            ids.append(docId);
+            order.append(" WHEN ").append(docId).append(" THEN ").append(i);
+        }
+
+        String sql = "SELECT * FROM `" + contentTable + "` WHERE rowid IN (" + ids
+                + ") ORDER BY CASE rowid" + order + " END";
+
+        return manager.executeListQuery(
+                new SqlDelightStatement(sql, new String[0], Collections.singleton(contentTable)),
+                mapper);
+    }
+
+    /**
+     * Converts user input into a MATCH expression which finds the rows containing all
+     * the words, also as prefixes of longer terms (e.g. "data fr" finds "database framework").
+     * FTS operators and special characters in the input are ignored.
+     *
+     * @param input text typed by the user
+     * @return MATCH expression, or null if the input contains no words
+     */
+    public static String prefixQuery(String input) {
+        if (input == null)
+            return null;
+
+        StringBuilder match = new StringBuilder(input.length() + 16);
+
+        for (String word : input.split("[\\s\"*^():\\-]+")) {
+            if (word.isEmpty())
+                continue;
+
+            if (match.length() > 0) match.append(" ");
+            match.append("\"").append(word).append("*\"");
+        }
+
+        return match.length() == 0 ? null : match.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package net.gotev.dbframework;
+
+/**
+ * Gets the primary key of a row.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public interface KeySelector<T> {
+    /**
+     * @param row row
+     * @return primary key of the row
+     */
+    long getKey(T row);
+}
@@ -0,0 +1,167 @@
+package net.gotev.dbframework;
+
+import android.database.Cursor;
+
+import com.squareup.sqlbrite.SqlBrite;
+import com.squareup.sqldelight.RowMapper;
+import com.squareup.sqldelight.SqlDelightStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Paginates the results of a query using the keyset method: each page is fetched with
+ * "WHERE key &gt; last key of the previous page" instead of an OFFSET, so getting a page costs
+ * the same no matter how deep it is, provided that the key is indexed.
+ *
+ * The key must be an integer column which uniquely identifies each row of the query
+ * (e.g. the primary key) and it must be part of the query result columns.
+ *
+ * Each page is an observable which re-executes only the query of that page when the
+ * tables involved in the statement change. Bear in mind that after a change, the last key
+ * of a page may differ from the one used to get the next page.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class KeysetPager<T> {
+
+    private final SqlDelightStatement statement;
+    private final String keyColumn;
+    private final int pageSize;
+    private final boolean ascending;
+    private final RowMapper<T> mapper;
+    private DatabaseManager manager;
+
+    /**
+     * Creates a new pager, sorting rows by ascending key.
+     *
+     * @param statement query to paginate
+     * @param keyColumn name of the unique integer key column
+     * @param pageSize number of rows in each page
+     * @param mapper row mapper
+     */
+    public KeysetPager(SqlDelightStatement statement, String keyColumn, int pageSize,
+                       RowMapper<T> mapper) {
+        this(statement, keyColumn, pageSize, true, mapper);
+    }
+
+    /**
+     * Creates a new pager.
+     *
+     * @param statement query to paginate
+     * @param keyColumn name of the unique integer key column
+     * @param pageSize number of rows in each page
+     * @param ascending true to sort rows by ascending key, false for descending
+     * @param mapper row mapper
+     */
+    public KeysetPager(SqlDelightStatement statement, String keyColumn, int pageSize,
+                       boolean ascending, RowMapper<T> mapper) {
+        if (statement == null)
+            throw new IllegalArgumentException("statement must not be null");
+
+        if (keyColumn == null || keyColumn.isEmpty())
+            throw new IllegalArgumentException("key column must not be null or empty");
+
+        if (pageSize < 1)
+            throw new IllegalArgumentException("page size must be at least 1");
+
+        if (mapper == null)
+            throw new IllegalArgumentException("mapper must not be null");
+
+        this.statement = statement;
+        this.keyColumn = keyColumn;
+        this.pageSize = pageSize;
+        this.ascending = ascending;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Sets the database instance on which pages are queried.
+     * @param manager database instance. Default is {@link DatabaseManager#getInstance()}
+     * @return {@link KeysetPager}
+     */
+    public KeysetPager<T> setDatabaseManager(DatabaseManager manager) {
+        this.manager = manager;
+        return this;
+    }
+
+    private DatabaseManager getManager() {
+        return manager == null ? DatabaseManager.getInstance() : manager;
+    }
+
+    /**
+     * @return observable first page
+     */
+    public Observable<Page<T>> getFirstPage() {
+        return getPage(null);
+    }
+
+    /**
+     * Gets the page which starts after the given key.
+     * @param lastKey last key of the previous page (see {@link Page#getLastKey()})
+     * @return observable page
+     */
+    public Observable<Page<T>> getPageAfter(long lastKey) {
+        return getPage(lastKey);
+    }
+
+    private Observable<Page<T>> getPage(final Long afterKey) {
+        String[] args = statement.args == null ? new String[0] : statement.args;
+
+        StringBuilder sql = new StringBuilder(statement.statement.length() + 96);
+        sql.append("SELECT * FROM ").append(DatabaseManager.asSubquery(statement.statement));
+
+        if (afterKey != null) {
+            sql.append(" WHERE ").append(keyColumn).append(ascending ? " > " : " < ")
+               .append("CAST(? AS INTEGER)");
+
+            String[] pageArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, pageArgs, 0, args.length);
+            pageArgs[args.length] = Long.toString(afterKey);
+            args = pageArgs;
+        }
+
+        // one more row to know if there are other pages
+        sql.append(" ORDER BY ").append(keyColumn).append(ascending ? " ASC" : " DESC")
+           .append(" LIMIT ").append(pageSize + 1);
+
+        return getManager().createQuery(statement.tables, sql.toString(), args)
+                .map(new Func1<SqlBrite.Query, Page<T>>() {
+                    @Override
+                    public Page<T> call(SqlBrite.Query query) {
+                        return readPage(query, afterKey);
+                    }
+                });
+    }
+
+    private Page<T> readPage(SqlBrite.Query query, Long afterKey) {
+        List<T> items = new ArrayList<>(pageSize);
+        Long lastKey = null;
+        boolean hasMore = false;
+
+        Cursor cursor = query.run();
+
+        if (cursor != null) {
+            try {
+                int keyIndex = cursor.getColumnIndexOrThrow(keyColumn);
+
+                while (cursor.moveToNext()) {
+                    if (items.size() == pageSize) {
+                        hasMore = true;
+                        break;
+                    }
+
+                    items.add(mapper.map(cursor));
+                    lastKey = cursor.getLong(keyIndex);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return new Page<>(items, afterKey, lastKey, hasMore);
+    }
+}
@@ -0,0 +1,117 @@
+package net.gotev.dbframework;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power of two buckets: bucket N counts the samples between
+ * 2^N and 2^(N+1) microseconds. Recording a sample costs a few atomic increments and
+ * no allocations.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 32;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return histogram name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of recorded samples
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return sum of all the recorded samples, in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * @return maximum recorded sample, in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Gets an upper bound of the given percentile. Being based on power of two buckets,
+     * the value may be up to twice the real one.
+     *
+     * @param percentile percentile, between 0 and 100
+     * @return percentile upper bound in microseconds, or 0 if there are no samples
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+
+        long threshold = (long) Math.ceil(total * percentile / 100);
+        long cumulative = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += buckets.get(i);
+            if (cumulative >= threshold && cumulative > 0)
+                return 1L << (i + 1);
+        }
+
+        return 1L << BUCKETS;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        long samples = count.get();
+        long average = samples == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / samples);
+
+        return String.format(Locale.US,
+                "%s: count=%d avg=%dus p50<=%dus p90<=%dus p99<=%dus max=%dus",
+                name, samples, average, getPercentileMicros(50), getPercentileMicros(90),
+                getPercentileMicros(99), TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+    }
+}
@@ -0,0 +1,70 @@
+package net.gotev.dbframework;
+
+import java.util.List;
+
+/**
+ * Changes in the result of a list query, compared to its previous result.
+ * Rows are matched by primary key and a row is considered changed when it's
+ * not {@link Object#equals(Object)} to its previous version.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class ListChanges<T> {
+
+    private final List<T> list;
+    private final List<T> inserted;
+    private final List<T> changed;
+    private final long[] removedKeys;
+    private final boolean initial;
+
+    ListChanges(List<T> list, List<T> inserted, List<T> changed, long[] removedKeys,
+                boolean initial) {
+        this.list = list;
+        this.inserted = inserted;
+        this.changed = changed;
+        this.removedKeys = removedKeys;
+        this.initial = initial;
+    }
+
+    /**
+     * @return the whole current result
+     */
+    public List<T> getList() {
+        return list;
+    }
+
+    /**
+     * @return rows which were not in the previous result. In the initial result, all the rows
+     */
+    public List<T> getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return rows whose content differs from the previous result
+     */
+    public List<T> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return primary keys of the rows which were in the previous result and are not anymore
+     */
+    public long[] getRemovedKeys() {
+        return removedKeys;
+    }
+
+    /**
+     * @return true if this is the first result, so there is no previous one to compare with
+     */
+    public boolean isInitial() {
+        return initial;
+    }
+
+    /**
+     * @return true if nothing changed compared to the previous result
+     */
+    public boolean isEmpty() {
+        return inserted.isEmpty() && changed.isEmpty() && removedKeys.length == 0;
+    }
+}
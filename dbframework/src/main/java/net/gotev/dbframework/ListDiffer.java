@@ -0,0 +1,74 @@
+package net.gotev.dbframework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import rx.functions.Func1;
+
+/**
+ * Computes the changes between consecutive results of a list query, keeping the previous
+ * result indexed by primary key. One instance must be used for a single subscription.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+final class ListDiffer<T> implements Func1<List<T>, ListChanges<T>> {
+
+    private static final long[] NO_KEYS = new long[0];
+
+    private final KeySelector<T> keySelector;
+    private LongHashMap<T> previous;
+
+    ListDiffer(KeySelector<T> keySelector) {
+        this.keySelector = keySelector;
+    }
+
+    @Override
+    public ListChanges<T> call(List<T> list) {
+        LongHashMap<T> current = new LongHashMap<>(list.size());
+
+        for (T row : list) {
+            current.put(keySelector.getKey(row), row);
+        }
+
+        if (previous == null) {
+            previous = current;
+            return new ListChanges<>(list, list, Collections.<T>emptyList(), NO_KEYS, true);
+        }
+
+        List<T> inserted = null;
+        List<T> changed = null;
+
+        for (T row : list) {
+            T old = previous.get(keySelector.getKey(row));
+
+            if (old == null) {
+                if (inserted == null)
+                    inserted = new ArrayList<>();
+                inserted.add(row);
+
+            } else if (!old.equals(row)) {
+                if (changed == null)
+                    changed = new ArrayList<>();
+                changed.add(row);
+            }
+        }
+
+        LongArray removed = null;
+
+        for (int slot = 0; slot < previous.capacity(); slot++) {
+            if (previous.isUsed(slot) && !current.containsKey(previous.keyAt(slot))) {
+                if (removed == null)
+                    removed = new LongArray();
+                removed.add(previous.keyAt(slot));
+            }
+        }
+
+        previous = current;
+
+        return new ListChanges<>(list,
+                inserted == null ? Collections.<T>emptyList() : inserted,
+                changed == null ? Collections.<T>emptyList() : changed,
+                removed == null ? NO_KEYS : removed.toArray(), false);
+    }
+}
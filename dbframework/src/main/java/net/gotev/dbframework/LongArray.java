@@ -0,0 +1,68 @@
+package net.gotev.dbframework;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive longs, to read big sets of IDs without boxing.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public final class LongArray {
+
+    private long[] values;
+    private int size;
+
+    public LongArray() {
+        this(16);
+    }
+
+    public LongArray(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("initial capacity must not be negative");
+
+        values = new long[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size << 1);
+        }
+
+        values[size++] = value;
+    }
+
+    public long get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return copy of the values
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(size * 4 + 2).append('[');
+
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                builder.append(", ");
+            builder.append(values[i]);
+        }
+
+        return builder.append(']').toString();
+    }
+}
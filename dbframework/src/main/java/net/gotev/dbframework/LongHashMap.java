@@ -0,0 +1,64 @@
+package net.gotev.dbframework;
+
+/**
+ * Open addressing hash map with primitive long keys, to avoid boxing when indexing
+ * big sets of rows by primary key.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+final class LongHashMap<V> extends LongHashTable {
+
+    private Object[] values;
+
+    LongHashMap(int expectedSize) {
+        super(expectedSize);
+        values = new Object[capacity()];
+    }
+
+    /**
+     * Associates a value with a key.
+     * @param key key
+     * @param value value
+     * @return previous value associated with the key, or null
+     */
+    V put(long key, V value) {
+        int slot = slotOf(key);
+
+        if (slot >= 0) {
+            V previous = valueAt(slot);
+            values[slot] = value;
+            return previous;
+        }
+
+        slot = -slot - 1;
+        values[slot] = value;
+        insert(slot, key);
+        return null;
+    }
+
+    V get(long key) {
+        int slot = slotOf(key);
+        return slot >= 0 ? valueAt(slot) : null;
+    }
+
+    boolean containsKey(long key) {
+        return slotOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    @Override
+    Object growValues(int capacity) {
+        Object[] oldValues = values;
+        values = new Object[capacity];
+        return oldValues;
+    }
+
+    @Override
+    void moveValue(Object oldValues, int oldSlot, int slot) {
+        values[slot] = ((Object[]) oldValues)[oldSlot];
+    }
+}
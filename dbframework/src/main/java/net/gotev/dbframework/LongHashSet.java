@@ -0,0 +1,33 @@
+package net.gotev.dbframework;
+
+/**
+ * Open addressing hash set of primitive longs, to avoid boxing when checking
+ * big sets of primary keys.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+final class LongHashSet extends LongHashTable {
+
+    LongHashSet(int expectedSize) {
+        super(expectedSize);
+    }
+
+    /**
+     * Adds a key to the set.
+     * @param key key to add
+     * @return true if the key was not already in the set
+     */
+    boolean add(long key) {
+        int slot = slotOf(key);
+
+        if (slot >= 0)
+            return false;
+
+        insert(-slot - 1, key);
+        return true;
+    }
+
+    boolean contains(long key) {
+        return slotOf(key) >= 0;
+    }
+}
@@ -0,0 +1,133 @@
+package net.gotev.dbframework;
+
+/**
+ * Open addressing hash table of primitive long keys, with linear probing, shared by
+ * {@link LongHashSet} and {@link LongHashMap}. Subclasses which store values per slot
+ * move them when the table grows, by overriding {@link #growValues(int)} and
+ * {@link #moveValue(Object, int, int)}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+abstract class LongHashTable {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private boolean[] used;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    LongHashTable(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(long key) {
+        // murmur3 finalizer, to spread sequential IDs across the table
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * Finds the slot of a key.
+     * @param key key to find
+     * @return slot of the key if it's in the table, otherwise -(slot in which to insert it) - 1
+     */
+    final int slotOf(long key) {
+        int slot = hash(key) & mask;
+
+        while (used[slot]) {
+            if (keys[slot] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+
+        return -slot - 1;
+    }
+
+    /**
+     * Stores a key in the free slot returned by {@link #slotOf(long)}. Its value, if any,
+     * must be stored before, because the table may grow and move the slots.
+     * @param slot free slot
+     * @param key key to store
+     */
+    final void insert(int slot, long key) {
+        keys[slot] = key;
+        used[slot] = true;
+
+        if (++size > resizeAt) {
+            rehash();
+        }
+    }
+
+    /**
+     * Called when the table grows, to replace the values with a new array.
+     * @param capacity new number of slots
+     * @return previous values, passed to {@link #moveValue(Object, int, int)}
+     */
+    Object growValues(int capacity) {
+        return null;
+    }
+
+    /**
+     * Called for each key moved to the grown table.
+     * @param oldValues values returned by {@link #growValues(int)}
+     * @param oldSlot slot of the key in the previous table
+     * @param slot slot of the key in the grown table
+     */
+    void moveValue(Object oldValues, int oldSlot, int slot) {
+    }
+
+    final int size() {
+        return size;
+    }
+
+    /**
+     * @return number of slots, to iterate over the table with {@link #isUsed(int)}
+     * and {@link #keyAt(int)}
+     */
+    final int capacity() {
+        return keys.length;
+    }
+
+    final boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    final long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+
+        allocate(oldKeys.length << 1);
+        Object oldValues = growValues(keys.length);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                used[slot] = true;
+                moveValue(oldValues, i, slot);
+            }
+        }
+    }
+}
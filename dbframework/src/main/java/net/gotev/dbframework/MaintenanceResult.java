@@ -0,0 +1,66 @@
+package net.gotev.dbframework;
+
+/**
+ * Result of a database maintenance run.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class MaintenanceResult {
+
+    private final long pageSize;
+    private final long reclaimedPages;
+    private final long freePages;
+    private final WalCheckpoint checkpoint;
+    private final long durationMillis;
+
+    MaintenanceResult(long pageSize, long reclaimedPages, long freePages,
+                      WalCheckpoint checkpoint, long durationMillis) {
+        this.pageSize = pageSize;
+        this.reclaimedPages = reclaimedPages;
+        this.freePages = freePages;
+        this.checkpoint = checkpoint;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return number of pages returned to the file system by the incremental vacuum
+     */
+    public long getReclaimedPages() {
+        return reclaimedPages;
+    }
+
+    /**
+     * @return number of bytes returned to the file system by the incremental vacuum
+     */
+    public long getReclaimedBytes() {
+        return reclaimedPages * pageSize;
+    }
+
+    /**
+     * @return number of unused pages still in the database file
+     */
+    public long getFreePages() {
+        return freePages;
+    }
+
+    /**
+     * @return result of the WAL checkpoint, or null if the database is not in WAL mode
+     */
+    public WalCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @return duration of the maintenance in milliseconds
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "MaintenanceResult{reclaimedPages=" + reclaimedPages + ", freePages=" + freePages
+                + ", pageSize=" + pageSize
+                + ", checkpoint=" + checkpoint + ", durationMillis=" + durationMillis + "}";
+    }
+}
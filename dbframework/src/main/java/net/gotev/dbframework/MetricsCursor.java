@@ -0,0 +1,66 @@
+package net.gotev.dbframework;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * Cursor which measures query execution and mapping times and reports them
+ * to {@link DatabaseMetrics} when it's closed. The query is executed by SQLite when the
+ * cursor is moved the first time, so the execution time is measured until then and the
+ * following time until the cursor gets closed is the mapping time.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+final class MetricsCursor extends CursorWrapper {
+
+    private final DatabaseMetrics metrics;
+    private final String statement;
+    private final long startTime;
+    private long firstMoveTime;
+    private int rows;
+    private boolean closed;
+
+    MetricsCursor(DatabaseMetrics metrics, String statement, Cursor cursor, long startTime) {
+        super(cursor);
+        this.metrics = metrics;
+        this.statement = statement;
+        this.startTime = startTime;
+    }
+
+    @Override
+    public boolean moveToNext() {
+        boolean moved = super.moveToNext();
+
+        if (firstMoveTime == 0)
+            firstMoveTime = System.nanoTime();
+
+        if (moved)
+            rows++;
+
+        return moved;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        boolean moved = super.moveToFirst();
+
+        if (firstMoveTime == 0)
+            firstMoveTime = System.nanoTime();
+
+        return moved;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+
+        if (closed)
+            return;
+
+        closed = true;
+
+        long now = System.nanoTime();
+        long executed = firstMoveTime == 0 ? now : firstMoveTime;
+        metrics.onQuery(statement, executed - startTime, rows, now - executed);
+    }
+}
@@ -0,0 +1,28 @@
+package net.gotev.dbframework;
+
+/**
+ * Receives execution metrics of queries and transactions.
+ * Enable it with {@link DatabaseConfig#setMetricsListener(MetricsListener)}.
+ * Methods are called on the thread which performed the operation, so they should return quickly.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public interface MetricsListener {
+    /**
+     * Called after a query has been executed and its rows mapped.
+     * @param statement SQL statement
+     * @param executionNanos time spent executing the query until the first row was available
+     * @param rows number of rows read
+     * @param mappingNanos time spent reading and mapping the rows
+     */
+    void onQuery(String statement, long executionNanos, int rows, long mappingNanos);
+
+    /**
+     * Called after a transaction has been committed or rolled back.
+     * @param name transaction name
+     * @param durationNanos transaction duration
+     * @param statements number of executed statements
+     * @param successful true if the transaction has been committed
+     */
+    void onTransaction(String name, long durationNanos, int statements, boolean successful);
+}
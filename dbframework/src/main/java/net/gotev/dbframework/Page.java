@@ -0,0 +1,52 @@
+package net.gotev.dbframework;
+
+import java.util.List;
+
+/**
+ * Page of query results, obtained with a {@link KeysetPager}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class Page<T> {
+
+    private final List<T> items;
+    private final Long afterKey;
+    private final Long lastKey;
+    private final boolean hasMore;
+
+    Page(List<T> items, Long afterKey, Long lastKey, boolean hasMore) {
+        this.items = items;
+        this.afterKey = afterKey;
+        this.lastKey = lastKey;
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * @return rows in this page
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return key after which this page starts, or null if this is the first page
+     */
+    public Long getAfterKey() {
+        return afterKey;
+    }
+
+    /**
+     * @return key of the last row in this page, or null if the page is empty.
+     * Pass it to {@link KeysetPager#getPageAfter(long)} to get the next page
+     */
+    public Long getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * @return true if there are more rows after this page
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
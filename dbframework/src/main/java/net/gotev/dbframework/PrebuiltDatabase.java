@@ -0,0 +1,154 @@
+package net.gotev.dbframework;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Pre-built SQLite database file, copied in place of the app database when it doesn't exist
+ * yet. Set it with {@link DatabaseConfig#setPrebuiltDatabase(PrebuiltDatabase)}.
+ *
+ * The file must have its user_version set to the number of migrations already applied to it,
+ * with PRAGMA user_version, so that the following migrations are applied after the copy.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public abstract class PrebuiltDatabase {
+
+    /**
+     * Opens the streams of pre-built databases which are not in assets or files.
+     */
+    public interface StreamProvider {
+        InputStream open() throws IOException;
+    }
+
+    private static final long STREAM_CHUNK_SIZE = 1024 * 1024;
+
+    PrebuiltDatabase() { }
+
+    /**
+     * Copies the pre-built database.
+     * @param context application context
+     * @param destination channel of the destination file
+     * @return number of copied bytes
+     */
+    abstract long copyTo(Context context, FileChannel destination) throws IOException;
+
+    /**
+     * Pre-built database in the app assets. Store it uncompressed (e.g. with the .db extension
+     * in aaptOptions noCompress) to have it copied directly from the APK file descriptor.
+     *
+     * @param assetPath path of the database in the assets
+     * @return pre-built database
+     */
+    public static PrebuiltDatabase fromAsset(final String assetPath) {
+        return new PrebuiltDatabase() {
+            @Override
+            long copyTo(Context context, FileChannel destination) throws IOException {
+                AssetFileDescriptor descriptor;
+
+                try {
+                    descriptor = context.getAssets().openFd(assetPath);
+                } catch (FileNotFoundException exc) {
+                    // compressed assets have no file descriptor
+                    return copy(context.getAssets().open(assetPath), destination);
+                }
+
+                try {
+                    FileInputStream stream = descriptor.createInputStream();
+
+                    try {
+                        FileChannel source = stream.getChannel();
+                        long start = descriptor.getStartOffset();
+                        long length = descriptor.getLength() == AssetFileDescriptor.UNKNOWN_LENGTH
+                                ? source.size() - start : descriptor.getLength();
+
+                        return copy(source, start, length, destination);
+                    } finally {
+                        stream.close();
+                    }
+                } finally {
+                    descriptor.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Pre-built database in a file, for example downloaded from a server.
+     *
+     * @param file database file
+     * @return pre-built database
+     */
+    public static PrebuiltDatabase fromFile(final File file) {
+        return new PrebuiltDatabase() {
+            @Override
+            long copyTo(Context context, FileChannel destination) throws IOException {
+                FileInputStream stream = new FileInputStream(file);
+
+                try {
+                    FileChannel source = stream.getChannel();
+                    return copy(source, 0, source.size(), destination);
+                } finally {
+                    stream.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Pre-built database read from a stream.
+     *
+     * @param provider opens the stream, which is closed after the copy
+     * @return pre-built database
+     */
+    public static PrebuiltDatabase fromStream(final StreamProvider provider) {
+        return new PrebuiltDatabase() {
+            @Override
+            long copyTo(Context context, FileChannel destination) throws IOException {
+                return copy(provider.open(), destination);
+            }
+        };
+    }
+
+    private static long copy(FileChannel source, long start, long length,
+                             FileChannel destination) throws IOException {
+        source.position(start);
+        long copied = 0;
+
+        while (copied < length) {
+            long transferred = destination.transferFrom(source, copied, length - copied);
+
+            if (transferred <= 0)
+                throw new IOException("Unexpected end of the pre-built database after " + copied + " bytes");
+
+            copied += transferred;
+        }
+
+        return copied;
+    }
+
+    private static long copy(InputStream stream, FileChannel destination) throws IOException {
+        try {
+            ReadableByteChannel source = Channels.newChannel(stream);
+            long copied = 0;
+            long transferred;
+
+            while ((transferred = destination.transferFrom(source, copied, STREAM_CHUNK_SIZE)) > 0) {
+                copied += transferred;
+            }
+
+            return copied;
+        } finally {
+            stream.close();
+        }
+    }
+}
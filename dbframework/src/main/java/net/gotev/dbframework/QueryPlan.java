@@ -0,0 +1,121 @@
+package net.gotev.dbframework;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Query plan of a statement, captured by the {@link QueryPlanAnalyzer}, with the number
+ * of times the statement has been executed.
+ *
+ * https://sqlite.org/eqp.html
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class QueryPlan {
+
+    static final int TABLE_SCAN_COST = 100;
+    static final int INDEX_SCAN_COST = 20;
+    static final int TEMP_B_TREE_COST = 10;
+    static final int SEARCH_COST = 1;
+
+    private final String statement;
+    private final List<String> details;
+    private final List<String> scannedTables;
+    private final boolean tempBTree;
+    private final List<String> suggestedIndexes;
+    private final int cost;
+    private volatile long executions;
+
+    QueryPlan(String statement, List<String> details, List<String> scannedTables,
+              boolean tempBTree, List<String> suggestedIndexes, int cost) {
+        this.statement = statement;
+        this.details = Collections.unmodifiableList(details);
+        this.scannedTables = Collections.unmodifiableList(scannedTables);
+        this.tempBTree = tempBTree;
+        this.suggestedIndexes = Collections.unmodifiableList(suggestedIndexes);
+        this.cost = cost;
+    }
+
+    /**
+     * Must be called while holding the {@link QueryPlanAnalyzer} lock.
+     */
+    void recordExecution() {
+        executions++;
+    }
+
+    /**
+     * @return analyzed SQL statement
+     */
+    public String getStatement() {
+        return statement;
+    }
+
+    /**
+     * @return detail column of each EXPLAIN QUERY PLAN row
+     */
+    public List<String> getDetails() {
+        return details;
+    }
+
+    /**
+     * @return tables read entirely, without using an index to search rows
+     */
+    public List<String> getScannedTables() {
+        return scannedTables;
+    }
+
+    /**
+     * @return true if the statement reads at least one table entirely
+     */
+    public boolean hasFullScan() {
+        return !scannedTables.isEmpty();
+    }
+
+    /**
+     * @return true if the statement sorts or groups rows in a temporary b-tree,
+     * because no index provides them in the required order
+     */
+    public boolean usesTempBTree() {
+        return tempBTree;
+    }
+
+    /**
+     * @return CREATE INDEX statements which may avoid the full scans. They are guessed from
+     * the columns compared in the statement, so check them before adding them to a migration
+     */
+    public List<String> getSuggestedIndexes() {
+        return suggestedIndexes;
+    }
+
+    /**
+     * @return estimated cost of a single execution: {@value #TABLE_SCAN_COST} for each
+     * table scan, {@value #INDEX_SCAN_COST} for each full index scan,
+     * {@value #TEMP_B_TREE_COST} for each temporary b-tree and {@value #SEARCH_COST}
+     * for each indexed search
+     */
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * @return number of times the statement has been executed since it has been analyzed
+     */
+    public long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * @return executions multiplied by cost, used to sort the report
+     */
+    public long getScore() {
+        return executions * cost;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPlan{statement=" + statement + ", executions=" + executions
+                + ", cost=" + cost + ", scannedTables=" + scannedTables
+                + ", tempBTree=" + tempBTree + ", details=" + details
+                + ", suggestedIndexes=" + suggestedIndexes + "}";
+    }
+}
@@ -0,0 +1,372 @@
+package net.gotev.dbframework;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import net.gotev.dbframework.DatabaseManager.LogLevel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs EXPLAIN QUERY PLAN once for each distinct query executed on the database, flags
+ * full table scans and temporary b-tree sorts, suggests the missing indexes and counts
+ * the executions of each query, to report the worst ones by executions &times; cost.
+ *
+ * Every query passes through it, including the ones of the observable helpers,
+ * but the results served by the {@link QueryResultCache} are not counted.
+ * It's meant for debug builds: enable it with
+ * {@link DatabaseConfig#setQueryPlanAnalysisEnabled(boolean)}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class QueryPlanAnalyzer {
+
+    /**
+     * Maximum number of analyzed statements. When exceeded, the least recently executed
+     * statement is discarded with its counters.
+     */
+    static final int MAX_STATEMENTS = 256;
+
+    private static final Pattern SCAN = Pattern.compile("^SCAN (?:TABLE )?(\\S+)(.*)$");
+
+    private static final Pattern COMPARISON = Pattern.compile(
+            "[`\"]?(\\w+)[`\"]?\\s*(==|=|<=|>=|<(?!>)|>|\\bIN\\b|\\bIS\\b|\\bBETWEEN\\b|\\bLIKE\\b|\\bGLOB\\b)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern ORDER_BY = Pattern.compile(
+            "\\bORDER\\s+BY\\s+(.+?)(?:\\bLIMIT\\b|\\)|$)", Pattern.CASE_INSENSITIVE);
+
+    private static final Comparator<QueryPlan> BY_SCORE = new Comparator<QueryPlan>() {
+        @Override
+        public int compare(QueryPlan first, QueryPlan second) {
+            long firstScore = first.getScore();
+            long secondScore = second.getScore();
+            return firstScore > secondScore ? -1 : (firstScore == secondScore ? 0 : 1);
+        }
+    };
+
+    private final DatabaseManager manager;
+    private final Map<String, List<String>> tableColumns = new HashMap<>();
+    private final LinkedHashMap<String, QueryPlan> plans =
+            new LinkedHashMap<String, QueryPlan>(MAX_STATEMENTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+                    return size() > MAX_STATEMENTS;
+                }
+            };
+
+    QueryPlanAnalyzer(DatabaseManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Called for each query, before its cursor is created.
+     * @param db database on which the query is executed
+     * @param sql normalized query
+     */
+    void onQuery(SQLiteDatabase db, String sql) {
+        synchronized (this) {
+            QueryPlan plan = plans.get(sql);
+            if (plan != null) {
+                plan.recordExecution();
+                return;
+            }
+        }
+
+        // the analyzer queries (EXPLAIN and PRAGMA) pass through here too, and are skipped
+        if (!isSelect(sql))
+            return;
+
+        QueryPlan plan = analyze(db, sql);
+
+        synchronized (this) {
+            QueryPlan existing = plans.get(sql);
+
+            if (existing != null) {
+                existing.recordExecution();
+                return;
+            }
+
+            plan.recordExecution();
+            plans.put(sql, plan);
+        }
+
+        if (plan.hasFullScan() || plan.usesTempBTree()) {
+            manager.logMessage(LogLevel.INFO, "Query plan of: %s -> %s, suggested indexes: %s",
+                    sql, plan.getDetails(), plan.getSuggestedIndexes());
+        }
+    }
+
+    private static boolean isSelect(String sql) {
+        String start = sql.trim();
+        return start.regionMatches(true, 0, "SELECT", 0, 6) || start.regionMatches(true, 0, "WITH", 0, 4);
+    }
+
+    private QueryPlan analyze(SQLiteDatabase db, String sql) {
+        List<String> details = new ArrayList<>();
+
+        try {
+            Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+
+            try {
+                int detailIndex = cursor.getColumnIndex("detail");
+                if (detailIndex < 0)
+                    detailIndex = cursor.getColumnCount() - 1;
+
+                while (cursor.moveToNext()) {
+                    details.add(cursor.getString(detailIndex));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException exc) {
+            manager.logMessage(LogLevel.INFO, "Can't get the query plan of: %s -> %s", sql, exc.getMessage());
+            return new QueryPlan(sql, details, new ArrayList<String>(), false, new ArrayList<String>(), 0);
+        }
+
+        return analyze(db, sql, details);
+    }
+
+    /**
+     * Interprets the details of a query plan, as returned by EXPLAIN QUERY PLAN.
+     * Both the formats before ("SCAN TABLE x") and since SQLite 3.24 ("SCAN x") are supported.
+     * @param db database, used to get the columns of the scanned tables
+     * @param sql query
+     * @param details query plan details
+     * @return query plan
+     */
+    QueryPlan analyze(SQLiteDatabase db, String sql, List<String> details) {
+        List<String> scannedTables = new ArrayList<>();
+        List<String> suggestedIndexes = new ArrayList<>();
+        boolean tempBTree = false;
+        boolean orderByTempBTree = false;
+        int cost = 0;
+
+        for (String detail : details) {
+            if (detail.startsWith("USE TEMP B-TREE")) {
+                tempBTree = true;
+                orderByTempBTree |= detail.contains("ORDER BY");
+                cost += QueryPlan.TEMP_B_TREE_COST;
+                continue;
+            }
+
+            if (detail.startsWith("SEARCH")) {
+                cost += QueryPlan.SEARCH_COST;
+                continue;
+            }
+
+            Matcher scan = SCAN.matcher(detail);
+
+            if (!scan.matches())
+                continue;
+
+            String table = scan.group(1);
+            String rest = scan.group(2);
+
+            // subqueries, constant rows and virtual tables (e.g. full-text indexes) are not table scans
+            if (table.startsWith("(") || table.equals("SUBQUERY") || table.equals("CONSTANT")
+                    || rest.contains("VIRTUAL TABLE"))
+                continue;
+
+            if (rest.contains("USING")) {
+                cost += QueryPlan.INDEX_SCAN_COST;
+                continue;
+            }
+
+            cost += QueryPlan.TABLE_SCAN_COST;
+            scannedTables.add(table);
+        }
+
+        for (String table : scannedTables) {
+            String index = suggestIndex(db, table, sql, orderByTempBTree && scannedTables.size() == 1);
+            if (index != null)
+                suggestedIndexes.add(index);
+        }
+
+        return new QueryPlan(sql, details, scannedTables, tempBTree, suggestedIndexes, cost);
+    }
+
+    /**
+     * Suggests an index on the columns of the table compared in the statement: equality
+     * comparisons first, then the first range comparison, then the ORDER BY columns if the
+     * rows are sorted in a temporary b-tree and there is no range comparison.
+     */
+    private String suggestIndex(SQLiteDatabase db, String table, String sql, boolean addOrderBy) {
+        List<String> columns = getColumns(db, table);
+
+        if (columns.isEmpty())
+            return null;
+
+        Set<String> equalities = new LinkedHashSet<>();
+        String range = null;
+
+        int from = sql.toUpperCase(Locale.US).indexOf(" FROM ");
+        Matcher comparison = COMPARISON.matcher(sql);
+
+        while (comparison.find(from < 0 ? 0 : from)) {
+            from = comparison.end();
+            String column = findColumn(columns, comparison.group(1));
+
+            if (column == null)
+                continue;
+
+            String operator = comparison.group(2).toUpperCase(Locale.US);
+
+            if (operator.startsWith("=") || operator.equals("IN") || operator.equals("IS")) {
+                equalities.add(column);
+            } else if (range == null) {
+                range = column;
+            }
+        }
+
+        Set<String> indexColumns = new LinkedHashSet<>(equalities);
+
+        if (range != null) {
+            indexColumns.add(range);
+        } else if (addOrderBy) {
+            Matcher orderBy = ORDER_BY.matcher(sql);
+
+            if (orderBy.find()) {
+                for (String term : orderBy.group(1).split(",")) {
+                    String name = term.trim().split("\\s+")[0];
+                    name = name.substring(name.lastIndexOf('.') + 1).replace("`", "").replace("\"", "");
+                    String column = findColumn(columns, name);
+
+                    if (column == null)
+                        break;
+
+                    indexColumns.add(column);
+                }
+            }
+        }
+
+        if (indexColumns.isEmpty())
+            return null;
+
+        StringBuilder indexName = new StringBuilder(table);
+        StringBuilder columnList = new StringBuilder();
+
+        for (String column : indexColumns) {
+            indexName.append("_").append(column);
+            if (columnList.length() > 0) columnList.append(", ");
+            columnList.append("`").append(column).append("`");
+        }
+
+        return "CREATE INDEX `" + indexName + "` ON `" + table + "`(" + columnList + ");";
+    }
+
+    private static String findColumn(List<String> columns, String name) {
+        for (String column : columns) {
+            if (column.equalsIgnoreCase(name))
+                return column;
+        }
+        return null;
+    }
+
+    private List<String> getColumns(SQLiteDatabase db, String table) {
+        synchronized (this) {
+            List<String> columns = tableColumns.get(table);
+            if (columns != null)
+                return columns;
+        }
+
+        List<String> columns = new ArrayList<>();
+
+        try {
+            Cursor cursor = db.rawQuery("PRAGMA table_info(`" + table + "`)", null);
+
+            try {
+                int nameIndex = cursor.getColumnIndexOrThrow("name");
+
+                while (cursor.moveToNext()) {
+                    columns.add(cursor.getString(nameIndex));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException exc) {
+            return columns;
+        }
+
+        synchronized (this) {
+            tableColumns.put(table, columns);
+        }
+
+        return columns;
+    }
+
+    /**
+     * Gets the analyzed statements with the highest executions &times; cost.
+     * @param maxStatements maximum number of statements to get
+     * @return statements sorted by descending score
+     */
+    public List<QueryPlan> getWorstStatements(int maxStatements) {
+        List<QueryPlan> statements;
+
+        synchronized (this) {
+            statements = new ArrayList<>(plans.values());
+        }
+
+        Collections.sort(statements, BY_SCORE);
+
+        return statements.size() > maxStatements
+                ? new ArrayList<>(statements.subList(0, maxStatements)) : statements;
+    }
+
+    /**
+     * Gets a plain text report of the statements with the highest executions &times; cost,
+     * with their query plans and suggested indexes.
+     * @param maxStatements maximum number of statements in the report
+     * @return report
+     */
+    public String getReport(int maxStatements) {
+        StringBuilder report = new StringBuilder(1024);
+        int position = 1;
+
+        for (QueryPlan plan : getWorstStatements(maxStatements)) {
+            report.append("#").append(position++)
+                  .append(" score=").append(plan.getScore())
+                  .append(" executions=").append(plan.getExecutions())
+                  .append(" cost=").append(plan.getCost()).append("\n")
+                  .append("  ").append(plan.getStatement()).append("\n");
+
+            for (String detail : plan.getDetails()) {
+                report.append("    ").append(detail).append("\n");
+            }
+
+            for (String index : plan.getSuggestedIndexes()) {
+                report.append("  suggested: ").append(index).append("\n");
+            }
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * @return number of analyzed statements
+     */
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    /**
+     * Discards all the analyzed statements and their counters. Call it after a schema
+     * change, so the statements get analyzed again with the new indexes.
+     */
+    public synchronized void reset() {
+        plans.clear();
+        tableColumns.clear();
+    }
+}
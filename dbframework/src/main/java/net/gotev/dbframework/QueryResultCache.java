@@ -0,0 +1,284 @@
+package net.gotev.dbframework;
+
+import com.squareup.sqlbrite.BriteDatabase;
+import com.squareup.sqlbrite.SqlBrite;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import rx.Subscription;
+import rx.functions.Action1;
+
+/**
+ * In-memory LRU cache of query results, keyed by statement, arguments and row mapper instance.
+ * All the entries are invalidated synchronously when a transaction executed by the framework
+ * (e.g. with {@link TransactionBuilder} or {@link BulkImport}) is committed, so a query executed
+ * after a commit never gets older results. Writes made directly on the {@link BriteDatabase}
+ * invalidate the entries of their tables only when SQLBrite notifies the change, which is
+ * delivered asynchronously on the query scheduler: call {@link #invalidate(String)} after
+ * them when the following queries must see them.
+ *
+ * Enable it with {@link DatabaseConfig#setQueryCacheSize(int)}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class QueryResultCache {
+
+    static final int SINGLE = 0;
+    static final int LIST = 1;
+
+    /**
+     * Placeholder for cached queries which returned no value.
+     */
+    static final Object NO_VALUE = new Object();
+
+    private final int maxSize;
+    private final LinkedHashMap<Key, CachedResult> entries;
+    private final Map<String, Long> tableGenerations = new HashMap<>();
+    private final Map<String, Subscription> tableSubscriptions = new HashMap<>();
+
+    private long epoch;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    QueryResultCache(final int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("query cache size must be at least 1");
+
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Key, CachedResult>(maxSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                if (size() > QueryResultCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    static final class Key {
+        private final int kind;
+        private final Object mapper;
+        private final String statement;
+        private final String[] args;
+        private final int hashCode;
+
+        /**
+         * @param mapper row mapper, compared by identity, because mappers of the same class
+         *               may hold different state (e.g. the factory) and map different objects
+         */
+        Key(int kind, Object mapper, String statement, String[] args) {
+            this.kind = kind;
+            this.mapper = mapper;
+            this.statement = statement;
+            this.args = args == null ? new String[0] : args.clone();
+
+            int hash = kind;
+            hash = 31 * hash + System.identityHashCode(mapper);
+            hash = 31 * hash + statement.hashCode();
+            hash = 31 * hash + Arrays.hashCode(this.args);
+            this.hashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other)
+                return true;
+
+            if (!(other instanceof Key))
+                return false;
+
+            Key key = (Key) other;
+            return hashCode == key.hashCode && kind == key.kind
+                    && mapper == key.mapper
+                    && statement.equals(key.statement)
+                    && Arrays.equals(args, key.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class CachedResult {
+        private final Set<String> tables;
+        private final Object value;
+
+        CachedResult(Set<String> tables, Object value) {
+            this.tables = tables;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Gets a cached result.
+     * @param key cache key
+     * @return cached value, {@link #NO_VALUE} if the query returned nothing, null if not cached
+     */
+    synchronized Object get(Key key) {
+        CachedResult entry = entries.get(key);
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Starts listening for changes in the given tables, if not already listening, and gets
+     * their current change generation. To be called before executing the query whose result
+     * is going to be cached.
+     *
+     * @param db database used to listen for table changes
+     * @param tables tables involved in the query
+     * @return generation
+     */
+    synchronized long watch(BriteDatabase db, Set<String> tables) {
+        for (String table : tables) {
+            if (!tableSubscriptions.containsKey(table)) {
+                tableSubscriptions.put(table, watch(db, table));
+            }
+        }
+
+        return getGeneration(tables);
+    }
+
+    private long getGeneration(Set<String> tables) {
+        long generation = epoch;
+
+        for (String table : tables) {
+            Long tableGeneration = tableGenerations.get(table);
+            if (tableGeneration != null)
+                generation += tableGeneration;
+        }
+
+        return generation;
+    }
+
+    /**
+     * Caches a query result, unless one of its tables changed since the generation has been
+     * taken, which means the result may already be stale.
+     *
+     * @param key cache key
+     * @param tables tables involved in the query
+     * @param generation generation returned by {@link #watch(BriteDatabase, Set)} before the query
+     * @param value value to cache
+     */
+    synchronized void put(Key key, Set<String> tables, long generation, Object value) {
+        if (getGeneration(tables) == generation) {
+            entries.put(key, new CachedResult(tables, value));
+        }
+    }
+
+    private Subscription watch(BriteDatabase db, final String table) {
+        // the query is never run, it's used only to receive table change notifications
+        return db.createQuery(table, "SELECT 1")
+                .skip(1)
+                .subscribe(new Action1<SqlBrite.Query>() {
+                    @Override
+                    public void call(SqlBrite.Query query) {
+                        invalidate(table);
+                    }
+                });
+    }
+
+    /**
+     * Removes all the cached results involving the given table.
+     * @param table table name
+     */
+    public synchronized void invalidate(String table) {
+        Long generation = tableGenerations.get(table);
+        tableGenerations.put(table, generation == null ? 1 : generation + 1);
+
+        Iterator<CachedResult> iterator = entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().tables.contains(table)) {
+                iterator.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Removes all the cached results. Called right after each commit, before the write call
+     * returns, because SQLBrite delivers table change notifications asynchronously and a
+     * transaction may write any table, also through triggers and foreign key actions.
+     */
+    synchronized void invalidateAll() {
+        invalidations += entries.size();
+        entries.clear();
+
+        // results of queries started before the commit must not be cached
+        epoch++;
+    }
+
+    /**
+     * Removes all the cached results and stops listening for table changes.
+     */
+    synchronized void clear() {
+        for (Subscription subscription : tableSubscriptions.values()) {
+            subscription.unsubscribe();
+        }
+
+        tableSubscriptions.clear();
+        entries.clear();
+
+        // a cleared cache must not accept results of queries started before clearing
+        epoch++;
+    }
+
+    /**
+     * @return number of cached results
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of queries served from the cache
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return number of queries which had to be executed on the database
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return number of results removed because the cache was full
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return number of results removed because of a change in one of their tables
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryResultCache{size=" + entries.size() + ", maxSize=" + maxSize
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                + ", invalidations=" + invalidations + "}";
+    }
+}
@@ -0,0 +1,22 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of records read one at a time, used by {@link BulkImport}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public interface RecordSource extends Closeable {
+    /**
+     * Reads the next record.
+     * @param record values of the next record. It's cleared before each call and reused
+     *               for all the records, so implementations should not keep references to it
+     * @return true if a record has been read, false if there are no more records
+     * @throws IOException if the record can't be read
+     */
+    boolean next(ContentValues record) throws IOException;
+}
@@ -0,0 +1,258 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Factory methods for the most common {@link RecordSource}s.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public final class RecordSources {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private RecordSources() { }
+
+    /**
+     * Reads records from a JSON array of flat objects, like:
+     * [{"_id": 1, "name": "first"}, {"_id": 2, "name": "second"}]
+     * Integer numbers are read as longs, other numbers as doubles. Nested objects and arrays
+     * are not supported. The stream is closed when the source is closed.
+     *
+     * @param stream UTF-8 encoded JSON stream
+     * @return record source
+     */
+    public static RecordSource fromJsonArray(InputStream stream) {
+        return new JsonArraySource(new InputStreamReader(stream, UTF_8));
+    }
+
+    /**
+     * Reads records from CSV (RFC 4180), whose first line contains the column names.
+     * Values are read as strings and converted by SQLite according to the column affinity.
+     * Empty unquoted values are read as null, while "" is read as an empty string.
+     * The stream is closed when the source is closed.
+     *
+     * @param stream UTF-8 encoded CSV stream
+     * @return record source
+     */
+    public static RecordSource fromCsv(InputStream stream) {
+        return new CsvSource(new BufferedReader(new InputStreamReader(stream, UTF_8)));
+    }
+
+    /**
+     * Reads records from an iterator, for example one which lazily parses a payload.
+     *
+     * @param iterator iterator
+     * @return record source
+     */
+    public static RecordSource fromIterator(final Iterator<ContentValues> iterator) {
+        return new RecordSource() {
+            @Override
+            public boolean next(ContentValues record) {
+                if (!iterator.hasNext())
+                    return false;
+
+                record.putAll(iterator.next());
+                return true;
+            }
+
+            @Override
+            public void close() { }
+        };
+    }
+
+    private static final class JsonArraySource implements RecordSource {
+        private final JsonReader reader;
+        private boolean started;
+
+        JsonArraySource(Reader reader) {
+            this.reader = new JsonReader(reader);
+        }
+
+        @Override
+        public boolean next(ContentValues record) throws IOException {
+            if (!started) {
+                reader.beginArray();
+                started = true;
+            }
+
+            if (!reader.hasNext()) {
+                reader.endArray();
+                return false;
+            }
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                JsonToken token = reader.peek();
+
+                if (token == JsonToken.NULL) {
+                    reader.nextNull();
+                    record.putNull(name);
+
+                } else if (token == JsonToken.BOOLEAN) {
+                    record.put(name, reader.nextBoolean());
+
+                } else if (token == JsonToken.NUMBER) {
+                    putNumber(record, name, reader.nextString());
+
+                } else if (token == JsonToken.STRING) {
+                    record.put(name, reader.nextString());
+
+                } else {
+                    throw new IOException("Unsupported nested value for " + name);
+                }
+            }
+
+            reader.endObject();
+            return true;
+        }
+
+        private static void putNumber(ContentValues record, String name, String number) {
+            if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                try {
+                    record.put(name, Long.parseLong(number));
+                    return;
+                } catch (NumberFormatException ignored) {
+                    // too big for a long
+                }
+            }
+
+            record.put(name, Double.parseDouble(number));
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static final class CsvSource implements RecordSource {
+        private final Reader reader;
+        private final StringBuilder value = new StringBuilder();
+        private String[] header;
+        private int nextChar = -2;
+
+        CsvSource(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean next(ContentValues record) throws IOException {
+            if (header == null) {
+                List<String> columns = new ArrayList<>();
+                if (!readLine(columns, null))
+                    return false;
+                header = columns.toArray(new String[columns.size()]);
+            }
+
+            return readLine(null, record);
+        }
+
+        private int read() throws IOException {
+            if (nextChar != -2) {
+                int ch = nextChar;
+                nextChar = -2;
+                return ch;
+            }
+            return reader.read();
+        }
+
+        /**
+         * Reads a line, adding its values either to the list or to the record.
+         * @return false if the end of the stream has been reached
+         */
+        private boolean readLine(List<String> values, ContentValues record) throws IOException {
+            int ch = read();
+
+            // skip empty lines
+            while (ch == '\r' || ch == '\n') {
+                ch = read();
+            }
+
+            if (ch == -1)
+                return false;
+
+            int column = 0;
+
+            while (true) {
+                value.setLength(0);
+                boolean quoted = false;
+
+                if (ch == '"') {
+                    quoted = true;
+
+                    while (true) {
+                        ch = read();
+
+                        if (ch == -1)
+                            throw new IOException("Unterminated quoted value");
+
+                        if (ch == '"') {
+                            ch = read();
+                            if (ch != '"')
+                                break;
+                        }
+
+                        value.append((char) ch);
+                    }
+
+                } else {
+                    while (ch != ',' && ch != '\r' && ch != '\n' && ch != -1) {
+                        value.append((char) ch);
+                        ch = read();
+                    }
+                }
+
+                if (values != null) {
+                    values.add(value.toString());
+
+                } else if (column < header.length) {
+                    if (!quoted && value.length() == 0) {
+                        record.putNull(header[column]);
+                    } else {
+                        record.put(header[column], value.toString());
+                    }
+
+                } else {
+                    throw new IOException("Line has more values than the header");
+                }
+
+                column++;
+
+                if (ch == ',') {
+                    ch = read();
+                    continue;
+                }
+
+                if (ch == '\r') {
+                    int next = read();
+                    if (next != '\n')
+                        nextChar = next;
+                } else if (ch != '\n' && ch != -1) {
+                    throw new IOException("Unexpected character after quoted value: " + (char) ch);
+                }
+
+                return true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package net.gotev.dbframework;
+
+/**
+ * Callback which receives query results one row at a time.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public interface RowCallback<T> {
+    /**
+     * Called for each row of the result set.
+     * @param row mapped row
+     * @return true to continue with the next row, false to stop
+     */
+    boolean onRow(T row);
+}
@@ -0,0 +1,99 @@
+package net.gotev.dbframework;
+
+import android.database.Cursor;
+
+import com.squareup.sqldelight.RowMapper;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy iterator over the rows of a query, read through a single cursor, so only one cursor
+ * window of mapped rows at a time is kept in memory, regardless of the size of the result set.
+ *
+ * It bounds memory, not time: Android's SQLiteCursor counts all the rows of the query when
+ * it's accessed the first time, and every window refill re-executes the query, stepping again
+ * from the first row up to the requested position. Iterating n rows still costs O(n^2 / window
+ * size) steps, so prefer keyset pagination (see {@link KeysetPager}) for very large tables.
+ * Rows committed by other connections between two refills may be skipped or seen twice.
+ * To iterate on a consistent snapshot, iterate inside a transaction.
+ *
+ * The iterator holds a database lease and an open cursor, which are released automatically
+ * when all the rows have been consumed. If you stop iterating before, you have to call
+ * {@link #close()}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class RowIterator<T> implements Iterator<T>, Closeable {
+
+    private final RowMapper<T> mapper;
+
+    private DatabaseLease lease;
+    private Cursor cursor;
+    private boolean hasNext;
+
+    RowIterator(DatabaseLease lease, Cursor cursor, RowMapper<T> mapper) {
+        this.lease = lease;
+        this.cursor = cursor;
+        this.mapper = mapper;
+
+        try {
+            hasNext = advance();
+        } catch (RuntimeException exc) {
+            close();
+            throw exc;
+        }
+    }
+
+    private boolean advance() {
+        if (cursor != null && cursor.moveToNext())
+            return true;
+
+        close();
+        return false;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext)
+            throw new NoSuchElementException();
+
+        try {
+            T row = mapper.map(cursor);
+            hasNext = advance();
+            return row;
+        } catch (RuntimeException exc) {
+            close();
+            throw exc;
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("rows can't be removed through the iterator");
+    }
+
+    /**
+     * Releases the cursor and the database lease. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        hasNext = false;
+
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+        }
+
+        if (lease != null) {
+            lease.close();
+            lease = null;
+        }
+    }
+}
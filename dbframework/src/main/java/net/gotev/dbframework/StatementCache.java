@@ -0,0 +1,430 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.squareup.sqlbrite.BriteDatabase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LRU cache of compiled statements, bound to the currently open database connection.
+ * Statements are keyed by their SQL. For the statements generated by the framework, the SQL
+ * and the sorted columns are cached too, keyed by table and column set, so saving a record
+ * costs a lookup of its column set, instead of sorting the columns and building the SQL.
+ *
+ * A statement obtained with {@link #acquire(BriteDatabase, String)} is exclusively owned by the
+ * caller until it gets handed back with {@link #release(String, SQLiteStatement)}, so it's safe
+ * to bind arguments to it without further synchronization. All the cached statements are
+ * released when the database gets closed.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class StatementCache {
+
+    public static final int DEFAULT_SIZE = 32;
+
+    private static final int INSERT = 0;
+    private static final int UPDATE = 1;
+
+    private final int maxSize;
+    private final LinkedHashMap<String, SQLiteStatement> statements;
+    private final LinkedHashMap<LayoutKey, Layout> layouts;
+    private SQLiteDatabase compiledOn;
+
+    /**
+     * SQL and sorted columns of a generated statement.
+     */
+    private static final class Layout {
+        private final String sql;
+        private final String[] columns;
+
+        Layout(String sql, String[] columns) {
+            this.sql = sql;
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * Kind of a generated statement, with its table and the column set of the record.
+     */
+    private static final class LayoutKey {
+        private final int kind;
+        private final String conflictClause;
+        private final String tableName;
+        private final String excludedColumn;
+        private final Set<String> columns;
+        private final int hashCode;
+
+        LayoutKey(int kind, String conflictClause, String tableName, String excludedColumn,
+                  Set<String> columns) {
+            this.kind = kind;
+            this.conflictClause = conflictClause;
+            this.tableName = tableName;
+            this.excludedColumn = excludedColumn;
+            this.columns = columns;
+
+            int hash = kind;
+            hash = 31 * hash + (conflictClause == null ? 0 : conflictClause.hashCode());
+            hash = 31 * hash + tableName.hashCode();
+            hash = 31 * hash + (excludedColumn == null ? 0 : excludedColumn.hashCode());
+            hash = 31 * hash + columns.hashCode();
+            this.hashCode = hash;
+        }
+
+        /**
+         * @return key with its own copy of the column set, to be stored in the cache
+         */
+        LayoutKey copy() {
+            return new LayoutKey(kind, conflictClause, tableName, excludedColumn,
+                    new HashSet<>(columns));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other)
+                return true;
+
+            if (!(other instanceof LayoutKey))
+                return false;
+
+            LayoutKey key = (LayoutKey) other;
+            return hashCode == key.hashCode && kind == key.kind
+                    && equal(conflictClause, key.conflictClause)
+                    && tableName.equals(key.tableName)
+                    && equal(excludedColumn, key.excludedColumn)
+                    && columns.equals(key.columns);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        private static boolean equal(String first, String second) {
+            return first == null ? second == null : first.equals(second);
+        }
+    }
+
+    StatementCache(final int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("statement cache size must be at least 1");
+
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<String, SQLiteStatement>(maxSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.layouts = new LinkedHashMap<LayoutKey, Layout>(maxSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LayoutKey, Layout> eldest) {
+                return size() > StatementCache.this.maxSize;
+            }
+        };
+    }
+
+    private Layout getLayout(int kind, String conflictClause, String tableName,
+                             ContentValues record, String excludedColumn) {
+        LayoutKey key = new LayoutKey(kind, conflictClause, tableName, excludedColumn, record.keySet());
+
+        synchronized (layouts) {
+            Layout layout = layouts.get(key);
+            if (layout != null)
+                return layout;
+        }
+
+        String[] columns = getColumns(record, excludedColumn);
+
+        if (kind == UPDATE && columns.length == 0)
+            throw new IllegalArgumentException("Empty values");
+
+        String sql = kind == INSERT
+                ? getInsertSql(conflictClause, tableName, columns)
+                : getUpdateSql(tableName, columns, excludedColumn);
+        Layout layout = new Layout(sql, columns);
+
+        synchronized (layouts) {
+            layouts.put(key.copy(), layout);
+        }
+
+        return layout;
+    }
+
+    /**
+     * Gets a compiled statement for the given SQL, compiling it if it's not in the cache.
+     * The returned statement has no bound arguments.
+     * Remember to hand it back with {@link #release(String, SQLiteStatement)} when you're done.
+     *
+     * @param db database on which to compile the statement
+     * @param sql SQL statement
+     * @return compiled statement
+     */
+    public SQLiteStatement acquire(BriteDatabase db, String sql) {
+        SQLiteDatabase database = db.getWritableDatabase();
+
+        synchronized (statements) {
+            if (compiledOn != database) {
+                closeAll();
+                compiledOn = database;
+            }
+
+            SQLiteStatement statement = statements.remove(sql);
+
+            if (statement != null)
+                return statement;
+        }
+
+        return database.compileStatement(sql);
+    }
+
+    /**
+     * Hands back a statement previously obtained with {@link #acquire(BriteDatabase, String)},
+     * so it can be reused.
+     *
+     * @param sql SQL statement used to acquire the compiled statement
+     * @param statement compiled statement
+     */
+    public void release(String sql, SQLiteStatement statement) {
+        statement.clearBindings();
+
+        synchronized (statements) {
+            if (compiledOn != null && !statements.containsKey(sql)) {
+                statements.put(sql, statement);
+                return;
+            }
+        }
+
+        // another thread already handed back an equivalent statement or the cache has been cleared
+        statement.close();
+    }
+
+    /**
+     * Closes all the cached statements.
+     */
+    void clear() {
+        synchronized (statements) {
+            closeAll();
+            compiledOn = null;
+        }
+    }
+
+    private void closeAll() {
+        Iterator<SQLiteStatement> iterator = statements.values().iterator();
+
+        while (iterator.hasNext()) {
+            iterator.next().close();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Binds a value to a compiled statement, using the appropriate SQLite type.
+     *
+     * @param statement compiled statement
+     * @param index 1-based index of the argument to bind
+     * @param value value to bind. Can be null
+     */
+    public static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+
+        } else if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            statement.bindLong(index, ((Number) value).longValue());
+
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * Gets the sorted column names of a record, optionally excluding one of them.
+     * Sorting makes records with the same column set produce the same SQL.
+     *
+     * @param record record
+     * @param excludedColumn column to exclude, or null
+     * @return sorted column names
+     */
+    static String[] getColumns(ContentValues record, String excludedColumn) {
+        int size = record.size();
+        if (excludedColumn != null && record.containsKey(excludedColumn))
+            size--;
+
+        String[] columns = new String[size];
+        int index = 0;
+
+        for (String column : record.keySet()) {
+            if (!column.equals(excludedColumn)) {
+                columns[index++] = column;
+            }
+        }
+
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    static String getInsertSql(String conflictClause, String tableName, String[] columns) {
+        StringBuilder sql = new StringBuilder(64 + columns.length * 16);
+
+        sql.append("INSERT");
+        if (conflictClause != null)
+            sql.append(" OR ").append(conflictClause);
+        sql.append(" INTO ").append(tableName).append(" (");
+
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0)
+                sql.append(',');
+            sql.append(columns[i]);
+        }
+
+        sql.append(") VALUES (");
+
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+
+        return sql.append(')').toString();
+    }
+
+    /**
+     * Gets the SQL to insert multiple rows with a single statement, optionally updating
+     * the rows which already exist (requires SQLite 3.24.0).
+     *
+     * @param tableName table name
+     * @param columns columns of the rows
+     * @param rows number of rows
+     * @param upsertKey if not null, rows conflicting on this column are updated with the new values
+     * @return SQL statement
+     */
+    static String getInsertRowsSql(String tableName, String[] columns, int rows, String upsertKey) {
+        StringBuilder sql = new StringBuilder(64 + columns.length * 16 + rows * (columns.length * 2 + 3));
+
+        sql.append("INSERT INTO ").append(tableName).append(" (");
+
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0)
+                sql.append(',');
+            sql.append(columns[i]);
+        }
+
+        sql.append(") VALUES ");
+
+        for (int row = 0; row < rows; row++) {
+            sql.append(row > 0 ? ",(" : "(");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ",?" : "?");
+            }
+            sql.append(')');
+        }
+
+        if (upsertKey != null) {
+            sql.append(" ON CONFLICT(").append(upsertKey).append(") DO ");
+
+            boolean first = true;
+
+            for (String column : columns) {
+                if (column.equals(upsertKey))
+                    continue;
+
+                sql.append(first ? "UPDATE SET " : ",")
+                   .append(column).append("=excluded.").append(column);
+                first = false;
+            }
+
+            if (first)
+                sql.append("NOTHING");
+        }
+
+        return sql.toString();
+    }
+
+    static String getUpdateSql(String tableName, String[] columns, String primaryKeyName) {
+        StringBuilder sql = new StringBuilder(64 + columns.length * 16);
+
+        sql.append("UPDATE ").append(tableName).append(" SET ");
+
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0)
+                sql.append(',');
+            sql.append(columns[i]).append("=?");
+        }
+
+        return sql.append(" WHERE ").append(primaryKeyName).append(" = ?").toString();
+    }
+
+    /**
+     * Inserts a record using a cached compiled statement.
+     *
+     * @param db database
+     * @param conflictClause SQLite conflict clause (e.g. REPLACE), or null
+     * @param tableName table name
+     * @param record record to insert
+     * @param excludedColumn column of the record which must not be inserted, or null
+     * @return row ID of the inserted record
+     */
+    long insert(BriteDatabase db, String conflictClause, String tableName,
+                ContentValues record, String excludedColumn) {
+        Layout layout = getLayout(INSERT, conflictClause, tableName, record, excludedColumn);
+        String[] columns = layout.columns;
+        String sql = layout.sql;
+        SQLiteStatement statement = acquire(db, sql);
+
+        try {
+            for (int i = 0; i < columns.length; i++) {
+                bind(statement, i + 1, record.get(columns[i]));
+            }
+            return db.executeInsert(tableName, statement);
+        } finally {
+            release(sql, statement);
+        }
+    }
+
+    /**
+     * Updates the record having the given primary key, using a cached compiled statement.
+     *
+     * @param db database
+     * @param tableName table name
+     * @param record values to update. The primary key column, if present, is not updated
+     * @param primaryKeyName name of the primary key column
+     * @param id primary key of the record to update
+     * @return number of modified rows
+     */
+    int update(BriteDatabase db, String tableName, ContentValues record,
+               String primaryKeyName, long id) {
+        Layout layout = getLayout(UPDATE, null, tableName, record, primaryKeyName);
+        String[] columns = layout.columns;
+        String sql = layout.sql;
+        SQLiteStatement statement = acquire(db, sql);
+
+        try {
+            for (int i = 0; i < columns.length; i++) {
+                bind(statement, i + 1, record.get(columns[i]));
+            }
+            statement.bindLong(columns.length + 1, id);
+            return db.executeUpdateDelete(tableName, statement);
+        } finally {
+            release(sql, statement);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package net.gotev.dbframework;
+
+/**
+ * Counts of the rows written by
+ * {@link DatabaseManager#syncTableWithList(String, String, java.util.List, SyncResult)}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class SyncResult {
+
+    private int inserted;
+    private int updated;
+    private int unchanged;
+    private int deleted;
+
+    void reset() {
+        inserted = 0;
+        updated = 0;
+        unchanged = 0;
+        deleted = 0;
+    }
+
+    void set(int inserted, int updated, int unchanged, int deleted) {
+        this.inserted = inserted;
+        this.updated = updated;
+        this.unchanged = unchanged;
+        this.deleted = deleted;
+    }
+
+    /**
+     * @return number of inserted rows
+     */
+    public int getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return number of rows updated because they changed
+     */
+    public int getUpdated() {
+        return updated;
+    }
+
+    /**
+     * @return number of rows which were already up to date and have not been written
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return number of deleted rows
+     */
+    public int getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return true if the sync wrote something in the table
+     */
+    public boolean hasChanges() {
+        return inserted > 0 || updated > 0 || deleted > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncResult{inserted=" + inserted + ", updated=" + updated
+                + ", unchanged=" + unchanged + ", deleted=" + deleted + "}";
+    }
+}
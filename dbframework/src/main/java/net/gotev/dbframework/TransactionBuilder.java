@@ -4,8 +4,11 @@ import com.squareup.sqlbrite.BriteDatabase;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import static net.gotev.dbframework.DatabaseManager.logMessage;
+import rx.Completable;
+
+import net.gotev.dbframework.DatabaseManager.LogLevel;
 
 /**
  * Helper class to build complex transactions and execute them.
@@ -14,18 +17,50 @@ import static net.gotev.dbframework.DatabaseManager.logMessage;
  */
 public class TransactionBuilder {
 
+    /**
+     * Receives the progress of a chunked transaction.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after each committed chunk.
+         * @param committedStatements number of committed statements
+         * @param totalStatements total number of statements in the transaction
+         */
+        void onProgress(int committedStatements, int totalStatements);
+    }
+
     private List<TransactionStatement> mStatements;
 
     private String mTransactionName;
 
+    private DatabaseManager mManager;
+
     private TransactionBuilder() { }
 
+    /**
+     * Creates a transaction to execute on the default database instance.
+     * @param transactionName transaction name
+     */
     public TransactionBuilder(String transactionName) {
+        this(null, transactionName);
+    }
+
+    /**
+     * Creates a transaction to execute on the given database instance.
+     * @param manager database instance, or null to use the default one
+     * @param transactionName transaction name
+     */
+    public TransactionBuilder(DatabaseManager manager, String transactionName) {
         if (transactionName == null || transactionName.isEmpty())
             throw new IllegalArgumentException("You must give a name to the transaction!");
 
         mStatements = new ArrayList<>();
         mTransactionName = transactionName;
+        mManager = manager;
+    }
+
+    private DatabaseManager getManager() {
+        return mManager == null ? DatabaseManager.getInstance() : mManager;
     }
 
     public TransactionBuilder add(TransactionStatement statement) {
@@ -33,23 +68,167 @@ public class TransactionBuilder {
         return this;
     }
 
+    /**
+     * Executes the transaction on the calling thread, blocking until it's committed.
+     * @throws Throwable if one of the statements fails. In this case the transaction is rolled back
+     */
     public void execute() throws Throwable {
-        logMessage("Executing transaction: " + mTransactionName);
+        DatabaseManager manager = getManager();
+        manager.logMessage(LogLevel.DEBUG, "Executing transaction: %s", mTransactionName);
 
-        BriteDatabase db = DatabaseManager.getInstance().openDatabase();
-        BriteDatabase.Transaction transaction = db.newTransaction();
+        DatabaseMetrics metrics = manager.getMetrics();
+        long startTime = metrics == null ? 0 : System.nanoTime();
+        boolean successful = false;
+
+        DatabaseLease lease = manager.acquireDatabase();
 
         try {
-            for (TransactionStatement stmt : mStatements) {
-                stmt.onStatement(db);
+            BriteDatabase db = lease.getDatabase();
+            BriteDatabase.Transaction transaction = db.newTransaction();
+
+            try {
+                for (TransactionStatement stmt : mStatements) {
+                    stmt.onStatement(db);
+                }
+
+                transaction.markSuccessful();
+
+            } finally {
+                transaction.end();
             }
 
-            transaction.markSuccessful();
-            logMessage("Successful transaction: " + mTransactionName);
+            manager.onCommit();
+            successful = true;
+            manager.logMessage(LogLevel.DEBUG, "Successful transaction: %s", mTransactionName);
 
         } finally {
-            transaction.end();
+            lease.close();
+
+            if (metrics != null) {
+                metrics.onTransaction(mTransactionName, System.nanoTime() - startTime,
+                        mStatements.size(), successful);
+            }
         }
     }
 
+    /**
+     * Executes the transaction on the calling thread in chunks, committing every
+     * maxStatements statements or every maxMillis milliseconds, whichever comes first.
+     * Between chunks the write lock is released, so other readers and writers can proceed
+     * and the journal doesn't grow indefinitely during big imports. Table change
+     * notifications are sent for every committed chunk.
+     *
+     * If a statement fails, its chunk is rolled back and a {@link ChunkedTransactionException}
+     * is thrown, which tells how many statements have been committed, so the execution can be
+     * resumed from there once the cause of the failure has been fixed.
+     *
+     * @param maxStatements maximum number of statements in a chunk
+     * @param maxMillis maximum duration of a chunk in milliseconds. A chunk always executes at
+     *                  least one statement
+     * @param fromStatement index of the statement from which to start. 0 to execute the whole
+     *                      transaction
+     * @param listener listener which receives the progress after each chunk. Can be null
+     * @throws ChunkedTransactionException if one of the statements fails
+     */
+    public void executeChunked(int maxStatements, long maxMillis, int fromStatement,
+                               ProgressListener listener) throws ChunkedTransactionException {
+        if (maxStatements < 1)
+            throw new IllegalArgumentException("maxStatements must be at least 1");
+
+        if (maxMillis < 1)
+            throw new IllegalArgumentException("maxMillis must be at least 1");
+
+        if (fromStatement < 0 || fromStatement > mStatements.size())
+            throw new IllegalArgumentException("fromStatement must be between 0 and " + mStatements.size());
+
+        DatabaseManager manager = getManager();
+        manager.logMessage(LogLevel.DEBUG, "Executing chunked transaction: %s", mTransactionName);
+
+        final int total = mStatements.size();
+        final long maxChunkNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+        int index = fromStatement;
+
+        DatabaseMetrics metrics = manager.getMetrics();
+        long startTime = metrics == null ? 0 : System.nanoTime();
+        boolean successful = false;
+
+        DatabaseLease lease = manager.acquireDatabase();
+
+        try {
+            BriteDatabase db = lease.getDatabase();
+
+            while (index < total) {
+                final int chunkStart = index;
+                final long chunkStartTime = System.nanoTime();
+                BriteDatabase.Transaction transaction = db.newTransaction();
+
+                try {
+                    do {
+                        mStatements.get(index).onStatement(db);
+                        index++;
+                    } while (index < total && index - chunkStart < maxStatements
+                            && System.nanoTime() - chunkStartTime < maxChunkNanos);
+
+                    transaction.markSuccessful();
+
+                } catch (Throwable exc) {
+                    try {
+                        transaction.end();
+                    } catch (Throwable ignored) { }
+
+                    throw new ChunkedTransactionException(mTransactionName, chunkStart, exc);
+                }
+
+                try {
+                    transaction.end();
+                } catch (RuntimeException exc) {
+                    // commit failed
+                    throw new ChunkedTransactionException(mTransactionName, chunkStart, exc);
+                }
+
+                manager.onCommit();
+                manager.logMessage(LogLevel.DEBUG, "Committed %d/%d statements of transaction: %s",
+                        index, total, mTransactionName);
+
+                if (listener != null)
+                    listener.onProgress(index, total);
+
+                // let threads waiting for the lock go before starting the next chunk
+                Thread.yield();
+            }
+
+            successful = true;
+            manager.logMessage(LogLevel.DEBUG, "Successful transaction: %s", mTransactionName);
+
+        } finally {
+            lease.close();
+
+            if (metrics != null) {
+                metrics.onTransaction(mTransactionName, System.nanoTime() - startTime,
+                        index - fromStatement, successful);
+            }
+        }
+    }
+
+    /**
+     * Enqueues the transaction to be executed on the database writer thread and returns
+     * immediately. Statements added to the builder after this call are not part of the
+     * enqueued transaction.
+     *
+     * @return completable which completes when the transaction is committed, or errors
+     * if it fails and it's rolled back, or with {@link IllegalStateException} if the database
+     * has been deinitialized
+     */
+    public Completable executeAsync() {
+        TransactionWriter writer;
+
+        try {
+            writer = getManager().getTransactionWriter();
+        } catch (IllegalStateException exc) {
+            return Completable.error(exc);
+        }
+
+        return writer.submit(mTransactionName, mStatements);
+    }
+
 }
@@ -0,0 +1,236 @@
+package net.gotev.dbframework;
+
+import com.squareup.sqlbrite.BriteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import rx.Completable;
+import rx.subjects.AsyncSubject;
+
+import net.gotev.dbframework.DatabaseManager.LogLevel;
+
+/**
+ * Executes transactions submitted with {@link TransactionBuilder#executeAsync()} on a single
+ * dedicated writer thread, so concurrent writers don't contend for the SQLite write lock.
+ *
+ * When group commit is enabled (see {@link DatabaseConfig#setGroupCommit(int)}), the pending
+ * transactions are executed together in a single physical transaction, paying a single
+ * commit. Each of them runs in its own savepoint: if one fails, only its changes are rolled
+ * back and the others are committed. Statements are never executed twice, as they may not be
+ * repeatable (e.g. a {@link BulkImport} consumes its source). If the commit fails, all the
+ * transactions of the group fail.
+ *
+ * Statements must not open nested transactions: SQLite on Android rolls back the whole
+ * group without errors when a nested transaction fails.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+final class TransactionWriter implements Runnable {
+
+    private static final String SAVEPOINT = "group_member";
+
+    private static final class Pending {
+        private final String name;
+        private final List<TransactionStatement> statements;
+        private final AsyncSubject<Object> result = AsyncSubject.create();
+
+        Pending(String name, List<TransactionStatement> statements) {
+            this.name = name;
+            this.statements = statements;
+        }
+    }
+
+    private final DatabaseManager manager;
+    private final int maxGroupSize;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private final Object lock = new Object();
+    private boolean running = true;
+
+    TransactionWriter(DatabaseManager manager, int maxGroupSize) {
+        this.manager = manager;
+        this.maxGroupSize = maxGroupSize;
+        this.thread = new Thread(this, "DatabaseWriter-" + manager.getName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    Completable submit(String name, List<TransactionStatement> statements) {
+        Pending pending = new Pending(name, new ArrayList<>(statements));
+        boolean accepted;
+
+        // shared with shutdown and the final drain, so nothing is enqueued after the drain
+        synchronized (lock) {
+            accepted = running;
+            if (accepted)
+                queue.add(pending);
+        }
+
+        if (!accepted)
+            pending.result.onError(new IllegalStateException("database writer has been shut down"));
+
+        return pending.result.toCompletable();
+    }
+
+    /**
+     * Stops accepting transactions and waits for the transactions being executed to finish.
+     * The ones still in the queue fail.
+     */
+    void shutdown() {
+        synchronized (lock) {
+            running = false;
+        }
+
+        thread.interrupt();
+
+        // the writer thread can't wait for itself, e.g. if a statement deinits the database
+        if (Thread.currentThread() == thread)
+            return;
+
+        try {
+            thread.join();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Pending> group = new ArrayList<>(maxGroupSize);
+
+        while (isRunning()) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException exc) {
+                break;
+            }
+
+            if (maxGroupSize > 1) {
+                queue.drainTo(group, maxGroupSize - 1);
+            }
+
+            execute(group);
+            group.clear();
+        }
+
+        List<Pending> rejected = new ArrayList<>();
+
+        synchronized (lock) {
+            running = false;
+            queue.drainTo(rejected);
+        }
+
+        Throwable shutdown = new IllegalStateException("database writer has been shut down");
+        for (Pending pending : rejected) {
+            pending.result.onError(shutdown);
+        }
+    }
+
+    private void execute(List<Pending> group) {
+        String name = group.size() == 1 ? group.get(0).name : "group of " + group.size() + " transactions";
+        Pending[] transactions = group.toArray(new Pending[group.size()]);
+        Throwable[] errors;
+
+        try {
+            errors = execute(name, transactions);
+        } catch (Throwable exc) {
+            for (Pending pending : transactions) {
+                pending.result.onError(exc);
+            }
+            return;
+        }
+
+        for (int i = 0; i < transactions.length; i++) {
+            if (errors[i] == null) {
+                transactions[i].result.onCompleted();
+            } else {
+                transactions[i].result.onError(errors[i]);
+            }
+        }
+    }
+
+    /**
+     * Executes the transactions in a single physical transaction.
+     * @return error of each transaction which has been rolled back to its savepoint, or null
+     * @throws Throwable if the physical transaction fails and nothing has been committed
+     */
+    private Throwable[] execute(String name, Pending... transactions) throws Throwable {
+        manager.logMessage(LogLevel.DEBUG, "Executing transaction: %s", name);
+
+        DatabaseMetrics metrics = manager.getMetrics();
+        long startTime = metrics == null ? 0 : System.nanoTime();
+        boolean successful = false;
+        int statements = 0;
+        Throwable[] errors = new Throwable[transactions.length];
+
+        DatabaseLease lease = manager.acquireDatabase();
+
+        try {
+            BriteDatabase db = lease.getDatabase();
+            BriteDatabase.Transaction transaction = db.newTransaction();
+
+            try {
+                if (transactions.length == 1) {
+                    for (TransactionStatement stmt : transactions[0].statements) {
+                        stmt.onStatement(db);
+                        statements++;
+                    }
+                } else {
+                    for (int i = 0; i < transactions.length; i++) {
+                        errors[i] = executeInSavepoint(db, transactions[i]);
+                        if (errors[i] == null)
+                            statements += transactions[i].statements.size();
+                    }
+                }
+
+                transaction.markSuccessful();
+
+            } finally {
+                transaction.end();
+            }
+
+            manager.onCommit();
+            successful = true;
+            manager.logMessage(LogLevel.DEBUG, "Successful transaction: %s", name);
+
+        } finally {
+            lease.close();
+
+            if (metrics != null) {
+                metrics.onTransaction(name, System.nanoTime() - startTime, statements, successful);
+            }
+        }
+
+        return errors;
+    }
+
+    private Throwable executeInSavepoint(BriteDatabase db, Pending pending) {
+        db.execute("SAVEPOINT " + SAVEPOINT);
+
+        try {
+            for (TransactionStatement stmt : pending.statements) {
+                stmt.onStatement(db);
+            }
+        } catch (Throwable exc) {
+            manager.logMessage(LogLevel.DEBUG, "Failed transaction: %s, rolling back its changes", pending.name);
+
+            // the leading semicolon keeps Android versions older than 9 from taking the
+            // statement for a rollback of the whole transaction
+            db.execute(";ROLLBACK TO " + SAVEPOINT);
+            db.execute("RELEASE " + SAVEPOINT);
+            return exc;
+        }
+
+        db.execute("RELEASE " + SAVEPOINT);
+        return null;
+    }
+}
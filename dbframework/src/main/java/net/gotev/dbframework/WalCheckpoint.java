@@ -0,0 +1,74 @@
+package net.gotev.dbframework;
+
+/**
+ * Result of a write-ahead log checkpoint.
+ *
+ * https://sqlite.org/pragma.html#pragma_wal_checkpoint
+ *
+ * @author gotev (alex@gotev.net)
+ */
+public class WalCheckpoint {
+
+    public enum Mode {
+        /**
+         * Checkpoint as many frames as possible without waiting for readers or writers.
+         */
+        PASSIVE,
+
+        /**
+         * Block new writers and wait for the current writer and readers to finish,
+         * then checkpoint all the frames.
+         */
+        FULL,
+
+        /**
+         * Like {@link #FULL}, then also wait for readers so that the next writer restarts
+         * the log from the beginning.
+         */
+        RESTART,
+
+        /**
+         * Like {@link #RESTART}, then also truncate the log file to zero bytes.
+         * Requires SQLite 3.8.8 or later (Android 7.0+).
+         */
+        TRUNCATE
+    }
+
+    private final boolean busy;
+    private final int logFrames;
+    private final int checkpointedFrames;
+
+    WalCheckpoint(boolean busy, int logFrames, int checkpointedFrames) {
+        this.busy = busy;
+        this.logFrames = logFrames;
+        this.checkpointedFrames = checkpointedFrames;
+    }
+
+    /**
+     * @return true if the checkpoint could not complete because it was blocked
+     */
+    public boolean isBusy() {
+        return busy;
+    }
+
+    /**
+     * @return number of frames in the write-ahead log, or -1 if the database is not in WAL mode
+     */
+    public int getLogFrames() {
+        return logFrames;
+    }
+
+    /**
+     * @return number of frames written back into the database, or -1 if the database
+     * is not in WAL mode
+     */
+    public int getCheckpointedFrames() {
+        return checkpointedFrames;
+    }
+
+    @Override
+    public String toString() {
+        return "WalCheckpoint{busy=" + busy + ", logFrames=" + logFrames
+                + ", checkpointedFrames=" + checkpointedFrames + "}";
+    }
+}
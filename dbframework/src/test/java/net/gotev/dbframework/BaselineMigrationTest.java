@@ -0,0 +1,161 @@
+package net.gotev.dbframework;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import com.squareup.sqldelight.RowMapper;
+import com.squareup.sqldelight.SqlDelightStatement;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the creation of fresh databases from the schema of a {@link BaselineMigration}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class BaselineMigrationTest {
+
+    private static final String TABLE = "person";
+
+    private static final SqlDelightStatement SELECT_ALL = new SqlDelightStatement(
+            "SELECT * FROM " + TABLE + " ORDER BY id", new String[0], Collections.singleton(TABLE));
+
+    private static final RowMapper<String> ROW_MAPPER = new RowMapper<String>() {
+        @Override
+        public String map(@NonNull Cursor cursor) {
+            return cursor.getLong(0) + "|" + cursor.getString(1) + "|" + cursor.getString(2);
+        }
+    };
+
+    private final List<String> applied = new ArrayList<>();
+
+    private final DatabaseMigration createTable = new DatabaseMigration() {
+        @Override
+        public void up(SQLiteDatabase db) {
+            applied.add("createTable");
+            db.execSQL("CREATE TABLE " + TABLE + " (id INTEGER NOT NULL PRIMARY KEY, name TEXT)");
+        }
+
+        @Override
+        public void down(SQLiteDatabase db) {
+            db.execSQL(DatabaseManager.getDropTableSql(TABLE));
+        }
+    };
+
+    private final DatabaseMigration addEmail = new BaselineMigration() {
+        @Override
+        public void up(SQLiteDatabase db) {
+            applied.add("addEmail");
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN email TEXT");
+        }
+
+        @Override
+        public void down(SQLiteDatabase db) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void createBaseline(SQLiteDatabase db) {
+            applied.add("baseline");
+            db.execSQL("CREATE TABLE " + TABLE + " (id INTEGER NOT NULL PRIMARY KEY, name TEXT, email TEXT)");
+        }
+    };
+
+    private final DatabaseMigration addRow = new DatabaseMigration() {
+        @Override
+        public void up(SQLiteDatabase db) {
+            applied.add("addRow");
+            db.execSQL("INSERT INTO " + TABLE + " VALUES (1, 'alex', 'alex@example.com')");
+        }
+
+        @Override
+        public void down(SQLiteDatabase db) {
+            db.execSQL("DELETE FROM " + TABLE);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private DatabaseManager init(DatabaseMigration... migrations) {
+        return TestDatabase.init(new DatabaseConfig("baseline.db", migrations));
+    }
+
+    private static int getVersion(DatabaseManager manager) {
+        DatabaseLease lease = manager.acquireDatabase();
+
+        try {
+            return lease.getDatabase().getReadableDatabase().getVersion();
+        } finally {
+            lease.close();
+        }
+    }
+
+    @Test
+    public void freshDatabaseStartsFromTheBaseline() {
+        DatabaseManager manager = init(createTable, addEmail, addRow);
+
+        assertEquals(Collections.singletonList("1|alex|alex@example.com"),
+                manager.executeListQuery(SELECT_ALL, ROW_MAPPER));
+        assertEquals(Arrays.asList("baseline", "addRow"), applied);
+        assertEquals(3, getVersion(manager));
+    }
+
+    @Test
+    public void existingDatabaseIsUpgradedWithTheMigrations() {
+        DatabaseManager manager = init(createTable);
+        assertEquals(1, getVersion(manager));
+        DatabaseManager.deinit();
+
+        manager = init(createTable, addEmail, addRow);
+
+        assertEquals(Collections.singletonList("1|alex|alex@example.com"),
+                manager.executeListQuery(SELECT_ALL, ROW_MAPPER));
+        assertEquals(Arrays.asList("createTable", "addEmail", "addRow"), applied);
+        assertEquals(3, getVersion(manager));
+    }
+
+    @Test
+    public void usesTheLastBaseline() {
+        DatabaseMigration laterBaseline = new BaselineMigration() {
+            @Override
+            public void up(SQLiteDatabase db) {
+                addRow.up(db);
+            }
+
+            @Override
+            public void down(SQLiteDatabase db) {
+                addRow.down(db);
+            }
+
+            @Override
+            public void createBaseline(SQLiteDatabase db) {
+                applied.add("later baseline");
+                db.execSQL("CREATE TABLE " + TABLE + " (id INTEGER NOT NULL PRIMARY KEY, name TEXT, email TEXT)");
+                db.execSQL("INSERT INTO " + TABLE + " VALUES (1, 'alex', 'alex@example.com')");
+            }
+        };
+
+        DatabaseManager manager = init(createTable, addEmail, laterBaseline);
+
+        assertEquals(Collections.singletonList("1|alex|alex@example.com"),
+                manager.executeListQuery(SELECT_ALL, ROW_MAPPER));
+        assertEquals(Collections.singletonList("later baseline"), applied);
+    }
+}
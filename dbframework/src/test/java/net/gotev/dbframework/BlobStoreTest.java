@@ -0,0 +1,184 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class BlobStoreTest {
+
+    private static final long TWO_HOURS_AGO = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+
+    private BlobStore blobs;
+
+    @Before
+    public void setUp() {
+        TestDatabase.init();
+        blobs = new BlobStore(RuntimeEnvironment.application)
+                .addReferenceColumn(TestDatabase.TABLE, TestDatabase.NAME);
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private static byte[] read(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static int countFiles(File directory) {
+        int count = 0;
+
+        for (File file : directory.listFiles()) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+
+        return count;
+    }
+
+    private static void reference(long id, String key) throws Throwable {
+        ContentValues record = new ContentValues();
+        record.put(TestDatabase.ID, id);
+        record.put(TestDatabase.NAME, key);
+
+        new TransactionBuilder("reference")
+                .add(DatabaseManager.save(TestDatabase.TABLE, TestDatabase.ID, record, false))
+                .execute();
+    }
+
+    @Test
+    public void putAndMap() throws IOException {
+        byte[] data = "large value".getBytes("UTF-8");
+
+        String key = blobs.put(data);
+
+        assertEquals(64, key.length());
+        assertTrue(blobs.exists(key));
+        assertArrayEquals(data, read(blobs.map(key)));
+        assertTrue(blobs.verify(key));
+    }
+
+    @Test
+    public void putStream() throws IOException {
+        byte[] data = new byte[200 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        String key = blobs.put(new ByteArrayInputStream(data));
+
+        assertArrayEquals(data, read(blobs.map(key)));
+        assertEquals(key, blobs.put(data));
+    }
+
+    @Test
+    public void equalValuesAreStoredOnce() throws IOException {
+        String first = blobs.put("same".getBytes("UTF-8"));
+        String second = blobs.put(new ByteArrayInputStream("same".getBytes("UTF-8")));
+        String other = blobs.put("other".getBytes("UTF-8"));
+
+        assertEquals(first, second);
+        assertFalse(first.equals(other));
+        assertEquals(2, countFiles(blobs.getDirectory()));
+    }
+
+    @Test
+    public void putAgainRefreshesTheModificationTime() throws IOException {
+        String key = blobs.put("value".getBytes("UTF-8"));
+        File file = blobs.getFile(key);
+        assertTrue(file.setLastModified(TWO_HOURS_AGO));
+
+        blobs.put("value".getBytes("UTF-8"));
+
+        assertTrue(file.lastModified() > TWO_HOURS_AGO + TimeUnit.HOURS.toMillis(1));
+    }
+
+    @Test
+    public void verifyDetectsCorruption() throws IOException {
+        String key = blobs.put("original".getBytes("UTF-8"));
+
+        FileOutputStream output = new FileOutputStream(blobs.getFile(key));
+        try {
+            output.write("corrupted".getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+
+        assertFalse(blobs.verify(key));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidKeysAreRejected() {
+        blobs.getFile("../test.db");
+    }
+
+    @Test
+    public void deleteOrphansKeepsReferencedAndRecentFiles() throws Throwable {
+        String referenced = blobs.put("referenced".getBytes("UTF-8"));
+        String recent = blobs.put("recent".getBytes("UTF-8"));
+        String orphan = blobs.put("orphan".getBytes("UTF-8"));
+
+        reference(1, referenced);
+        assertTrue(blobs.getFile(referenced).setLastModified(TWO_HOURS_AGO));
+        assertTrue(blobs.getFile(orphan).setLastModified(TWO_HOURS_AGO));
+
+        assertEquals(1, blobs.deleteOrphans());
+
+        assertTrue(blobs.exists(referenced));
+        assertTrue(blobs.exists(recent));
+        assertFalse(blobs.exists(orphan));
+    }
+
+    @Test
+    public void deleteOrphansRemovesStaleTempFiles() throws Throwable {
+        blobs.put("value".getBytes("UTF-8"));
+
+        File stale = new File(blobs.getDirectory(), ".tmp-stale");
+        File writing = new File(blobs.getDirectory(), ".tmp-writing");
+        assertTrue(stale.createNewFile());
+        assertTrue(writing.createNewFile());
+        assertTrue(stale.setLastModified(TWO_HOURS_AGO));
+
+        blobs.setGracePeriod(1, TimeUnit.HOURS);
+
+        assertEquals(1, blobs.deleteOrphans());
+        assertFalse(stale.exists());
+        assertTrue(writing.exists());
+    }
+
+    @Test
+    public void deleteOrphansWithoutGracePeriod() throws Throwable {
+        String orphan = blobs.put("orphan".getBytes("UTF-8"));
+        assertTrue(blobs.getFile(orphan).setLastModified(System.currentTimeMillis() - 1000));
+
+        blobs.setGracePeriod(0, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, blobs.deleteOrphans());
+        assertFalse(blobs.exists(orphan));
+    }
+}
@@ -0,0 +1,129 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class BulkImportTest {
+
+    @Before
+    public void setUp() {
+        TestDatabase.init();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private static RecordSource csv(String csv) {
+        return RecordSources.fromCsv(new ByteArrayInputStream(csv.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    private static BulkImport newImport() {
+        return new BulkImport(TestDatabase.TABLE, TestDatabase.ID, TestDatabase.NAME, TestDatabase.AGE);
+    }
+
+    @Test
+    public void importsInChunks() throws Throwable {
+        StringBuilder csv = new StringBuilder("_id,name,age\n");
+        for (int id = 1; id <= 25; id++) {
+            csv.append(id).append(",name").append(id).append(',').append(id).append('\n');
+        }
+
+        final List<Long> progress = new ArrayList<>();
+
+        long imported = newImport()
+                .setChunkSize(10)
+                .setProgressListener(new BulkImport.ProgressListener() {
+                    @Override
+                    public void onProgress(long importedRecords) {
+                        progress.add(importedRecords);
+                    }
+                })
+                .execute(csv(csv.toString()));
+
+        assertEquals(25, imported);
+        assertEquals(Arrays.asList(10L, 20L, 25L), progress);
+        assertEquals(25, TestDatabase.getRows().size());
+        assertEquals("25|name25|25", TestDatabase.getRows().get(24));
+    }
+
+    @Test
+    public void failedChunkIsRolledBack() throws Throwable {
+        try {
+            newImport()
+                    .setChunkSize(2)
+                    .execute(csv("_id,name,age\n1,a,1\n2,b,2\n3,c,3\n3,duplicate,4\n"));
+            fail("duplicate primary key must fail");
+
+        } catch (ChunkedTransactionException exc) {
+            assertEquals(2, exc.getCommittedRecords());
+            assertEquals(2, exc.getCommittedStatements());
+        }
+
+        assertEquals(Arrays.asList("1|a|1", "2|b|2"), TestDatabase.getRows());
+    }
+
+    @Test
+    public void upsertUpdatesExistingRows() throws Throwable {
+        newImport().execute(csv("_id,name,age\n1,first,10\n2,second,20\n"));
+
+        long imported = newImport()
+                .setUpsertKey(TestDatabase.ID)
+                .execute(csv("_id,name,age\n2,updated,\n3,third,30\n"));
+
+        assertEquals(2, imported);
+        assertEquals(Arrays.asList("1|first|10", "2|updated|null", "3|third|30"), TestDatabase.getRows());
+    }
+
+    @Test
+    public void upsertOfKeyOnlyKeepsExistingRows() throws Throwable {
+        newImport().execute(csv("_id,name,age\n1,first,10\n"));
+
+        new BulkImport(TestDatabase.TABLE, TestDatabase.ID)
+                .setUpsertKey(TestDatabase.ID)
+                .execute(csv("_id\n1\n2\n"));
+
+        assertEquals(Arrays.asList("1|first|10", "2|null|null"), TestDatabase.getRows());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void upsertKeyMustBeImported() {
+        new BulkImport(TestDatabase.TABLE, TestDatabase.NAME).setUpsertKey(TestDatabase.ID);
+    }
+
+    @Test
+    public void statementImportsInTheTransaction() throws Throwable {
+        ContentValues record = new ContentValues();
+        record.put(TestDatabase.ID, 1L);
+        record.put(TestDatabase.NAME, "first");
+
+        new TransactionBuilder("import")
+                .add(newImport().toStatement(RecordSources.fromIterator(
+                        Collections.singletonList(record).iterator())))
+                .execute();
+
+        assertEquals(Arrays.asList("1|first|null"), TestDatabase.getRows());
+    }
+}
@@ -0,0 +1,147 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import com.squareup.sqlbrite.BriteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link TransactionBuilder#executeChunked(int, long, int, TransactionBuilder.ProgressListener)}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ChunkedTransactionTest {
+
+    private static final int STATEMENTS = 10;
+    private static final int CHUNK = 3;
+    private static final long NO_TIME_LIMIT = 60000;
+
+    private final List<String> progress = new ArrayList<>();
+
+    private final TransactionBuilder.ProgressListener listener = new TransactionBuilder.ProgressListener() {
+        @Override
+        public void onProgress(int committedStatements, int totalStatements) {
+            progress.add(committedStatements + "/" + totalStatements);
+        }
+    };
+
+    // the failing statement of newTransaction() fails while it's true
+    private final boolean[] broken = {true};
+
+    @Before
+    public void setUp() {
+        TestDatabase.init();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private TransactionStatement insert(final long id, final boolean failing) {
+        return new TransactionStatement() {
+            @Override
+            public void onStatement(BriteDatabase db) throws Throwable {
+                ContentValues record = new ContentValues();
+                record.put(TestDatabase.ID, id);
+                record.put(TestDatabase.NAME, "row" + id);
+                db.insert(TestDatabase.TABLE, record);
+
+                if (failing && broken[0])
+                    throw new IllegalStateException("broken statement " + id);
+            }
+        };
+    }
+
+    /**
+     * Gets a transaction of 10 inserts, whose statement at the given index fails until
+     * {@link #broken} is set to false.
+     */
+    private TransactionBuilder newTransaction(int failingIndex) {
+        TransactionBuilder transaction = new TransactionBuilder("chunked");
+
+        for (int i = 0; i < STATEMENTS; i++) {
+            transaction.add(insert(i + 1, i == failingIndex));
+        }
+
+        return transaction;
+    }
+
+    private static List<String> rows(int count) {
+        List<String> rows = new ArrayList<>(count);
+
+        for (int id = 1; id <= count; id++) {
+            rows.add(id + "|row" + id + "|null");
+        }
+
+        return rows;
+    }
+
+    @Test
+    public void commitsEveryChunk() throws ChunkedTransactionException {
+        newTransaction(-1).executeChunked(CHUNK, NO_TIME_LIMIT, 0, listener);
+
+        assertEquals(Arrays.asList("3/10", "6/10", "9/10", "10/10"), progress);
+        assertEquals(rows(STATEMENTS), TestDatabase.getRows());
+    }
+
+    @Test
+    public void failureRollsBackOnlyItsChunk() {
+        try {
+            // the second statement of the third chunk fails
+            newTransaction(7).executeChunked(CHUNK, NO_TIME_LIMIT, 0, listener);
+            fail("the chunked transaction didn't fail");
+        } catch (ChunkedTransactionException exc) {
+            assertEquals(6, exc.getCommittedStatements());
+            assertEquals("broken statement 8", exc.getCause().getMessage());
+        }
+
+        assertEquals(Arrays.asList("3/10", "6/10"), progress);
+        assertEquals(rows(6), TestDatabase.getRows());
+    }
+
+    @Test
+    public void resumesFromTheCommittedStatements() throws ChunkedTransactionException {
+        TransactionBuilder transaction = newTransaction(7);
+        int committed = -1;
+
+        try {
+            transaction.executeChunked(CHUNK, NO_TIME_LIMIT, 0, listener);
+            fail("the chunked transaction didn't fail");
+        } catch (ChunkedTransactionException exc) {
+            committed = exc.getCommittedStatements();
+        }
+
+        broken[0] = false;
+        progress.clear();
+        transaction.executeChunked(CHUNK, NO_TIME_LIMIT, committed, listener);
+
+        assertEquals(Arrays.asList("9/10", "10/10"), progress);
+        assertEquals(rows(STATEMENTS), TestDatabase.getRows());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyChunks() throws ChunkedTransactionException {
+        newTransaction(-1).executeChunked(0, NO_TIME_LIMIT, 0, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsStartBeyondTheLastStatement() throws ChunkedTransactionException {
+        newTransaction(-1).executeChunked(CHUNK, NO_TIME_LIMIT, STATEMENTS + 1, null);
+    }
+}
@@ -0,0 +1,128 @@
+package net.gotev.dbframework;
+
+import com.squareup.sqlbrite.BriteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the database open count managed with {@link DatabaseLease}s.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class DatabaseLeaseTest {
+
+    private static final int THREADS = 8;
+    private static final int LEASES_PER_THREAD = 2000;
+
+    private DatabaseManager manager;
+
+    @Before
+    public void setUp() {
+        manager = TestDatabase.init();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    @Test
+    public void concurrentLeasesAreAllReleased() throws InterruptedException {
+        final BriteDatabase database = manager.openDatabase();
+        manager.closeDatabase();
+
+        // only the reference held by the manager is left
+        assertEquals(1, manager.getOpenCount());
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[THREADS];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+
+                        for (int j = 0; j < LEASES_PER_THREAD; j++) {
+                            DatabaseLease lease = manager.acquireDatabase();
+
+                            try {
+                                assertSame(database, lease.getDatabase());
+                            } finally {
+                                lease.close();
+                            }
+                        }
+                    } catch (Throwable exc) {
+                        error.compareAndSet(null, exc);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(error.get());
+        assertEquals(1, manager.getOpenCount());
+
+        DatabaseManager.deinit();
+        assertEquals(0, manager.getOpenCount());
+    }
+
+    @Test
+    public void leaseClosedAfterDeinitHasNoEffect() {
+        DatabaseLease lease = manager.acquireDatabase();
+        assertEquals(2, manager.getOpenCount());
+
+        DatabaseManager.deinit();
+        assertEquals(0, manager.getOpenCount());
+
+        lease.close();
+        lease.close();
+        assertEquals(0, manager.getOpenCount());
+
+        try {
+            manager.openDatabase();
+            fail("the database has been reopened after deinit");
+        } catch (IllegalStateException exc) {
+            assertEquals(0, manager.getOpenCount());
+        }
+    }
+
+    @Test
+    public void releasedLeaseCanNotBeUsed() {
+        DatabaseLease lease = manager.acquireDatabase();
+        lease.close();
+        lease.close();
+
+        assertEquals(1, manager.getOpenCount());
+
+        try {
+            lease.getDatabase();
+            fail("released lease returned the database");
+        } catch (IllegalStateException exc) {
+            assertEquals("database lease already released", exc.getMessage());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import com.squareup.sqldelight.RowMapper;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the BM25 ranking of the {@link FullTextIndex}, both on synthetic matchinfo
+ * and on Robolectric's SQLite.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class FullTextIndexTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static final RowMapper<Long> ID_MAPPER = new RowMapper<Long>() {
+        @Override
+        public Long map(@NonNull Cursor cursor) {
+            return cursor.getLong(cursor.getColumnIndexOrThrow(TestDatabase.ID));
+        }
+    };
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    /**
+     * Builds a matchinfo 'pcnalx' blob for a single phrase.
+     * @param rows number of rows in the index
+     * @param averageLengths average length of each column
+     * @param lengths length of each column in the row
+     * @param hits hits of the phrase in each column of the row
+     * @param rowsWithHits rows with at least one hit of the phrase in each column
+     */
+    private static byte[] matchInfo(int rows, int[] averageLengths, int[] lengths, int[] hits,
+                                    int[] rowsWithHits) {
+        int columns = lengths.length;
+        ByteBuffer info = ByteBuffer.allocate(4 * (3 + 2 * columns + 3 * columns))
+                .order(ByteOrder.nativeOrder());
+
+        info.putInt(1).putInt(columns).putInt(rows);
+
+        for (int length : averageLengths) {
+            info.putInt(length);
+        }
+
+        for (int length : lengths) {
+            info.putInt(length);
+        }
+
+        for (int column = 0; column < columns; column++) {
+            info.putInt(hits[column]).putInt(hits[column]).putInt(rowsWithHits[column]);
+        }
+
+        return info.array();
+    }
+
+    private static double score(int rows, int averageLength, int length, int hits, int rowsWithHits) {
+        return FullTextIndex.getScore(matchInfo(rows, new int[]{averageLength}, new int[]{length},
+                new int[]{hits}, new int[]{rowsWithHits}));
+    }
+
+    @Test
+    public void bm25Score() {
+        double idf = Math.log((100 - 5 + 0.5) / (5 + 0.5));
+        double expected = idf * 2 * (1.2 + 1) / (2 + 1.2 * (1 - 0.75 + 0.75 * 20 / 10.0));
+
+        assertEquals(expected, score(100, 10, 20, 2, 5), DELTA);
+    }
+
+    @Test
+    public void noHitsScoreZero() {
+        assertEquals(0, score(100, 10, 10, 0, 5), DELTA);
+    }
+
+    @Test
+    public void moreHitsScoreHigher() {
+        assertTrue(score(100, 10, 10, 3, 5) > score(100, 10, 10, 1, 5));
+    }
+
+    @Test
+    public void shorterRowsScoreHigher() {
+        assertTrue(score(100, 10, 5, 1, 5) > score(100, 10, 50, 1, 5));
+    }
+
+    @Test
+    public void rarerTermsScoreHigher() {
+        assertTrue(score(100, 10, 10, 1, 2) > score(100, 10, 10, 1, 40));
+    }
+
+    @Test
+    public void termsInMostRowsStillScorePositive() {
+        // the BM25 idf is negative for terms in more than half of the rows
+        assertTrue(score(100, 10, 10, 1, 90) > 0);
+    }
+
+    @Test
+    public void scoresOfColumnsAreAdded() {
+        double score = FullTextIndex.getScore(matchInfo(100, new int[]{10, 10}, new int[]{10, 10},
+                new int[]{1, 2}, new int[]{5, 5}));
+
+        assertEquals(score(100, 10, 10, 1, 5) + score(100, 10, 10, 2, 5), score, DELTA);
+    }
+
+    @Test
+    public void prefixQuery() {
+        assertEquals("\"data*\" \"fr*\"", FullTextIndex.prefixQuery("data fr"));
+        assertEquals("\"a*\" \"b*\"", FullTextIndex.prefixQuery(" \"a\" -b* "));
+        assertNull(FullTextIndex.prefixQuery(" * "));
+        assertNull(FullTextIndex.prefixQuery(null));
+    }
+
+    @Test
+    public void searchRanksByRelevance() throws Throwable {
+        FullTextIndex index = new FullTextIndex("test_fts", TestDatabase.TABLE, TestDatabase.NAME);
+        TestDatabase.init(index.getMigration());
+
+        String[] names = {
+                "a framework for android apps with a long description",
+                "database",
+                "a database about a database framework",
+                "nothing to find here",
+                "reactive database framework for android with a very long description"
+        };
+
+        List<ContentValues> records = new ArrayList<>();
+
+        for (int i = 0; i < names.length; i++) {
+            ContentValues record = new ContentValues();
+            record.put(TestDatabase.ID, i + 1L);
+            record.put(TestDatabase.NAME, names[i]);
+            records.add(record);
+        }
+
+        new TransactionBuilder("fill")
+                .add(DatabaseManager.saveAll(TestDatabase.TABLE, TestDatabase.ID, records))
+                .execute();
+
+        List<Long> all = index.search("database", 0, 10, ID_MAPPER).toBlocking().first();
+        assertEquals(Arrays.asList(2L, 3L, 5L), all);
+
+        List<Long> page = index.search("database", 1, 1, ID_MAPPER).toBlocking().first();
+        assertEquals(Arrays.asList(3L), page);
+
+        List<Long> prefix = index.search(FullTextIndex.prefixQuery("andr fram"), 0, 10, ID_MAPPER)
+                .toBlocking().first();
+        assertEquals(Arrays.asList(1L, 5L), prefix);
+    }
+}
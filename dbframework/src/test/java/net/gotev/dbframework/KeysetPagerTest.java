@@ -0,0 +1,155 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import com.squareup.sqldelight.RowMapper;
+import com.squareup.sqldelight.SqlDelightStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link KeysetPager}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class KeysetPagerTest {
+
+    private static final int ROWS = 10;
+
+    private static final SqlDelightStatement SELECT_ALL = new SqlDelightStatement(
+            "SELECT * FROM " + TestDatabase.TABLE, new String[0],
+            Collections.singleton(TestDatabase.TABLE));
+
+    private static final RowMapper<Long> ID_MAPPER = new RowMapper<Long>() {
+        @Override
+        public Long map(@NonNull Cursor cursor) {
+            return cursor.getLong(cursor.getColumnIndexOrThrow(TestDatabase.ID));
+        }
+    };
+
+    private DatabaseManager manager;
+
+    @Before
+    public void setUp() throws Throwable {
+        manager = TestDatabase.init();
+
+        List<ContentValues> records = new ArrayList<>(ROWS);
+
+        for (long id = 1; id <= ROWS; id++) {
+            ContentValues record = new ContentValues();
+            record.put(TestDatabase.ID, id);
+            record.put(TestDatabase.NAME, "row" + id);
+            record.put(TestDatabase.AGE, id * 10);
+            records.add(record);
+        }
+
+        new TransactionBuilder("fill")
+                .add(DatabaseManager.saveAll(TestDatabase.TABLE, TestDatabase.ID, records))
+                .execute();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private static KeysetPager<Long> newPager(SqlDelightStatement statement, int pageSize, boolean ascending) {
+        return new KeysetPager<>(statement, TestDatabase.ID, pageSize, ascending, ID_MAPPER);
+    }
+
+    private static void assertPage(Page<Long> page, Long afterKey, List<Long> items, Long lastKey,
+                                   boolean hasMore) {
+        assertEquals(afterKey, page.getAfterKey());
+        assertEquals(items, page.getItems());
+        assertEquals(lastKey, page.getLastKey());
+        assertEquals(hasMore, page.hasMore());
+    }
+
+    @Test
+    public void pagesByAscendingKey() {
+        KeysetPager<Long> pager = newPager(SELECT_ALL, 4, true).setDatabaseManager(manager);
+
+        Page<Long> first = pager.getFirstPage().toBlocking().first();
+        assertPage(first, null, Arrays.asList(1L, 2L, 3L, 4L), 4L, true);
+
+        Page<Long> second = pager.getPageAfter(first.getLastKey()).toBlocking().first();
+        assertPage(second, 4L, Arrays.asList(5L, 6L, 7L, 8L), 8L, true);
+
+        Page<Long> last = pager.getPageAfter(second.getLastKey()).toBlocking().first();
+        assertPage(last, 8L, Arrays.asList(9L, 10L), 10L, false);
+    }
+
+    @Test
+    public void lastFullPageHasNoMore() {
+        KeysetPager<Long> pager = newPager(SELECT_ALL, 5, true);
+
+        // the extra row probed with LIMIT pageSize + 1 exists only for the first page
+        assertTrue(pager.getFirstPage().toBlocking().first().hasMore());
+
+        Page<Long> last = pager.getPageAfter(5).toBlocking().first();
+        assertPage(last, 5L, Arrays.asList(6L, 7L, 8L, 9L, 10L), 10L, false);
+
+        Page<Long> empty = pager.getPageAfter(10).toBlocking().first();
+        assertPage(empty, 10L, Collections.<Long>emptyList(), null, false);
+    }
+
+    @Test
+    public void pagesByDescendingKey() {
+        KeysetPager<Long> pager = newPager(SELECT_ALL, 4, false);
+
+        Page<Long> first = pager.getFirstPage().toBlocking().first();
+        assertPage(first, null, Arrays.asList(10L, 9L, 8L, 7L), 7L, true);
+
+        Page<Long> second = pager.getPageAfter(first.getLastKey()).toBlocking().first();
+        assertPage(second, 7L, Arrays.asList(6L, 5L, 4L, 3L), 3L, true);
+
+        Page<Long> last = pager.getPageAfter(second.getLastKey()).toBlocking().first();
+        assertPage(last, 3L, Arrays.asList(2L, 1L), 1L, false);
+    }
+
+    @Test
+    public void keepsTheStatementArguments() {
+        SqlDelightStatement adults = new SqlDelightStatement("SELECT * FROM " + TestDatabase.TABLE
+                + " WHERE " + TestDatabase.AGE + " >= ?", new String[]{"45"},
+                Collections.singleton(TestDatabase.TABLE));
+
+        KeysetPager<Long> pager = newPager(adults, 3, true);
+
+        Page<Long> first = pager.getFirstPage().toBlocking().first();
+        assertPage(first, null, Arrays.asList(5L, 6L, 7L), 7L, true);
+
+        Page<Long> last = pager.getPageAfter(first.getLastKey()).toBlocking().first();
+        assertPage(last, 7L, Arrays.asList(8L, 9L, 10L), 10L, false);
+    }
+
+    @Test
+    public void emptyQueryHasAnEmptyPage() {
+        Page<Long> page = newPager(new SqlDelightStatement("SELECT * FROM " + TestDatabase.TABLE
+                + " WHERE " + TestDatabase.ID + " < 0", new String[0],
+                Collections.singleton(TestDatabase.TABLE)), 4, true)
+                .getFirstPage().toBlocking().first();
+
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getLastKey());
+        assertFalse(page.hasMore());
+    }
+}
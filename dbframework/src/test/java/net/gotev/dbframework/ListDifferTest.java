@@ -0,0 +1,152 @@
+package net.gotev.dbframework;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author gotev (alex@gotev.net)
+ */
+public class ListDifferTest {
+
+    private static final class Row {
+        final long id;
+        final String name;
+
+        Row(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Row && ((Row) other).id == id && ((Row) other).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) id;
+        }
+
+        @Override
+        public String toString() {
+            return id + "|" + name;
+        }
+    }
+
+    private static final KeySelector<Row> KEY = new KeySelector<Row>() {
+        @Override
+        public long getKey(Row row) {
+            return row.id;
+        }
+    };
+
+    @Test
+    public void firstResultIsAllInserted() {
+        List<Row> list = Arrays.asList(new Row(1, "a"), new Row(2, "b"));
+
+        ListChanges<Row> changes = new ListDiffer<>(KEY).call(list);
+
+        assertTrue(changes.isInitial());
+        assertEquals(list, changes.getList());
+        assertEquals(list, changes.getInserted());
+        assertTrue(changes.getChanged().isEmpty());
+        assertEquals(0, changes.getRemovedKeys().length);
+    }
+
+    @Test
+    public void detectsInsertedChangedAndRemovedRows() {
+        ListDiffer<Row> differ = new ListDiffer<>(KEY);
+        differ.call(Arrays.asList(new Row(1, "a"), new Row(2, "b"), new Row(3, "c"), new Row(4, "d")));
+
+        List<Row> list = Arrays.asList(new Row(1, "a"), new Row(3, "changed"), new Row(5, "e"));
+        ListChanges<Row> changes = differ.call(list);
+
+        assertFalse(changes.isInitial());
+        assertFalse(changes.isEmpty());
+        assertEquals(list, changes.getList());
+        assertEquals(Arrays.asList(new Row(5, "e")), changes.getInserted());
+        assertEquals(Arrays.asList(new Row(3, "changed")), changes.getChanged());
+
+        assertArrayEquals(new long[]{2, 4}, sorted(changes.getRemovedKeys()));
+    }
+
+    @Test
+    public void sameResultIsEmpty() {
+        ListDiffer<Row> differ = new ListDiffer<>(KEY);
+        differ.call(Arrays.asList(new Row(1, "a"), new Row(2, "b")));
+
+        ListChanges<Row> changes = differ.call(Arrays.asList(new Row(2, "b"), new Row(1, "a")));
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void comparesWithThePreviousResultOnly() {
+        ListDiffer<Row> differ = new ListDiffer<>(KEY);
+        differ.call(Arrays.asList(new Row(1, "a")));
+        differ.call(Collections.<Row>emptyList());
+
+        ListChanges<Row> changes = differ.call(Arrays.asList(new Row(1, "a")));
+
+        assertEquals(Arrays.asList(new Row(1, "a")), changes.getInserted());
+        assertEquals(0, changes.getRemovedKeys().length);
+    }
+
+    @Test
+    public void newKeyRepeatedInTheResult() {
+        ListDiffer<Row> differ = new ListDiffer<>(KEY);
+        differ.call(Arrays.asList(new Row(1, "a"), new Row(2, "b"), new Row(3, "c")));
+
+        // e.g. a join which returns the new row twice
+        ListChanges<Row> changes = differ.call(Arrays.asList(new Row(1, "a"), new Row(4, "d"), new Row(4, "d")));
+
+        assertArrayEquals(new long[]{2, 3}, sorted(changes.getRemovedKeys()));
+    }
+
+    @Test
+    public void newKeyRepeatedWithNothingRemoved() {
+        ListDiffer<Row> differ = new ListDiffer<>(KEY);
+        differ.call(Arrays.asList(new Row(1, "a")));
+
+        ListChanges<Row> changes = differ.call(Arrays.asList(new Row(1, "a"), new Row(2, "b"), new Row(2, "b")));
+
+        assertEquals(0, changes.getRemovedKeys().length);
+    }
+
+    private static long[] sorted(long[] keys) {
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    @Test
+    public void bigListWithFewChanges() {
+        ListDiffer<Row> differ = new ListDiffer<>(KEY);
+        List<Row> list = new ArrayList<>();
+
+        for (long id = 0; id < 10000; id++) {
+            list.add(new Row(id, "row"));
+        }
+
+        differ.call(list);
+
+        List<Row> next = new ArrayList<>(list);
+        next.remove(0);
+        next.set(5000, new Row(5001, "changed"));
+        next.add(new Row(10000, "row"));
+
+        ListChanges<Row> changes = differ.call(next);
+
+        assertEquals(Arrays.asList(new Row(10000, "row")), changes.getInserted());
+        assertEquals(Arrays.asList(new Row(5001, "changed")), changes.getChanged());
+        assertArrayEquals(new long[]{0}, changes.getRemovedKeys());
+    }
+}
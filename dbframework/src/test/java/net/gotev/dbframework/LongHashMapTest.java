@@ -0,0 +1,84 @@
+package net.gotev.dbframework;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author gotev (alex@gotev.net)
+ */
+public class LongHashMapTest {
+
+    @Test
+    public void putAndGet() {
+        LongHashMap<String> map = new LongHashMap<>(0);
+
+        assertNull(map.put(1, "one"));
+        assertNull(map.put(0, "zero"));
+        assertNull(map.put(-1, "minus one"));
+        assertEquals("one", map.put(1, "uno"));
+
+        assertEquals(3, map.size());
+        assertEquals("uno", map.get(1));
+        assertEquals("zero", map.get(0));
+        assertEquals("minus one", map.get(-1));
+        assertNull(map.get(2));
+        assertTrue(map.containsKey(0));
+        assertFalse(map.containsKey(2));
+    }
+
+    @Test
+    public void nullValuesAreKept() {
+        LongHashMap<String> map = new LongHashMap<>(0);
+
+        map.put(1, null);
+
+        assertTrue(map.containsKey(1));
+        assertNull(map.get(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void valuesFollowTheirKeysWhenGrowing() {
+        LongHashMap<Long> map = new LongHashMap<>(1);
+
+        for (long id = 0; id < 10000; id++) {
+            map.put(id, id * 10);
+        }
+
+        assertEquals(10000, map.size());
+
+        for (long id = 0; id < 10000; id++) {
+            assertEquals(Long.valueOf(id * 10), map.get(id));
+        }
+    }
+
+    @Test
+    public void slotsIterateOverAllTheEntries() {
+        Random random = new Random(42);
+        LongHashMap<Long> map = new LongHashMap<>(16);
+        Map<Long, Long> expected = new HashMap<>();
+
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextLong();
+            long value = random.nextLong();
+            assertEquals(expected.put(key, value), map.put(key, value));
+        }
+
+        Map<Long, Long> iterated = new HashMap<>();
+
+        for (int slot = 0; slot < map.capacity(); slot++) {
+            if (map.isUsed(slot))
+                iterated.put(map.keyAt(slot), map.valueAt(slot));
+        }
+
+        assertEquals(expected, iterated);
+    }
+}
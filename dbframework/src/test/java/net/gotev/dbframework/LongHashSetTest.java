@@ -0,0 +1,74 @@
+package net.gotev.dbframework;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author gotev (alex@gotev.net)
+ */
+public class LongHashSetTest {
+
+    @Test
+    public void addAndContains() {
+        LongHashSet set = new LongHashSet(0);
+
+        assertTrue(set.add(1));
+        assertTrue(set.add(0));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MAX_VALUE));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertFalse(set.add(1));
+
+        assertEquals(5, set.size());
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(-1));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertFalse(set.contains(2));
+    }
+
+    @Test
+    public void growsKeepingAllTheKeys() {
+        LongHashSet set = new LongHashSet(4);
+
+        // sequential and strided IDs, which collide the most without a good hash
+        for (long id = 1; id <= 10000; id++) {
+            assertTrue(set.add(id));
+            assertTrue(set.add(id << 32));
+        }
+
+        assertEquals(20000, set.size());
+
+        for (long id = 1; id <= 10000; id++) {
+            assertTrue(set.contains(id));
+            assertTrue(set.contains(id << 32));
+            assertFalse(set.contains(-id));
+        }
+
+        assertTrue(set.capacity() > 20000);
+    }
+
+    @Test
+    public void behavesLikeHashSet() {
+        Random random = new Random(42);
+        LongHashSet set = new LongHashSet(100);
+        Set<Long> expected = new HashSet<>();
+
+        for (int i = 0; i < 50000; i++) {
+            long key = random.nextInt(20000);
+            assertEquals(expected.add(key), set.add(key));
+        }
+
+        assertEquals(expected.size(), set.size());
+
+        for (long key = 0; key < 20000; key++) {
+            assertEquals(expected.contains(key), set.contains(key));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that named database instances are isolated from each other and from the default one.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class NamedInstancesTest {
+
+    private static final String SHARD = "shard";
+
+    private DatabaseManager defaultManager;
+    private DatabaseManager shard;
+
+    @Before
+    public void setUp() throws Throwable {
+        defaultManager = TestDatabase.init();
+        shard = DatabaseManager.init(SHARD, RuntimeEnvironment.application,
+                TestDatabase.newConfig("shard.db"));
+
+        save(null, 1, "default");
+        save(shard, 1, "shard");
+        save(shard, 2, "shard");
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit(SHARD);
+        DatabaseManager.deinit();
+    }
+
+    private static void save(DatabaseManager manager, long id, String name) throws Throwable {
+        ContentValues record = new ContentValues();
+        record.put(TestDatabase.ID, id);
+        record.put(TestDatabase.NAME, name);
+
+        new TransactionBuilder(manager, "save")
+                .add(DatabaseManager.saveAll(TestDatabase.TABLE, TestDatabase.ID,
+                        Collections.singletonList(record)))
+                .execute();
+    }
+
+    private static List<String> getRows(DatabaseManager manager) {
+        return manager.executeListQuery(TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER);
+    }
+
+    @Test
+    public void writesAndQueriesAreIsolated() {
+        assertEquals(Collections.singletonList("1|default|null"), TestDatabase.getRows());
+        assertEquals(Arrays.asList("1|shard|null", "2|shard|null"), getRows(shard));
+        assertSame(shard, DatabaseManager.getInstance(SHARD));
+        assertSame(defaultManager, DatabaseManager.getInstance());
+    }
+
+    @Test
+    public void findsTheInstanceOwningTheDatabase() {
+        DatabaseLease defaultLease = defaultManager.acquireDatabase();
+        DatabaseLease shardLease = shard.acquireDatabase();
+
+        try {
+            assertNotSame(defaultLease.getDatabase(), shardLease.getDatabase());
+            assertSame(defaultManager, DatabaseManager.getInstance(defaultLease.getDatabase()));
+            assertSame(shard, DatabaseManager.getInstance(shardLease.getDatabase()));
+        } finally {
+            shardLease.close();
+            defaultLease.close();
+        }
+    }
+
+    @Test
+    public void staticHelpersQueryTheGivenInstance() {
+        assertEquals(Collections.singletonList("1|default|null"), DatabaseManager.getObservableList(
+                TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER).toBlocking().first());
+
+        assertEquals(Arrays.asList("1|shard|null", "2|shard|null"), DatabaseManager.getObservableList(
+                shard, TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER).toBlocking().first());
+
+        assertEquals(Arrays.asList("1|shard|null", "2|shard|null"), DatabaseManager.getObservableListChanges(
+                shard, TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER, new KeySelector<String>() {
+                    @Override
+                    public long getKey(String row) {
+                        return Long.parseLong(row.substring(0, row.indexOf('|')));
+                    }
+                }).toBlocking().first().getInserted());
+
+        assertEquals(Collections.singletonList(Arrays.asList("1|shard|null", "2|shard|null")),
+                DatabaseManager.getRowChunksObservable(shard, TestDatabase.SELECT_ALL,
+                        TestDatabase.ROW_MAPPER, 10).toList().toBlocking().single());
+
+        assertEquals(Collections.singletonList("1|default|null"), DatabaseManager.getRowsObservable(
+                TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER).toList().toBlocking().single());
+    }
+
+    @Test
+    public void deinitClosesOnlyItsInstance() {
+        DatabaseManager.deinit(SHARD);
+
+        try {
+            DatabaseManager.getInstance(SHARD);
+            fail("the instance is still available after deinit");
+        } catch (IllegalStateException exc) {
+            assertEquals(Collections.singletonList("1|default|null"), TestDatabase.getRows());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheDatabaseFileOfAnotherInstance() {
+        DatabaseManager.init("other", RuntimeEnvironment.application, TestDatabase.newConfig("shard.db"));
+    }
+}
@@ -0,0 +1,143 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import com.squareup.sqlbrite.BriteDatabase;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import rx.Subscription;
+import rx.functions.Action1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the coalescing of table change notifications set with
+ * {@link DatabaseConfig#setNotificationWindow(long, TimeUnit)}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class NotificationWindowTest {
+
+    private static final long WINDOW_MILLIS = 1000;
+    private static final int BURST = 10;
+
+    private final List<Integer> emissions = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private static void insert(final long id) throws Throwable {
+        new TransactionBuilder("insert " + id)
+                .add(new TransactionStatement() {
+                    @Override
+                    public void onStatement(BriteDatabase db) throws Throwable {
+                        ContentValues record = new ContentValues();
+                        record.put(TestDatabase.ID, id);
+                        record.put(TestDatabase.NAME, "row" + id);
+                        db.insert(TestDatabase.TABLE, record);
+                    }
+                })
+                .execute();
+    }
+
+    /**
+     * Subscribes to the rows of the test table, recording the number of rows of each emission.
+     */
+    private Subscription subscribe(DatabaseManager manager, final CountDownLatch initial,
+                                   final CountDownLatch last) {
+        return DatabaseManager.getObservableList(manager, TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER)
+                .subscribe(new Action1<List<String>>() {
+                    @Override
+                    public void call(List<String> rows) {
+                        emissions.add(rows.size());
+                        initial.countDown();
+                        if (rows.size() == BURST)
+                            last.countDown();
+                    }
+                });
+    }
+
+    @Test
+    public void burstOfWritesYieldsOneEmission() throws Throwable {
+        DatabaseManager manager = TestDatabase.init(TestDatabase.newConfig()
+                .setNotificationWindow(WINDOW_MILLIS, TimeUnit.MILLISECONDS));
+
+        CountDownLatch initial = new CountDownLatch(1);
+        CountDownLatch last = new CountDownLatch(1);
+        Subscription subscription = subscribe(manager, initial, last);
+
+        try {
+            assertTrue(initial.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            for (long id = 1; id <= BURST; id++) {
+                insert(id);
+            }
+            long burstMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue(last.await(5, TimeUnit.SECONDS));
+
+            // no other emission follows the one at the end of the window
+            Thread.sleep(WINDOW_MILLIS * 2);
+
+            // on a very slow machine the burst may span more windows, with an emission each
+            assertTrue(emissions.size() <= 2 + burstMillis / WINDOW_MILLIS);
+
+            if (burstMillis < WINDOW_MILLIS) {
+                assertEquals(Integer.valueOf(0), emissions.get(0));
+                assertEquals(Integer.valueOf(BURST), emissions.get(1));
+                assertEquals(2, emissions.size());
+                assertEquals(BURST - 1, manager.getSuppressedRequeryCount());
+            }
+        } finally {
+            subscription.unsubscribe();
+        }
+    }
+
+    @Test
+    public void withoutWindowEveryWriteIsEmitted() throws Throwable {
+        DatabaseManager manager = TestDatabase.init();
+
+        CountDownLatch initial = new CountDownLatch(1);
+        CountDownLatch last = new CountDownLatch(1);
+        Subscription subscription = subscribe(manager, initial, last);
+
+        try {
+            assertTrue(initial.await(5, TimeUnit.SECONDS));
+
+            for (long id = 1; id <= BURST; id++) {
+                insert(id);
+            }
+
+            assertTrue(last.await(5, TimeUnit.SECONDS));
+
+            // lets the queued re-queries complete before the database is closed
+            int count;
+            do {
+                count = emissions.size();
+                Thread.sleep(200);
+            } while (emissions.size() != count);
+
+            assertTrue(emissions.size() > 2);
+            assertEquals(0, manager.getSuppressedRequeryCount());
+        } finally {
+            subscription.unsubscribe();
+        }
+    }
+}
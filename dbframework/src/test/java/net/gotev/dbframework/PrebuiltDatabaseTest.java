@@ -0,0 +1,142 @@
+package net.gotev.dbframework;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the seeding of new databases from a {@link PrebuiltDatabase}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PrebuiltDatabaseTest {
+
+    /**
+     * Second migration, applied after the copy of a pre-built database at version 1.
+     */
+    private static final class AddRow implements DatabaseMigration {
+        @Override
+        public void up(SQLiteDatabase db) {
+            db.execSQL("INSERT INTO " + TestDatabase.TABLE + " (" + TestDatabase.ID + ", "
+                    + TestDatabase.NAME + ") VALUES (2, 'migration')");
+        }
+
+        @Override
+        public void down(SQLiteDatabase db) {
+            db.execSQL("DELETE FROM " + TestDatabase.TABLE + " WHERE " + TestDatabase.ID + " = 2");
+        }
+    }
+
+    private File prebuiltFile;
+
+    @Before
+    public void setUp() {
+        prebuiltFile = new File(RuntimeEnvironment.application.getCacheDir(), "prebuilt.db");
+        prebuiltFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+        prebuiltFile.delete();
+    }
+
+    /**
+     * Creates the pre-built database file, with the test table and a row.
+     * @param version user_version of the file
+     */
+    private void createPrebuiltFile(int version) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(prebuiltFile, null);
+
+        try {
+            db.execSQL("CREATE TABLE " + TestDatabase.TABLE + " (" + TestDatabase.ID
+                    + " INTEGER NOT NULL PRIMARY KEY, " + TestDatabase.NAME + " TEXT, "
+                    + TestDatabase.AGE + " INTEGER)");
+            db.execSQL("INSERT INTO " + TestDatabase.TABLE + " VALUES (1, 'prebuilt', 30)");
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static File getDatabaseFile() {
+        return RuntimeEnvironment.application.getDatabasePath("test.db");
+    }
+
+    @Test
+    public void seedsFromFileAndAppliesTheFollowingMigrations() {
+        createPrebuiltFile(1);
+
+        TestDatabase.init(TestDatabase.newConfig(new AddRow())
+                .setPrebuiltDatabase(PrebuiltDatabase.fromFile(prebuiltFile)));
+
+        assertEquals(Arrays.asList("1|prebuilt|30", "2|migration|null"), TestDatabase.getRows());
+    }
+
+    @Test
+    public void seedsFromStream() {
+        createPrebuiltFile(2);
+
+        TestDatabase.init(TestDatabase.newConfig(new AddRow())
+                .setPrebuiltDatabase(PrebuiltDatabase.fromStream(new PrebuiltDatabase.StreamProvider() {
+                    @Override
+                    public InputStream open() throws IOException {
+                        return new FileInputStream(prebuiltFile);
+                    }
+                })));
+
+        // the file is already at the last version, so no migration is applied
+        assertEquals(Arrays.asList("1|prebuilt|30"), TestDatabase.getRows());
+    }
+
+    @Test
+    public void doesNotReplaceAnExistingDatabase() {
+        TestDatabase.init(TestDatabase.newConfig(new AddRow()));
+        assertEquals(Arrays.asList("2|migration|null"), TestDatabase.getRows());
+        DatabaseManager.deinit();
+
+        createPrebuiltFile(1);
+
+        TestDatabase.init(TestDatabase.newConfig(new AddRow())
+                .setPrebuiltDatabase(PrebuiltDatabase.fromFile(prebuiltFile)));
+
+        assertEquals(Arrays.asList("2|migration|null"), TestDatabase.getRows());
+    }
+
+    @Test
+    public void rejectsFilesWithAWrongVersion() {
+        createPrebuiltFile(3);
+
+        TestDatabase.init(TestDatabase.newConfig(new AddRow())
+                .setPrebuiltDatabase(PrebuiltDatabase.fromFile(prebuiltFile)));
+
+        try {
+            TestDatabase.getRows();
+            fail("pre-built database with a version newer than the migrations has been used");
+        } catch (IllegalStateException exc) {
+            assertEquals("Pre-built database has version 3, but it must be between 1 and the number"
+                    + " of migrations (2)", exc.getMessage());
+        }
+
+        assertFalse(getDatabaseFile().exists());
+        assertFalse(new File(getDatabaseFile().getPath() + ".prebuilt").exists());
+    }
+}
@@ -0,0 +1,165 @@
+package net.gotev.dbframework;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.squareup.sqldelight.SqlDelightStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link QueryPlanAnalyzer} on the queries executed through the database manager.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class QueryPlanAnalyzerTest {
+
+    private static final String BY_AGE = "SELECT * FROM " + TestDatabase.TABLE
+            + " WHERE " + TestDatabase.AGE + " = ?";
+    private static final String BY_ID = "SELECT * FROM " + TestDatabase.TABLE
+            + " WHERE " + TestDatabase.ID + " = ?";
+    private static final String BY_NAME = "SELECT * FROM " + TestDatabase.TABLE
+            + " ORDER BY " + TestDatabase.NAME;
+
+    private DatabaseManager manager;
+    private QueryPlanAnalyzer analyzer;
+
+    @Before
+    public void setUp() {
+        manager = TestDatabase.init(TestDatabase.newConfig().setQueryPlanAnalysisEnabled(true));
+        analyzer = manager.getQueryPlanAnalyzer();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private void query(String statement, String... args) {
+        manager.executeListQuery(new SqlDelightStatement(statement, args,
+                Collections.singleton(TestDatabase.TABLE)), TestDatabase.ROW_MAPPER);
+    }
+
+    private QueryPlan getPlan(String statement) {
+        for (QueryPlan plan : analyzer.getWorstStatements(QueryPlanAnalyzer.MAX_STATEMENTS)) {
+            if (plan.getStatement().equals(statement))
+                return plan;
+        }
+        return null;
+    }
+
+    @Test
+    public void flagsFullScansAndSuggestsIndexes() {
+        query(BY_AGE, "1");
+
+        QueryPlan plan = getPlan(BY_AGE);
+        assertTrue(plan.hasFullScan());
+        assertFalse(plan.usesTempBTree());
+        assertEquals(Collections.singletonList(TestDatabase.TABLE), plan.getScannedTables());
+        assertEquals(Collections.singletonList("CREATE INDEX `test_age` ON `test`(`age`);"),
+                plan.getSuggestedIndexes());
+        assertEquals(QueryPlan.TABLE_SCAN_COST, plan.getCost());
+    }
+
+    @Test
+    public void indexedQueriesAreNotFlagged() {
+        query(BY_ID, "1");
+
+        QueryPlan plan = getPlan(BY_ID);
+        assertFalse(plan.hasFullScan());
+        assertFalse(plan.usesTempBTree());
+        assertTrue(plan.getSuggestedIndexes().isEmpty());
+        assertEquals(QueryPlan.SEARCH_COST, plan.getCost());
+    }
+
+    @Test
+    public void flagsUnindexedOrderBy() {
+        query(BY_NAME);
+
+        QueryPlan plan = getPlan(BY_NAME);
+        assertTrue(plan.hasFullScan());
+        assertTrue(plan.usesTempBTree());
+        assertEquals(Collections.singletonList("CREATE INDEX `test_name` ON `test`(`name`);"),
+                plan.getSuggestedIndexes());
+        assertEquals(QueryPlan.TABLE_SCAN_COST + QueryPlan.TEMP_B_TREE_COST, plan.getCost());
+    }
+
+    @Test
+    public void countsExecutionsAndReportsTheWorstStatementsFirst() {
+        for (int i = 0; i < 5; i++) {
+            query(BY_ID, Integer.toString(i));
+        }
+        for (int i = 0; i < 3; i++) {
+            query(BY_AGE, Integer.toString(i));
+        }
+        query(BY_NAME);
+
+        assertEquals(3, analyzer.size());
+        assertEquals(5, getPlan(BY_ID).getExecutions());
+        assertEquals(3, getPlan(BY_AGE).getExecutions());
+        assertEquals(1, getPlan(BY_NAME).getExecutions());
+
+        List<QueryPlan> worst = analyzer.getWorstStatements(2);
+        assertEquals(2, worst.size());
+        assertEquals(BY_AGE, worst.get(0).getStatement());
+        assertEquals(BY_NAME, worst.get(1).getStatement());
+
+        String report = analyzer.getReport(3);
+        assertTrue(report.startsWith("#1 score=300 executions=3 cost=100\n  " + BY_AGE + "\n"));
+        assertTrue(report.indexOf("#2 score=110 ") < report.indexOf("#3 score=5 "));
+        assertTrue(report.contains("  suggested: CREATE INDEX `test_age` ON `test`(`age`);\n"));
+
+        analyzer.reset();
+        assertEquals(0, analyzer.size());
+        assertNull(getPlan(BY_AGE));
+    }
+
+    @Test
+    public void interpretsBothPlanFormats() {
+        List<String> before324 = Arrays.asList("SCAN TABLE test", "USE TEMP B-TREE FOR ORDER BY");
+        List<String> since324 = Arrays.asList("SCAN test", "USE TEMP B-TREE FOR ORDER BY");
+
+        DatabaseLease lease = manager.acquireDatabase();
+
+        try {
+            SQLiteDatabase db = lease.getDatabase().getReadableDatabase();
+
+            for (List<String> details : Arrays.asList(before324, since324)) {
+                QueryPlan plan = analyzer.analyze(db, BY_NAME, details);
+                assertTrue(plan.hasFullScan());
+                assertTrue(plan.usesTempBTree());
+                assertEquals(Collections.singletonList(TestDatabase.TABLE), plan.getScannedTables());
+                assertEquals(Collections.singletonList("CREATE INDEX `test_name` ON `test`(`name`);"),
+                        plan.getSuggestedIndexes());
+            }
+
+            QueryPlan indexScan = analyzer.analyze(db, BY_NAME,
+                    Collections.singletonList("SCAN test USING INDEX test_name"));
+            assertFalse(indexScan.hasFullScan());
+            assertEquals(QueryPlan.INDEX_SCAN_COST, indexScan.getCost());
+
+            QueryPlan search = analyzer.analyze(db, BY_ID,
+                    Collections.singletonList("SEARCH test USING INTEGER PRIMARY KEY (rowid=?)"));
+            assertFalse(search.hasFullScan());
+            assertEquals(QueryPlan.SEARCH_COST, search.getCost());
+
+        } finally {
+            lease.close();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import com.squareup.sqlbrite.BriteDatabase;
+import com.squareup.sqldelight.SqlDelightStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link QueryResultCache} used by executeQuery and executeListQuery.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class QueryResultCacheTest {
+
+    private DatabaseManager manager;
+    private QueryResultCache cache;
+
+    @Before
+    public void setUp() throws Throwable {
+        manager = TestDatabase.init(TestDatabase.newConfig().setQueryCacheSize(2));
+        cache = manager.getQueryCache();
+        insert(1, 10, 2, 20, 3, 30);
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private static TransactionStatement insertStatement(final long id, final long age) {
+        return new TransactionStatement() {
+            @Override
+            public void onStatement(BriteDatabase db) throws Throwable {
+                ContentValues record = new ContentValues();
+                record.put(TestDatabase.ID, id);
+                record.put(TestDatabase.NAME, "row" + id);
+                record.put(TestDatabase.AGE, age);
+                db.insert(TestDatabase.TABLE, record);
+            }
+        };
+    }
+
+    /**
+     * Inserts the rows in a single transaction.
+     * @param idsAndAges ID and age of each row
+     */
+    private static void insert(long... idsAndAges) throws Throwable {
+        TransactionBuilder transaction = new TransactionBuilder("insert");
+
+        for (int i = 0; i < idsAndAges.length; i += 2) {
+            transaction.add(insertStatement(idsAndAges[i], idsAndAges[i + 1]));
+        }
+
+        transaction.execute();
+    }
+
+    private static SqlDelightStatement selectAge(long age) {
+        return new SqlDelightStatement("SELECT * FROM " + TestDatabase.TABLE + " WHERE "
+                + TestDatabase.AGE + " = ?", new String[]{Long.toString(age)},
+                Collections.singleton(TestDatabase.TABLE));
+    }
+
+    private List<String> query(SqlDelightStatement stmt) {
+        return manager.executeListQuery(stmt, TestDatabase.ROW_MAPPER);
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        assertEquals(Collections.singletonList("1|row1|10"), query(selectAge(10)));
+        assertEquals(Collections.singletonList("1|row1|10"), query(selectAge(10)));
+        assertEquals(Collections.singletonList("1|row1|10"), query(selectAge(10)));
+        assertEquals(Collections.singletonList("2|row2|20"), query(selectAge(20)));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void singleResultsAreCachedSeparatelyFromLists() {
+        assertEquals("1|row1|10", manager.executeQuery(selectAge(10), TestDatabase.ROW_MAPPER, null));
+        assertEquals("none", manager.executeQuery(selectAge(99), TestDatabase.ROW_MAPPER, "none"));
+        assertEquals("none", manager.executeQuery(selectAge(99), TestDatabase.ROW_MAPPER, "none"));
+        assertEquals(Collections.singletonList("1|row1|10"), query(selectAge(10)));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedResult() {
+        query(selectAge(10));
+        query(selectAge(20));
+        query(selectAge(10));
+        query(selectAge(30));
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+
+        long misses = cache.getMissCount();
+        query(selectAge(10));
+        assertEquals(misses, cache.getMissCount());
+        query(selectAge(20));
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void committedTransactionsInvalidateTheCache() throws Throwable {
+        assertEquals(Collections.singletonList("1|row1|10"), query(selectAge(10)));
+
+        insert(4, 10);
+
+        assertEquals(Arrays.asList("1|row1|10", "4|row4|10"), query(selectAge(10)));
+        assertTrue(cache.getInvalidationCount() > 0);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void queriesInsideTransactionsBypassTheCache() throws Throwable {
+        assertEquals(Collections.singletonList("1|row1|10"), query(selectAge(10)));
+
+        final List<List<String>> inTransaction = new ArrayList<>();
+
+        try {
+            new TransactionBuilder("rolled back")
+                    .add(insertStatement(4, 10))
+                    .add(new TransactionStatement() {
+                        @Override
+                        public void onStatement(BriteDatabase db) throws Throwable {
+                            inTransaction.add(query(selectAge(10)));
+                            throw new IllegalStateException("rollback");
+                        }
+                    })
+                    .execute();
+        } catch (IllegalStateException exc) {
+            assertEquals("rollback", exc.getMessage());
+        }
+
+        assertEquals(Collections.singletonList(Arrays.asList("1|row1|10", "4|row4|10")), inTransaction);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // the uncommitted rows read inside the transaction have not been cached
+        assertEquals(Collections.singletonList("1|row1|10"), query(selectAge(10)));
+    }
+
+    @Test
+    public void directWritesAreVisibleAfterExplicitInvalidation() {
+        assertEquals(Collections.singletonList("1|row1|10"), query(selectAge(10)));
+
+        DatabaseLease lease = manager.acquireDatabase();
+
+        try {
+            ContentValues record = new ContentValues();
+            record.put(TestDatabase.ID, 4);
+            record.put(TestDatabase.NAME, "row4");
+            record.put(TestDatabase.AGE, 10);
+            lease.getDatabase().insert(TestDatabase.TABLE, record);
+        } finally {
+            lease.close();
+        }
+
+        cache.invalidate(TestDatabase.TABLE);
+
+        assertEquals(Arrays.asList("1|row1|10", "4|row4|10"), query(selectAge(10)));
+    }
+}
@@ -0,0 +1,160 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class RecordSourcesTest {
+
+    private static List<ContentValues> readAll(RecordSource source) throws IOException {
+        List<ContentValues> records = new ArrayList<>();
+
+        try {
+            while (true) {
+                ContentValues record = new ContentValues();
+                if (!source.next(record))
+                    return records;
+                records.add(record);
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    private static List<ContentValues> readCsv(String csv) throws IOException {
+        return readAll(RecordSources.fromCsv(
+                new ByteArrayInputStream(csv.getBytes(Charset.forName("UTF-8")))));
+    }
+
+    private static List<ContentValues> readJson(String json) throws IOException {
+        return readAll(RecordSources.fromJsonArray(
+                new ByteArrayInputStream(json.getBytes(Charset.forName("UTF-8")))));
+    }
+
+    @Test
+    public void csvWithHeader() throws IOException {
+        List<ContentValues> records = readCsv("_id,name,age\n1,first,20\n2,second,30\n");
+
+        assertEquals(2, records.size());
+        assertEquals("1", records.get(0).getAsString("_id"));
+        assertEquals("first", records.get(0).getAsString("name"));
+        assertEquals("20", records.get(0).getAsString("age"));
+        assertEquals("second", records.get(1).getAsString("name"));
+    }
+
+    @Test
+    public void csvQuotedValues() throws IOException {
+        List<ContentValues> records = readCsv(
+                "_id,name\r\n1,\"with, comma\"\r\n2,\"with \"\"quotes\"\"\"\r\n3,\"multi\nline\"");
+
+        assertEquals(3, records.size());
+        assertEquals("with, comma", records.get(0).getAsString("name"));
+        assertEquals("with \"quotes\"", records.get(1).getAsString("name"));
+        assertEquals("multi\nline", records.get(2).getAsString("name"));
+    }
+
+    @Test
+    public void csvEmptyValues() throws IOException {
+        ContentValues record = readCsv("_id,name,age\n1,,\"\"").get(0);
+
+        // empty unquoted values are null, empty quoted values are empty strings
+        assertTrue(record.containsKey("name"));
+        assertNull(record.get("name"));
+        assertEquals("", record.getAsString("age"));
+    }
+
+    @Test
+    public void csvShorterLinesLeaveMissingColumnsOut() throws IOException {
+        ContentValues record = readCsv("_id,name,age\n1,first").get(0);
+
+        assertEquals("first", record.getAsString("name"));
+        assertFalse(record.containsKey("age"));
+    }
+
+    @Test
+    public void csvSkipsEmptyLines() throws IOException {
+        assertEquals(2, readCsv("\n_id\n\n1\r\n\r\n2\n\n").size());
+    }
+
+    @Test
+    public void csvWithoutRecords() throws IOException {
+        assertEquals(0, readCsv("").size());
+        assertEquals(0, readCsv("_id,name\n").size());
+    }
+
+    @Test
+    public void csvLongerLinesFail() {
+        try {
+            readCsv("_id\n1,2");
+            fail("line with more values than the header must fail");
+        } catch (IOException expected) { }
+    }
+
+    @Test
+    public void csvUnterminatedQuoteFails() {
+        try {
+            readCsv("_id,name\n1,\"unterminated");
+            fail("unterminated quoted value must fail");
+        } catch (IOException expected) { }
+    }
+
+    @Test
+    public void csvCharactersAfterQuotedValueFail() {
+        try {
+            readCsv("_id,name\n1,\"quoted\"x");
+            fail("characters after a quoted value must fail");
+        } catch (IOException expected) { }
+    }
+
+    @Test
+    public void jsonValueTypes() throws IOException {
+        List<ContentValues> records = readJson("[{\"_id\": 1, \"name\": \"first\", \"score\": 1.5, "
+                + "\"big\": 12345678901234567890, \"active\": true, \"age\": null}, {\"_id\": 2}]");
+
+        assertEquals(2, records.size());
+
+        ContentValues record = records.get(0);
+        assertEquals(Long.valueOf(1), record.get("_id"));
+        assertEquals("first", record.get("name"));
+        assertEquals(Double.valueOf(1.5), record.get("score"));
+        assertEquals(Double.valueOf(12345678901234567890d), record.get("big"));
+        assertEquals(Boolean.TRUE, record.get("active"));
+        assertTrue(record.containsKey("age"));
+        assertNull(record.get("age"));
+
+        assertEquals(1, records.get(1).size());
+    }
+
+    @Test
+    public void jsonEmptyArray() throws IOException {
+        assertEquals(0, readJson("[]").size());
+    }
+
+    @Test
+    public void jsonNestedValuesFail() {
+        try {
+            readJson("[{\"_id\": 1, \"tags\": [\"a\"]}]");
+            fail("nested values must fail");
+        } catch (IOException expected) { }
+    }
+}
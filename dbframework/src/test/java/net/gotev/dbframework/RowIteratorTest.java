@@ -0,0 +1,199 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import com.squareup.sqlbrite.BriteDatabase;
+import com.squareup.sqldelight.SqlDelightStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the streaming row APIs: {@link DatabaseManager#iterate}, {@link DatabaseManager#forEachRow}
+ * and {@link DatabaseManager#getRowChunksObservable}.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class RowIteratorTest {
+
+    private static final int ROWS = 2500;
+
+    private final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+
+    private final MetricsListener listener = new MetricsListener() {
+        @Override
+        public void onQuery(String statement, long executionNanos, int rows, long mappingNanos) {
+            queries.add(statement + " " + rows);
+        }
+
+        @Override
+        public void onTransaction(String name, long durationNanos, int statements, boolean successful) { }
+    };
+
+    private DatabaseManager manager;
+
+    @Before
+    public void setUp() throws Throwable {
+        manager = TestDatabase.init(TestDatabase.newConfig()
+                .setMetricsEnabled(true)
+                .setMetricsListener(listener));
+
+        new TransactionBuilder("insert")
+                .add(new TransactionStatement() {
+                    @Override
+                    public void onStatement(BriteDatabase db) throws Throwable {
+                        for (long id = 1; id <= ROWS; id++) {
+                            ContentValues record = new ContentValues();
+                            record.put(TestDatabase.ID, id);
+                            record.put(TestDatabase.NAME, "row" + id);
+                            db.insert(TestDatabase.TABLE, record);
+                        }
+                    }
+                })
+                .execute();
+
+        queries.clear();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    @Test
+    public void iteratesAllTheRows() {
+        List<String> rows = new ArrayList<>(ROWS);
+        RowIterator<String> iterator = manager.iterate(TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER);
+
+        while (iterator.hasNext()) {
+            rows.add(iterator.next());
+        }
+
+        assertEquals(TestDatabase.getRows(), rows);
+        assertEquals(1, manager.getOpenCount());
+
+        try {
+            iterator.next();
+            fail("next returned a row after the last one");
+        } catch (NoSuchElementException exc) {
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void iteratedQueryIsMeasured() {
+        RowIterator<String> iterator = manager.iterate(TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER);
+
+        while (iterator.hasNext()) {
+            iterator.next();
+        }
+
+        assertEquals(Collections.singletonList(TestDatabase.SELECT_ALL.statement + " " + ROWS), queries);
+    }
+
+    @Test
+    public void closingEarlyReleasesTheLease() {
+        RowIterator<String> iterator = manager.iterate(TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER);
+        assertEquals(2, manager.getOpenCount());
+
+        assertEquals("1|row1|null", iterator.next());
+        iterator.close();
+        iterator.close();
+
+        assertFalse(iterator.hasNext());
+        assertEquals(1, manager.getOpenCount());
+    }
+
+    @Test
+    public void emptyResultReleasesTheLeaseImmediately() {
+        RowIterator<String> iterator = manager.iterate(new SqlDelightStatement(
+                "SELECT * FROM " + TestDatabase.TABLE + " WHERE " + TestDatabase.ID + " < 0",
+                new String[0], Collections.singleton(TestDatabase.TABLE)), TestDatabase.ROW_MAPPER);
+
+        assertFalse(iterator.hasNext());
+        assertEquals(1, manager.getOpenCount());
+    }
+
+    @Test
+    public void forEachRowStopsWhenTheCallbackReturnsFalse() {
+        final List<String> rows = new ArrayList<>();
+
+        manager.forEachRow(TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER, new RowCallback<String>() {
+            @Override
+            public boolean onRow(String row) {
+                rows.add(row);
+                return rows.size() < 3;
+            }
+        });
+
+        assertEquals(Arrays.asList("1|row1|null", "2|row2|null", "3|row3|null"), rows);
+        assertEquals(1, manager.getOpenCount());
+    }
+
+    @Test
+    public void forEachRowReadsAllTheRows() {
+        final List<String> rows = new ArrayList<>(ROWS);
+
+        manager.forEachRow(TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER, new RowCallback<String>() {
+            @Override
+            public boolean onRow(String row) {
+                rows.add(row);
+                return true;
+            }
+        });
+
+        assertEquals(TestDatabase.getRows(), rows);
+    }
+
+    @Test
+    public void emitsChunksOfTheRequestedSize() {
+        List<List<String>> chunks = DatabaseManager.getRowChunksObservable(manager,
+                TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER, 1000)
+                .toList().toBlocking().single();
+
+        assertEquals(3, chunks.size());
+        assertEquals(1000, chunks.get(0).size());
+        assertEquals(1000, chunks.get(1).size());
+        assertEquals(500, chunks.get(2).size());
+
+        List<String> rows = new ArrayList<>(ROWS);
+        for (List<String> chunk : chunks) {
+            rows.addAll(chunk);
+        }
+        assertEquals(TestDatabase.getRows(), rows);
+        assertEquals(1, manager.getOpenCount());
+    }
+
+    @Test
+    public void unsubscribingFromChunksReleasesTheLease() throws InterruptedException {
+        List<String> first = DatabaseManager.getRowChunksObservable(manager,
+                TestDatabase.SELECT_ALL, TestDatabase.ROW_MAPPER, 10)
+                .toBlocking().first();
+
+        assertEquals(10, first.size());
+        assertEquals("10|row10|null", first.get(9));
+
+        // the iterator is closed on the IO thread, right after the unsubscription
+        long deadline = System.currentTimeMillis() + 5000;
+        while (manager.getOpenCount() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, manager.getOpenCount());
+    }
+}
@@ -0,0 +1,125 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link DatabaseManager#saveAll(String, String, List)}. Robolectric's SQLite 3.7.10
+ * supports neither upserts nor multi-row inserts, so the records are written one at a time.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SaveAllTest {
+
+    // more rows than fit in a multi-row INSERT on newer SQLite versions
+    private static final int ROWS = DatabaseManager.MAX_INSERT_ROWS * 2 + 200;
+
+    @Before
+    public void setUp() {
+        TestDatabase.init();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private static ContentValues record(Long id, String name, Long age) {
+        ContentValues record = new ContentValues();
+        if (id != null)
+            record.put(TestDatabase.ID, id);
+        record.put(TestDatabase.NAME, name);
+        if (age != null)
+            record.put(TestDatabase.AGE, age);
+        return record;
+    }
+
+    private static void saveAll(List<ContentValues> records) throws Throwable {
+        new TransactionBuilder("save all")
+                .add(DatabaseManager.saveAll(TestDatabase.TABLE, TestDatabase.ID, records))
+                .execute();
+    }
+
+    @Test
+    public void savesRecordsWithDifferentColumns() throws Throwable {
+        saveAll(Arrays.asList(record(1L, "one", 10L), record(2L, "two", 20L)));
+
+        saveAll(Arrays.asList(
+                // updates only the name, keeping the age
+                record(1L, "first", null),
+                record(2L, "second", 22L),
+                record(3L, "third", null),
+                // the primary key is generated
+                record(null, "generated", 50L),
+                record(4L, "fourth", 40L),
+                record(null, "generated without age", null)));
+
+        assertEquals(Arrays.asList("1|first|10", "2|second|22", "3|third|null", "4|fourth|40",
+                "5|generated|50", "6|generated without age|null"), TestDatabase.getRows());
+    }
+
+    @Test
+    public void insertsMoreRowsThanFitInOneStatement() throws Throwable {
+        List<ContentValues> records = new ArrayList<>(ROWS);
+        List<String> expected = new ArrayList<>(ROWS);
+
+        for (long id = 1; id <= ROWS; id++) {
+            records.add(record(null, "row" + id, id));
+            expected.add(id + "|row" + id + "|" + id);
+        }
+
+        saveAll(records);
+
+        assertEquals(expected, TestDatabase.getRows());
+    }
+
+    @Test
+    public void updatesAndInsertsMoreRowsThanFitInOneStatement() throws Throwable {
+        List<ContentValues> existing = new ArrayList<>(ROWS / 2);
+
+        for (long id = 1; id <= ROWS; id += 2) {
+            existing.add(record(id, "old", id));
+        }
+
+        saveAll(existing);
+
+        List<ContentValues> records = new ArrayList<>(ROWS);
+        List<String> expected = new ArrayList<>(ROWS);
+
+        for (long id = 1; id <= ROWS; id++) {
+            records.add(record(id, "new", id * 2));
+            expected.add(id + "|new|" + id * 2);
+        }
+
+        saveAll(records);
+
+        assertEquals(expected, TestDatabase.getRows());
+    }
+
+    @Test
+    public void emptyListSavesNothing() throws Throwable {
+        saveAll(Collections.<ContentValues>emptyList());
+
+        assertEquals(0, TestDatabase.getRows().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyRecords() throws Throwable {
+        saveAll(Arrays.asList(record(1L, "one", 1L), new ContentValues()));
+    }
+}
@@ -0,0 +1,134 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the SQL generated by the {@link StatementCache} and the statements cached by
+ * table and column set.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class StatementCacheTest {
+
+    @Before
+    public void setUp() {
+        TestDatabase.init();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private static ContentValues record(Long id, String name, Long age) {
+        ContentValues record = new ContentValues();
+        if (id != null)
+            record.put(TestDatabase.ID, id);
+        record.put(TestDatabase.NAME, name);
+        if (age != null)
+            record.put(TestDatabase.AGE, age);
+        return record;
+    }
+
+    @Test
+    public void insertSql() {
+        String[] columns = {"_id", "age", "name"};
+
+        assertEquals("INSERT INTO test (_id,age,name) VALUES (?,?,?)",
+                StatementCache.getInsertSql(null, "test", columns));
+
+        assertEquals("INSERT OR IGNORE INTO test (_id,age,name) VALUES (?,?,?)",
+                StatementCache.getInsertSql("IGNORE", "test", columns));
+    }
+
+    @Test
+    public void insertRowsSql() {
+        String[] columns = {"_id", "age", "name"};
+
+        assertEquals("INSERT INTO test (_id,age,name) VALUES (?,?,?),(?,?,?)",
+                StatementCache.getInsertRowsSql("test", columns, 2, null));
+
+        assertEquals("INSERT INTO test (_id,age,name) VALUES (?,?,?) ON CONFLICT(_id) DO "
+                        + "UPDATE SET age=excluded.age,name=excluded.name",
+                StatementCache.getInsertRowsSql("test", columns, 1, "_id"));
+    }
+
+    @Test
+    public void upsertOfKeyOnlyDoesNothing() {
+        assertEquals("INSERT INTO test (_id) VALUES (?),(?) ON CONFLICT(_id) DO NOTHING",
+                StatementCache.getInsertRowsSql("test", new String[]{"_id"}, 2, "_id"));
+    }
+
+    @Test
+    public void updateSql() {
+        assertEquals("UPDATE test SET age=?,name=? WHERE _id = ?",
+                StatementCache.getUpdateSql("test", new String[]{"age", "name"}, "_id"));
+    }
+
+    @Test
+    public void columnsAreSortedAndExcluded() {
+        ContentValues record = record(1L, "first", 20L);
+
+        assertArrayEquals(new String[]{"_id", "age", "name"}, StatementCache.getColumns(record, null));
+        assertArrayEquals(new String[]{"age", "name"}, StatementCache.getColumns(record, "_id"));
+        assertArrayEquals(new String[]{"_id", "age", "name"}, StatementCache.getColumns(record, "missing"));
+    }
+
+    @Test
+    public void recordsWithDifferentColumnSetsUseTheirOwnStatements() throws Throwable {
+        // same table, different column sets, alternated to reuse the cached layouts
+        new TransactionBuilder("save")
+                .add(DatabaseManager.save(TestDatabase.TABLE, TestDatabase.ID, record(1L, "first", 20L), false))
+                .add(DatabaseManager.save(TestDatabase.TABLE, TestDatabase.ID, record(2L, "second", null), false))
+                .add(DatabaseManager.save(TestDatabase.TABLE, TestDatabase.ID, record(3L, "third", 30L), false))
+                .add(DatabaseManager.save(TestDatabase.TABLE, TestDatabase.ID, record(4L, "fourth", null), false))
+                .execute();
+
+        assertEquals(Arrays.asList("1|first|20", "2|second|null", "3|third|30", "4|fourth|null"),
+                TestDatabase.getRows());
+
+        new TransactionBuilder("update")
+                .add(DatabaseManager.save(TestDatabase.TABLE, TestDatabase.ID, record(1L, "one", null), false))
+                .add(DatabaseManager.save(TestDatabase.TABLE, TestDatabase.ID, record(2L, "two", 22L), false))
+                .add(DatabaseManager.save(TestDatabase.TABLE, TestDatabase.ID, record(3L, "three", null), false))
+                .execute();
+
+        // columns missing in the records are not updated
+        assertEquals(Arrays.asList("1|one|20", "2|two|22", "3|three|30", "4|fourth|null"),
+                TestDatabase.getRows());
+    }
+
+    @Test
+    public void columnOrderOfTheRecordDoesNotMatter() throws Throwable {
+        ContentValues first = new ContentValues();
+        first.put(TestDatabase.ID, 1L);
+        first.put(TestDatabase.NAME, "first");
+        first.put(TestDatabase.AGE, 20L);
+
+        ContentValues second = new ContentValues();
+        second.put(TestDatabase.AGE, 30L);
+        second.put(TestDatabase.NAME, "second");
+        second.put(TestDatabase.ID, 2L);
+
+        new TransactionBuilder("save")
+                .add(DatabaseManager.save(TestDatabase.TABLE, TestDatabase.ID, first, false))
+                .add(DatabaseManager.save(TestDatabase.TABLE, TestDatabase.ID, second, false))
+                .execute();
+
+        assertEquals(Arrays.asList("1|first|20", "2|second|30"), TestDatabase.getRows());
+    }
+}
@@ -0,0 +1,178 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import com.squareup.sqldelight.RowMapper;
+import com.squareup.sqldelight.SqlDelightStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link DatabaseManager#syncTableWithList(String, String, List, SyncResult)}, which
+ * writes only the rows whose content changed.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SyncChangedRowsTest {
+
+    private static final String TYPED = "typed";
+    private static final String FLAG = "flag";
+    private static final String RATIO = "ratio";
+    private static final String CODE = "code";
+
+    private static final SqlDelightStatement SELECT_TYPED = new SqlDelightStatement(
+            "SELECT * FROM " + TYPED + " ORDER BY " + TestDatabase.ID, new String[0],
+            Collections.singleton(TYPED));
+
+    private static final RowMapper<String> TYPED_MAPPER = new RowMapper<String>() {
+        @Override
+        public String map(@NonNull Cursor cursor) {
+            return cursor.getLong(0) + "|" + cursor.getLong(1) + "|" + cursor.getFloat(2)
+                    + "|" + cursor.getString(3);
+        }
+    };
+
+    /**
+     * Table whose columns store booleans as INTEGER, floats as REAL and anything in a column
+     * with text affinity.
+     */
+    private static final class CreateTypedTable implements DatabaseMigration {
+        @Override
+        public void up(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TYPED + " (" + TestDatabase.ID + " INTEGER NOT NULL PRIMARY KEY, "
+                    + FLAG + " INTEGER, " + RATIO + " REAL, " + CODE + " TEXT)");
+        }
+
+        @Override
+        public void down(SQLiteDatabase db) {
+            db.execSQL(DatabaseManager.getDropTableSql(TYPED));
+        }
+    }
+
+    private DatabaseManager manager;
+
+    @Before
+    public void setUp() {
+        manager = TestDatabase.init(new CreateTypedTable());
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private static ContentValues record(long id, String name) {
+        ContentValues record = new ContentValues();
+        record.put(TestDatabase.ID, id);
+        record.put(TestDatabase.NAME, name);
+        record.put(TestDatabase.AGE, id % 100);
+        return record;
+    }
+
+    private static ContentValues typed(long id, boolean flag, float ratio, long code) {
+        ContentValues record = new ContentValues();
+        record.put(TestDatabase.ID, id);
+        record.put(FLAG, flag);
+        record.put(RATIO, ratio);
+        record.put(CODE, code);
+        return record;
+    }
+
+    private SyncResult sync(String table, List<ContentValues> records) throws Throwable {
+        SyncResult result = new SyncResult();
+
+        new TransactionBuilder("sync")
+                .add(manager.syncTableWithList(table, TestDatabase.ID, records, result))
+                .execute();
+
+        return result;
+    }
+
+    private static void assertResult(SyncResult result, int inserted, int updated, int unchanged, int deleted) {
+        assertEquals(Arrays.asList(inserted, updated, unchanged, deleted), Arrays.asList(
+                result.getInserted(), result.getUpdated(), result.getUnchanged(), result.getDeleted()));
+    }
+
+    @Test
+    public void writesOnlyTheChangedRows() throws Throwable {
+        List<ContentValues> records = new ArrayList<>();
+        for (long id = 1; id <= 10; id++) {
+            records.add(record(id, "old"));
+        }
+        assertResult(sync(TestDatabase.TABLE, records), 10, 0, 0, 0);
+
+        List<ContentValues> newRecords = new ArrayList<>();
+        newRecords.add(record(1, "old"));
+        newRecords.add(record(2, "changed"));
+        newRecords.add(record(11, "new"));
+
+        assertResult(sync(TestDatabase.TABLE, newRecords), 1, 1, 1, 8);
+        assertEquals(Arrays.asList("1|old|1", "2|changed|2", "11|new|11"), TestDatabase.getRows());
+    }
+
+    @Test
+    public void syncWithoutChangesWritesNothing() throws Throwable {
+        List<ContentValues> records = Arrays.asList(record(1, "a"), record(2, "b"));
+        sync(TestDatabase.TABLE, records);
+
+        assertResult(sync(TestDatabase.TABLE, records), 0, 0, 2, 0);
+    }
+
+    @Test
+    public void comparesValuesAsSqliteStoresThem() throws Throwable {
+        // booleans are stored as 1 and 0, floats as doubles and numbers as text in the TEXT column
+        List<ContentValues> records = Arrays.asList(typed(1, true, 0.1f, 42), typed(2, false, 2.5f, 7));
+        assertResult(sync(TYPED, records), 2, 0, 0, 0);
+
+        assertResult(sync(TYPED, Arrays.asList(typed(1, true, 0.1f, 42), typed(2, false, 2.5f, 7))),
+                0, 0, 2, 0);
+
+        ContentValues textCode = typed(2, false, 2.5f, 7);
+        textCode.put(CODE, "7");
+        ContentValues doubleRatio = typed(1, true, 0.1f, 42);
+        doubleRatio.put(RATIO, (double) 0.1f);
+        ContentValues integerFlag = typed(3, true, 1, 1);
+
+        assertResult(sync(TYPED, Arrays.asList(doubleRatio, textCode, integerFlag)), 1, 0, 2, 0);
+
+        ContentValues longFlag = typed(3, true, 1, 1);
+        longFlag.put(FLAG, 1L);
+        assertResult(sync(TYPED, Arrays.asList(typed(1, false, 0.1f, 42), typed(2, false, 0.2f, 7),
+                longFlag)), 0, 2, 1, 0);
+
+        assertEquals(Arrays.asList("1|0|0.1|42", "2|0|0.2|7", "3|1|1.0|1"),
+                manager.executeListQuery(SELECT_TYPED, TYPED_MAPPER));
+    }
+
+    @Test
+    public void recordsWithoutPrimaryKeyAreInserted() throws Throwable {
+        sync(TestDatabase.TABLE, Arrays.asList(record(1, "a"), record(2, "b")));
+
+        ContentValues noKey = new ContentValues();
+        noKey.put(TestDatabase.NAME, "no key");
+
+        assertResult(sync(TestDatabase.TABLE, Arrays.asList(record(1, "a"), noKey)), 1, 0, 1, 1);
+        assertEquals(Arrays.asList("1|a|1", "2|no key|null"), TestDatabase.getRows());
+
+        // records without the primary key never match the stored rows
+        assertResult(sync(TestDatabase.TABLE, Arrays.asList(record(1, "a"), noKey)), 1, 0, 1, 1);
+        assertEquals(Arrays.asList("1|a|1", "2|no key|null"), TestDatabase.getRows());
+    }
+}
@@ -0,0 +1,148 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link DatabaseManager#syncTableWithList}, comparing the rows left in the table
+ * with the ones expected from the per-ID scan which it replaced.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SyncTableWithListTest {
+
+    // more than two DELETE ... IN chunks
+    private static final int ROWS = DatabaseManager.MAX_SQL_VARIABLES * 2 + 500;
+
+    private DatabaseManager manager;
+
+    @Before
+    public void setUp() {
+        manager = TestDatabase.init();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private static ContentValues record(long id, String name) {
+        ContentValues record = new ContentValues();
+        record.put(TestDatabase.ID, id);
+        record.put(TestDatabase.NAME, name);
+        record.put(TestDatabase.AGE, id % 100);
+        return record;
+    }
+
+    private void fillTable() throws Throwable {
+        List<ContentValues> records = new ArrayList<>(ROWS);
+
+        for (long id = 1; id <= ROWS; id++) {
+            records.add(record(id, "old"));
+        }
+
+        new TransactionBuilder("fill")
+                .add(DatabaseManager.saveAll(TestDatabase.TABLE, TestDatabase.ID, records))
+                .execute();
+    }
+
+    /**
+     * Rows expected after the sync, computed as the previous implementation did: every
+     * existing ID not found by scanning the new records is deleted, then every new record
+     * is saved.
+     */
+    private static List<String> getExpectedRows(List<String> existingRows, List<ContentValues> newRecords) {
+        Map<Long, String> rows = new TreeMap<>();
+
+        for (String row : existingRows) {
+            long id = Long.parseLong(row.substring(0, row.indexOf('|')));
+
+            for (ContentValues record : newRecords) {
+                if (record.containsKey(TestDatabase.ID) && record.getAsLong(TestDatabase.ID) == id) {
+                    rows.put(id, row);
+                    break;
+                }
+            }
+        }
+
+        for (ContentValues record : newRecords) {
+            long id = record.getAsLong(TestDatabase.ID);
+            rows.put(id, id + "|" + record.getAsString(TestDatabase.NAME) + "|"
+                    + record.getAsLong(TestDatabase.AGE));
+        }
+
+        return new ArrayList<>(rows.values());
+    }
+
+    @Test
+    public void deletesTheSameRowsAsThePerIdScan() throws Throwable {
+        fillTable();
+        List<String> existingRows = TestDatabase.getRows();
+        assertEquals(ROWS, existingRows.size());
+
+        // keeps one row out of three, updates some of them and adds new ones
+        List<ContentValues> newRecords = new ArrayList<>();
+
+        for (long id = 1; id <= ROWS; id += 3) {
+            newRecords.add(record(id, id % 2 == 0 ? "updated" : "old"));
+        }
+
+        for (long id = ROWS + 1; id <= ROWS + 10; id++) {
+            newRecords.add(record(id, "new"));
+        }
+
+        List<String> expected = getExpectedRows(existingRows, newRecords);
+
+        new TransactionBuilder("sync")
+                .add(manager.syncTableWithList(TestDatabase.TABLE, TestDatabase.ID, newRecords,
+                        TestDatabase.SELECT_IDS, false))
+                .execute();
+
+        assertEquals(expected, TestDatabase.getRows());
+    }
+
+    @Test
+    public void deletesAllTheRowsWithAnEmptyList() throws Throwable {
+        fillTable();
+
+        new TransactionBuilder("sync")
+                .add(manager.syncTableWithList(TestDatabase.TABLE, TestDatabase.ID,
+                        new ArrayList<ContentValues>(), TestDatabase.SELECT_IDS, false))
+                .execute();
+
+        assertEquals(0, TestDatabase.getRows().size());
+    }
+
+    @Test
+    public void matchesPrimaryKeysGivenAsStrings() throws Throwable {
+        fillTable();
+
+        ContentValues record = new ContentValues();
+        record.put(TestDatabase.ID, "7");
+        record.put(TestDatabase.NAME, "seven");
+        record.put(TestDatabase.AGE, 7L);
+
+        new TransactionBuilder("sync")
+                .add(manager.syncTableWithList(TestDatabase.TABLE, TestDatabase.ID,
+                        Arrays.asList(record), TestDatabase.SELECT_IDS, false))
+                .execute();
+
+        assertEquals(Arrays.asList("7|seven|7"), TestDatabase.getRows());
+    }
+}
@@ -0,0 +1,108 @@
+package net.gotev.dbframework;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import com.squareup.sqldelight.RowMapper;
+import com.squareup.sqldelight.SqlDelightStatement;
+
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Database with a single test table, for the tests which run on Robolectric's SQLite.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+final class TestDatabase {
+
+    static final String TABLE = "test";
+    static final String ID = "_id";
+    static final String NAME = "name";
+    static final String AGE = "age";
+
+    static final SqlDelightStatement SELECT_ALL = new SqlDelightStatement(
+            "SELECT * FROM " + TABLE + " ORDER BY " + ID, new String[0], Collections.singleton(TABLE));
+
+    static final SqlDelightStatement SELECT_IDS = new SqlDelightStatement(
+            "SELECT " + ID + " FROM " + TABLE, new String[0], Collections.singleton(TABLE));
+
+    /**
+     * Row of the test table, as a string like "1|name|42", to compare tables with a single
+     * assertion.
+     */
+    static final RowMapper<String> ROW_MAPPER = new RowMapper<String>() {
+        @Override
+        public String map(@NonNull Cursor cursor) {
+            return cursor.getLong(0) + "|" + cursor.getString(1) + "|"
+                    + (cursor.isNull(2) ? null : cursor.getLong(2));
+        }
+    };
+
+    private static final class CreateTestTable implements DatabaseMigration {
+        @Override
+        public void up(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " (" + ID + " INTEGER NOT NULL PRIMARY KEY, "
+                    + NAME + " TEXT, " + AGE + " INTEGER)");
+        }
+
+        @Override
+        public void down(SQLiteDatabase db) {
+            db.execSQL(DatabaseManager.getDropTableSql(TABLE));
+        }
+    }
+
+    private TestDatabase() { }
+
+    /**
+     * Gets the configuration of a database with an empty test table.
+     * @param migrations migrations to apply after the creation of the test table
+     * @return database configuration
+     */
+    static DatabaseConfig newConfig(DatabaseMigration... migrations) {
+        return newConfig("test.db", migrations);
+    }
+
+    /**
+     * Gets the configuration of a database with an empty test table.
+     * @param databaseName database file name
+     * @param migrations migrations to apply after the creation of the test table
+     * @return database configuration
+     */
+    static DatabaseConfig newConfig(String databaseName, DatabaseMigration... migrations) {
+        DatabaseMigration[] all = new DatabaseMigration[migrations.length + 1];
+        all[0] = new CreateTestTable();
+        System.arraycopy(migrations, 0, all, 1, migrations.length);
+
+        return new DatabaseConfig(databaseName, all);
+    }
+
+    /**
+     * Initializes the default instance with an empty test table.
+     * @param migrations migrations to apply after the creation of the test table
+     * @return database manager
+     */
+    static DatabaseManager init(DatabaseMigration... migrations) {
+        return init(newConfig(migrations));
+    }
+
+    /**
+     * Initializes the default instance.
+     * @param config configuration, usually from {@link #newConfig(DatabaseMigration...)}
+     * @return database manager
+     */
+    static DatabaseManager init(DatabaseConfig config) {
+        DatabaseManager.init(RuntimeEnvironment.application, config);
+        return DatabaseManager.getInstance();
+    }
+
+    /**
+     * @return rows of the test table sorted by ID, as returned by {@link #ROW_MAPPER}
+     */
+    static List<String> getRows() {
+        return DatabaseManager.getInstance().executeListQuery(SELECT_ALL, ROW_MAPPER);
+    }
+}
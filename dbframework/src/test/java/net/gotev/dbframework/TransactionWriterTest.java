@@ -0,0 +1,199 @@
+package net.gotev.dbframework;
+
+import android.content.ContentValues;
+
+import com.squareup.sqlbrite.BriteDatabase;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import rx.Completable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the transactions executed with {@link TransactionBuilder#executeAsync()} on the
+ * {@link TransactionWriter} thread, with and without group commit.
+ *
+ * @author gotev (alex@gotev.net)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class TransactionWriterTest {
+
+    private final List<String> transactions = Collections.synchronizedList(new ArrayList<String>());
+
+    private final MetricsListener listener = new MetricsListener() {
+        @Override
+        public void onQuery(String statement, long executionNanos, int rows, long mappingNanos) { }
+
+        @Override
+        public void onTransaction(String name, long durationNanos, int statements, boolean successful) {
+            transactions.add(name + (successful ? "" : " failed"));
+        }
+    };
+
+    @After
+    public void tearDown() {
+        DatabaseManager.deinit();
+    }
+
+    private static TransactionStatement insert(final long id) {
+        return new TransactionStatement() {
+            @Override
+            public void onStatement(BriteDatabase db) throws Throwable {
+                ContentValues record = new ContentValues();
+                record.put(TestDatabase.ID, id);
+                record.put(TestDatabase.NAME, "row" + id);
+                db.insert(TestDatabase.TABLE, record);
+            }
+        };
+    }
+
+    private static TransactionStatement fail() {
+        return new TransactionStatement() {
+            @Override
+            public void onStatement(BriteDatabase db) throws Throwable {
+                throw new IllegalStateException("failed statement");
+            }
+        };
+    }
+
+    /**
+     * Gets a transaction which keeps the writer busy until the latch is released, so the
+     * transactions submitted in the meantime are queued and executed together.
+     */
+    private static Completable blockWriter(final CountDownLatch started, final CountDownLatch release) {
+        return new TransactionBuilder("blocker")
+                .add(new TransactionStatement() {
+                    @Override
+                    public void onStatement(BriteDatabase db) throws Throwable {
+                        started.countDown();
+                        release.await();
+                    }
+                })
+                .executeAsync();
+    }
+
+    @Test
+    public void executesInSubmissionOrder() throws Throwable {
+        TestDatabase.init();
+
+        List<Completable> results = new ArrayList<>();
+        for (long id = 1; id <= 5; id++) {
+            results.add(new TransactionBuilder("insert " + id).add(insert(id)).executeAsync());
+        }
+
+        for (Completable result : results) {
+            assertNull(result.timeout(10, TimeUnit.SECONDS).get());
+        }
+
+        assertEquals(5, TestDatabase.getRows().size());
+    }
+
+    @Test
+    public void failedGroupMemberIsRolledBackAlone() throws Throwable {
+        TestDatabase.init(TestDatabase.newConfig().setGroupCommit(10).setMetricsListener(listener));
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Completable blocker = blockWriter(started, release);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        Completable first = new TransactionBuilder("first").add(insert(1)).executeAsync();
+        Completable failing = new TransactionBuilder("failing")
+                .add(insert(2))
+                .add(insert(3))
+                .add(fail())
+                .executeAsync();
+        Completable last = new TransactionBuilder("last").add(insert(4)).executeAsync();
+
+        release.countDown();
+
+        assertNull(blocker.timeout(10, TimeUnit.SECONDS).get());
+        assertNull(first.timeout(10, TimeUnit.SECONDS).get());
+        Throwable error = failing.timeout(10, TimeUnit.SECONDS).get();
+        assertNull(last.timeout(10, TimeUnit.SECONDS).get());
+
+        assertTrue(error instanceof IllegalStateException);
+        assertEquals("failed statement", error.getMessage());
+        assertEquals(Arrays.asList("1|row1|null", "4|row4|null"), TestDatabase.getRows());
+
+        // the three transactions have been committed together
+        assertEquals(Arrays.asList("blocker", "group of 3 transactions"), transactions);
+    }
+
+    @Test
+    public void everyFailedMemberIsRolledBack() throws Throwable {
+        TestDatabase.init(TestDatabase.newConfig().setGroupCommit(10));
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        blockWriter(started, release);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        Completable first = new TransactionBuilder("first").add(insert(1)).add(fail()).executeAsync();
+        Completable second = new TransactionBuilder("second").add(insert(2)).add(fail()).executeAsync();
+
+        release.countDown();
+
+        assertTrue(first.timeout(10, TimeUnit.SECONDS).get() instanceof IllegalStateException);
+        assertTrue(second.timeout(10, TimeUnit.SECONDS).get() instanceof IllegalStateException);
+        assertEquals(0, TestDatabase.getRows().size());
+    }
+
+    @Test
+    public void singleTransactionIsRolledBackEntirely() throws Throwable {
+        TestDatabase.init(TestDatabase.newConfig().setGroupCommit(10));
+
+        Throwable error = new TransactionBuilder("failing")
+                .add(insert(1))
+                .add(fail())
+                .executeAsync()
+                .timeout(10, TimeUnit.SECONDS)
+                .get();
+
+        assertTrue(error instanceof IllegalStateException);
+        assertEquals(0, TestDatabase.getRows().size());
+    }
+
+    @Test
+    public void executeAsyncAfterDeinitErrors() throws Throwable {
+        DatabaseManager manager = TestDatabase.init();
+        assertNull(new TransactionBuilder(manager, "before").add(insert(1)).executeAsync()
+                .timeout(10, TimeUnit.SECONDS).get());
+
+        DatabaseManager.deinit();
+
+        Throwable error = new TransactionBuilder(manager, "after").add(insert(2)).executeAsync()
+                .timeout(10, TimeUnit.SECONDS).get();
+
+        assertTrue(error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void submitAfterShutdownErrors() throws Throwable {
+        DatabaseManager manager = TestDatabase.init();
+        TransactionWriter writer = new TransactionWriter(manager, 1);
+
+        writer.shutdown();
+
+        Throwable error = writer.submit("after", Arrays.asList(insert(1)))
+                .timeout(10, TimeUnit.SECONDS).get();
+
+        assertTrue(error instanceof IllegalStateException);
+        assertEquals(0, TestDatabase.getRows().size());
+    }
+}